@@ -15,6 +15,9 @@ public class ApiKeyService {
     @Autowired
     private ApiKeyRepo apiKeyRepo;
 
+    @Autowired
+    private GitHubClientPool gitHubClientPool;
+
     /**
      * Create a new API key entry
      * 
@@ -51,6 +54,7 @@ public class ApiKeyService {
         }
 
         ApiKey apiKey = optionalApiKey.get();
+        gitHubClientPool.invalidate(apiKey.getGithubApiKey());
         apiKey.setGithubApiKey(githubApiKey);
         apiKeyRepo.save(apiKey);
         return true;
@@ -15,6 +15,9 @@ public class AppController {
     @Autowired
     private ApiKeyRepo apiKeyRepo;
 
+    @Autowired
+    private GitHubClientPool gitHubClientPool;
+
     /**
      * This is the endpoint to add or update an OpenAI LLM API key for a given UUID
      * 
@@ -73,6 +76,8 @@ public class AppController {
             }
 
             ApiKey apiKey = optionalApiKey.get();
+            // Drop the pooled client and cached auth check of the key being replaced
+            gitHubClientPool.invalidate(apiKey.getGithubApiKey());
             apiKey.setGithubApiKey(githubKey);
             apiKeyRepo.save(apiKey);
             
@@ -0,0 +1,67 @@
+package saim;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@CrossOrigin("*")
+@RestController
+@RequestMapping("/api/summary")
+public class BatchSummaryController {
+
+    @Autowired
+    private BatchSummaryService batchSummaryService;
+
+    @Autowired
+    private SummaryJobService summaryJobService;
+
+    /**
+     * Summarizes a base..head range (e.g. a pull request) or an explicit list of SHAs. The
+     * batch runs as a job: the response is 202 with a job id; poll
+     * /api/summary/status?jobId= and fetch /api/summary/result?jobId= when it completes.
+     */
+    @PostMapping("/batch")
+    public ResponseEntity<?> summarizeBatch(@RequestBody BatchSummaryRequest request) {
+        if (request == null || request.url == null || request.url.trim().isEmpty()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Missing 'url' in request body."));
+        }
+        boolean hasIds = request.ids != null && !request.ids.isEmpty();
+        boolean hasRange = request.base != null && !request.base.isBlank() && request.head != null && !request.head.isBlank();
+        if (!hasIds && !hasRange) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Provide either 'ids' or both 'base' and 'head'."));
+        }
+
+        try {
+            String batchKey = "batch:" + request.uuid + "@" + new ReactoringHelper().canonicalRepoUrl(request.url) + ":"
+                    + (hasIds ? String.join(",", request.ids) : request.base + ".." + request.head);
+            SummaryJob job = summaryJobService.submitBatch(batchKey, request.url, () -> {
+                try {
+                    return batchSummaryService.summarize(request);
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IllegalStateException(e.getMessage(), e);
+                }
+            });
+            Map<String, Object> response = new HashMap<>();
+            response.put("jobId", job.getJobId());
+            response.put("status", job.getStatus());
+            response.put("statusUrl", "/api/summary/status?jobId=" + job.getJobId());
+            response.put("resultUrl", "/api/summary/result?jobId=" + job.getJobId());
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
+        } catch (TaskRejectedException e) {
+            System.err.println("Summary executor is saturated: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(Map.of("error", "Too many summaries in progress, please retry shortly"));
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package saim;
+
+import java.util.List;
+
+/**
+ * Body of POST /api/summary/batch. Either ids, or base and head, must be given.
+ */
+public class BatchSummaryRequest {
+    public String url;   // Repository URL, e.g. https://github.com/owner/repo
+    public String base;  // Range start (exclusive), e.g. the base branch or SHA of a pull request
+    public String head;  // Range end (inclusive)
+    public List<String> ids; // Explicit list of commit SHAs, used instead of base..head
+    public String uuid;
+}
@@ -0,0 +1,307 @@
+package saim;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.refactoringminer.api.Refactoring;
+import org.refactoringminer.rm1.GitHistoryRefactoringMinerImpl;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Summarizes many commits of one repository (a base..head range or a list of SHAs) in one pass:
+ * the mirror is fetched and opened once, every commit not mined before is mined against it,
+ * the LLM calls run with bounded concurrency, and the results are stored in batch.
+ */
+@Service
+public class BatchSummaryService {
+
+    @Autowired
+    private ApiKeyRepo apiKeyRepo;
+
+    @Autowired
+    private CommitService cService;
+
+    @Autowired
+    private CommitRefactoringService commitRefactoringService;
+
+    @Autowired
+    private RepositoryMirrorManager mirrorManager;
+
+    @Autowired
+    private GitHubClientPool gitHubClientPool;
+
+    @Autowired
+    private SummaryRequestCoalescer coalescer;
+
+    @Autowired
+    private LLM llm;
+
+    @Autowired
+    private CommitDiffExtractor diffExtractor;
+
+    @Autowired
+    private MiningAdmissionService admissionService;
+
+    @Value("${summary.batch.max-commits:100}")
+    private int maxCommits;
+
+    private final ExecutorService llmExecutor;
+
+    private final ReactoringHelper helper = new ReactoringHelper();
+
+    // One pool shared by all batches, so concurrent batches cannot multiply the load on the metrics service
+    public BatchSummaryService(@Value("${summary.batch.llm-concurrency:4}") int llmConcurrency) {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.llmExecutor = Executors.newFixedThreadPool(llmConcurrency, runnable -> {
+            Thread thread = new Thread(runnable, "BatchSummaryLLM-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Summarizes every commit of the request, reusing cached summaries and stored refactorings
+     *
+     * @param request The repository and the commits to summarize
+     * @return One entry per commit (oldest first for ranges) with its id, summary and source
+     */
+    public List<Map<String, Object>> summarize(BatchSummaryRequest request) throws Exception {
+        return summarize(request, LlmRequestScheduler.Priority.INTERACTIVE);
+    }
+
+    /**
+     * @param request The repository and the commits to summarize
+     * @param priority BACKGROUND for work no user is waiting on, so it queues behind interactive LLM calls
+     * @return One entry per commit (oldest first for ranges) with its id, summary and source
+     */
+    public List<Map<String, Object>> summarize(BatchSummaryRequest request, LlmRequestScheduler.Priority priority) throws Exception {
+        ApiKey apiKey = apiKeyRepo.findByUuid(request.uuid)
+                .orElseThrow(() -> new RuntimeException("API key not found for UUID: " + request.uuid));
+        String aiToken = apiKey.getOpenaiLlmApiKey();
+        if (aiToken == null || aiToken.isBlank()) {
+            throw new RuntimeException("OpenAI API key not configured");
+        }
+        String githubToken = apiKey.getGithubApiKey();
+        if (githubToken == null || githubToken.isBlank()) {
+            throw new RuntimeException("GitHub API token not configured");
+        }
+        GitHubCredentials credentials = new GitHubCredentials(githubToken);
+        GitHistoryRefactoringMinerImpl miner = gitHubClientPool.getMiner(credentials);
+
+        String repoUrl = helper.getRepoUrl(request.url);
+        boolean isRange = request.ids == null || request.ids.isEmpty();
+        List<String> requested = new ArrayList<>();
+        if (isRange) {
+            requested.add(request.head);
+            requested.add(request.base);
+        } else {
+            for (String id : request.ids) {
+                requested.add(helper.cleanCommitId(id).trim());
+            }
+        }
+
+        Map<String, Map<String, Object>> results = new LinkedHashMap<>();
+        Map<String, String> ogMessages = new HashMap<>();
+        Map<String, String> refactoringMessages = new LinkedHashMap<>();
+        Map<String, Map<String, Integer>> refactoringInstances = new HashMap<>();
+        Map<String, CommitDiff> commitDiffs = new HashMap<>();
+
+        try (Repository repository = mirrorManager.openWithCommits(repoUrl, requested, credentials)) {
+            List<RevCommit> commits = isRange
+                    ? resolveRange(repository, request.base, request.head)
+                    : resolveIds(repository, requested);
+            System.out.println("Batch summary of " + commits.size() + " commits in " + repoUrl);
+
+            Map<String, List<Refactoring>> mined = new LinkedHashMap<>();
+            for (RevCommit commit : commits) {
+                String sha = commit.getName();
+                Map<String, Object> result = new LinkedHashMap<>();
+                result.put("id", sha);
+                results.put(sha, result);
+                ogMessages.put(sha, commit.getShortMessage());
+
+                Optional<String> cached = cService.getCommitfromDB(request.url, sha);
+                if (cached.isPresent()) {
+                    result.put("summary", cached.get());
+                    result.put("source", "cache");
+                    continue;
+                }
+
+                // Refactorings stored by an earlier run are reused instead of mined again
+                Optional<String> stored = commitRefactoringService.findRefactoringMessages(repoUrl, sha);
+                if (stored.isPresent()) {
+                    refactoringMessages.put(sha, stored.get());
+                    refactoringInstances.put(sha, commitRefactoringService.findRefactoringInstances(repoUrl, sha));
+                    continue;
+                }
+
+                // Only completed mining is stored; failed or timed out commits are mined again next time
+                Optional<List<Refactoring>> found = mineCommit(miner, repository, repoUrl, sha);
+                found.ifPresent(refactorings -> mined.put(sha, refactorings));
+                refactoringMessages.put(sha, formatRefactorings(found.orElse(List.of())));
+                refactoringInstances.put(sha, countByType(found.orElse(List.of())));
+            }
+
+            // Commits without refactorings are summarized from their diff, and every summary is cached by
+            // the diff's patch id, so the diffs are computed while the mirror is open
+            for (String sha : refactoringMessages.keySet()) {
+                try {
+                    commitDiffs.put(sha, diffExtractor.diff(repository, sha));
+                } catch (IOException e) {
+                    System.err.println("Could not compute diff of commit " + sha + ": " + e.getMessage());
+                }
+            }
+
+            if (!mined.isEmpty()) {
+                commitRefactoringService.saveRefactoringsBatch(repoUrl, mined);
+                System.out.println("Saved refactorings of " + mined.size() + " commits into database (batch)");
+            }
+        }
+
+        Map<String, CompletableFuture<String>> pending = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : refactoringMessages.entrySet()) {
+            String sha = entry.getKey();
+            String commitUrl = request.url + "/commit/" + sha;
+            String commitKey = helper.canonicalCommitKey(request.url, sha);
+            pending.put(sha, CompletableFuture.supplyAsync(() -> coalescer.execute(commitKey, priority,
+                    () -> llm.generateSummary(entry.getValue(), refactoringInstances.get(sha), repoUrl, commitUrl, aiToken, priority,
+                            commitDiffs.get(sha))),
+                    llmExecutor));
+        }
+
+        Map<String, String> summaries = new LinkedHashMap<>();
+        for (Map.Entry<String, CompletableFuture<String>> entry : pending.entrySet()) {
+            Map<String, Object> result = results.get(entry.getKey());
+            try {
+                String summary = entry.getValue().join();
+                summaries.put(entry.getKey(), summary);
+                result.put("summary", summary);
+                result.put("source", "generated");
+            } catch (Exception e) {
+                System.err.println("Error summarizing commit " + entry.getKey() + ": " + e.getMessage());
+                result.put("source", "error");
+                result.put("error", "Error analyzing commit: " + e.getMessage());
+            }
+        }
+
+        if (!summaries.isEmpty()) {
+            saveSummaries(request.url, summaries, ogMessages);
+        }
+        return new ArrayList<>(results.values());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        llmExecutor.shutdownNow();
+    }
+
+    // Commits reachable from head but not from base, oldest first, without merges (like RefactoringMiner's range walk)
+    private List<RevCommit> resolveRange(Repository repository, String base, String head) throws IOException {
+        List<RevCommit> commits = new ArrayList<>();
+        try (RevWalk revWalk = new RevWalk(repository)) {
+            revWalk.markStart(revWalk.parseCommit(resolve(repository, head)));
+            revWalk.markUninteresting(revWalk.parseCommit(resolve(repository, base)));
+            revWalk.sort(RevSort.TOPO, true);
+            revWalk.sort(RevSort.REVERSE, true);
+            for (RevCommit commit : revWalk) {
+                if (commit.getParentCount() > 1) {
+                    continue;
+                }
+                if (commits.size() >= maxCommits) {
+                    throw new IllegalArgumentException("Range contains more than " + maxCommits + " commits");
+                }
+                commits.add(commit);
+            }
+        }
+        return commits;
+    }
+
+    private List<RevCommit> resolveIds(Repository repository, List<String> ids) throws IOException {
+        if (ids.size() > maxCommits) {
+            throw new IllegalArgumentException("At most " + maxCommits + " commits can be summarized at once");
+        }
+        List<RevCommit> commits = new ArrayList<>();
+        try (RevWalk revWalk = new RevWalk(repository)) {
+            for (String id : ids) {
+                commits.add(revWalk.parseCommit(resolve(repository, id)));
+            }
+        }
+        return commits;
+    }
+
+    private ObjectId resolve(Repository repository, String revision) throws IOException {
+        ObjectId id = repository.resolve(revision);
+        if (id == null) {
+            throw new IllegalArgumentException("Unknown revision: " + revision);
+        }
+        return id;
+    }
+
+    /**
+     * @return The refactorings of the commit, or empty if mining failed, timed out or was skipped
+     *         for the size of the commit; the commit is then summarized from its diff
+     */
+    private Optional<List<Refactoring>> mineCommit(GitHistoryRefactoringMinerImpl miner, Repository repository, String repoUrl,
+                                                   String sha) throws IOException {
+        MiningDecision decision = admissionService.decide(repository, repoUrl, sha);
+        if (decision.getStrategy() == MiningDecision.Strategy.DIFF_ONLY) {
+            return Optional.empty();
+        }
+        if (decision.getStrategy() == MiningDecision.Strategy.SAMPLED) {
+            return admissionService.mineSampled(miner, repository, decision);
+        }
+
+        Optional<List<Refactoring>> found = admissionService.mineFull(miner, repository, decision);
+        if (found.isEmpty()) {
+            System.err.println("Mining of commit " + sha + " did not complete, its refactorings are not stored");
+        } else {
+            System.out.println("Found " + found.get().size() + " refactorings in " + sha);
+        }
+        return found;
+    }
+
+    private String formatRefactorings(List<Refactoring> refactorings) {
+        StringBuilder messages = new StringBuilder();
+        int x = 1;
+        for (Refactoring ref : refactorings) {
+            messages.append(x++).append(". ").append(ref.toString()).append("\n");
+        }
+        return messages.toString();
+    }
+
+    private Map<String, Integer> countByType(List<Refactoring> refactorings) {
+        Map<String, Integer> instances = new HashMap<>();
+        for (Refactoring ref : refactorings) {
+            instances.merge(ref.getRefactoringType().toString(), 1, Integer::sum);
+        }
+        return instances;
+    }
+
+    private void saveSummaries(String url, Map<String, String> summaries, Map<String, String> ogMessages) {
+        try {
+            cService.saveCommits(url, summaries, ogMessages);
+        } catch (RuntimeException e) {
+            // A concurrent /greeting stored one of the commits first; fall back to per-commit upserts
+            System.err.println("Batch save failed, saving commits one by one: " + e.getMessage());
+            summaries.forEach((sha, summary) -> cService.saveCommit(sha, url, summary, ogMessages.getOrDefault(sha, "")));
+        }
+    }
+}
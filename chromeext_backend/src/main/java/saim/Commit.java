@@ -5,16 +5,20 @@ import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
 
 @Entity
-@Table(name = "commit_details")
+@Table(name = "commit_details",
+       uniqueConstraints = @UniqueConstraint(name = "uk_commit_details_url_commit_id", columnNames = {"url", "commit_id"}),
+       indexes = @Index(name = "idx_commit_details_commit_id", columnList = "commit_id"))
 public class Commit {
   @Id
   @GeneratedValue(strategy=GenerationType.AUTO)
   private Long id;
 
-  @Column(name = "commit_id")
+  @Column(name = "commit_id", length = 64)
   private String commitID;
 
   @Column(name = "url")
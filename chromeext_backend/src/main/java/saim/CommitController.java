@@ -22,7 +22,13 @@ public class CommitController {
     private CommitService commitService;
 
     @Autowired
-    private CommitRefactoringsRepository commitRefactoringsRepository;  // 🛜 New Injection
+    private CommitRefactoringService commitRefactoringService;
+
+    @Autowired
+    private CommitSummaryCache summaryCache;
+
+    @Autowired
+    private LlmResponseCache llmResponseCache;
 
     private final Gson gson = new Gson();
 
@@ -39,13 +45,13 @@ public class CommitController {
             @RequestParam("id") String commitId) {
         
         Optional<String> messageOpt = commitService.getCommitfromDB(url, commitId);
-        Optional<CommitRefactorings> refactoringsOpt = commitRefactoringsRepository.findByCommitId(commitId);
+        Optional<String> refactoringsOpt = commitRefactoringService.findRefactoringMessages(url, commitId);
 
         if (messageOpt.isPresent()) {
             Map<String, String> resp = new HashMap<>();
             resp.put("commitMessage", messageOpt.get());
             if (refactoringsOpt.isPresent()) {
-                resp.put("refactorings", refactoringsOpt.get().getRefactorings());
+                resp.put("refactorings", refactoringsOpt.get());
             } else {
                 resp.put("refactorings", "No refactorings found");
             }
@@ -57,4 +63,24 @@ public class CommitController {
                                  .body(gson.toJson(error));
         }
     }
+
+    /**
+     * GET /api/commits/cache/stats
+     *
+     * @return JSON with the summary cache size and hit/miss/eviction counters
+     */
+    @GetMapping("/cache/stats")
+    public ResponseEntity<String> getCacheStats() {
+        return ResponseEntity.ok(gson.toJson(summaryCache.stats()));
+    }
+
+    /**
+     * GET /api/commits/llm-cache/stats
+     *
+     * @return JSON with the LLM response cache size and hit/miss/eviction counters
+     */
+    @GetMapping("/llm-cache/stats")
+    public ResponseEntity<String> getLlmCacheStats() {
+        return ResponseEntity.ok(gson.toJson(llmResponseCache.stats()));
+    }
 }
@@ -1,4 +1,5 @@
 package saim;
+import java.util.List;
 import java.util.Optional;
 
 import org.springframework.data.jpa.repository.JpaRepository;
@@ -9,4 +10,7 @@ public interface CommitDetailsRepo extends JpaRepository<Commit, Long>
 {
     @Query("SELECT c FROM Commit c WHERE c.url = :url AND c.commitID = :commitId")
     Optional<Commit> findByUrlAndCommitId(@Param("url") String url, @Param("commitId") String commitId);
+
+    @Query("SELECT c FROM Commit c WHERE c.url = :url AND c.commitID LIKE CONCAT(:prefix, '%') ORDER BY c.id DESC")
+    List<Commit> findByUrlAndCommitIdPrefix(@Param("url") String url, @Param("prefix") String prefix);
 }
@@ -0,0 +1,23 @@
+package saim;
+
+// The diff of a commit as sent to the metrics service, with a hash of the change it makes
+public class CommitDiff {
+
+    private final String text;
+    // Like git patch-id: the same for a cherry-pick, rebase or fork of the commit, since SHAs,
+    // line numbers and whitespace are ignored and the full diff is hashed, not only the text sent
+    private final String patchId;
+
+    public CommitDiff(String text, String patchId) {
+        this.text = text;
+        this.patchId = patchId;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public String getPatchId() {
+        return patchId;
+    }
+}
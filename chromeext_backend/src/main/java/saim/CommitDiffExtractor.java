@@ -0,0 +1,205 @@
+package saim;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Computes a compact unified diff of a commit from the local mirror, to be sent to the metrics
+ * service instead of letting it scrape the commit page on GitHub. Lockfiles, generated and
+ * binary files are left out, and the diff is capped per file and in total. The patch id of the
+ * commit is computed in the same pass, so summaries can be cached by what the commit changes.
+ */
+@Service
+public class CommitDiffExtractor {
+
+    private static final Set<String> LOCKFILES = Set.of(
+            "package-lock.json", "npm-shrinkwrap.json", "yarn.lock", "pnpm-lock.yaml", "gemfile.lock",
+            "poetry.lock", "pipfile.lock", "cargo.lock", "composer.lock", "go.sum", "gradle.lockfile");
+
+    private static final List<String> GENERATED_SUFFIXES = List.of(
+            ".lock", ".min.js", ".min.css", ".map", ".pb.go", "_pb2.py", ".designer.cs", ".snap");
+
+    private static final List<String> GENERATED_DIRECTORIES = List.of(
+            "node_modules/", "vendor/", "dist/", "build/", "target/", "generated/", "__generated__/");
+
+    @Autowired
+    private RepositoryMirrorManager mirrorManager;
+
+    @Value("${summary.diff.max-chars:30000}")
+    private int maxChars;
+
+    @Value("${summary.diff.max-file-chars:6000}")
+    private int maxFileChars;
+
+    @Value("${summary.diff.context-lines:2}")
+    private int contextLines;
+
+    /**
+     * Fetches the commit into the mirror if needed and computes its diff. Never throws: without
+     * a diff the metrics service falls back to reading the commit page.
+     *
+     * @param repoUrl The URL of the repository
+     * @param commitId The full SHA of the commit
+     * @param credentials The credentials of the requesting tenant
+     * @return The diff and its patch id, or empty if it could not be computed
+     */
+    public Optional<CommitDiff> extractDiff(String repoUrl, String commitId, GitHubCredentials credentials) {
+        try (Repository repository = mirrorManager.openWithCommitPair(repoUrl, commitId, credentials)) {
+            return Optional.of(diff(repository, commitId));
+        } catch (Exception e) {
+            System.err.println("Could not compute diff of commit " + commitId + ": " + e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @param repository A repository containing the commit and its first parent
+     * @param commitId The SHA of the commit
+     * @return The diff against the first parent, followed by a note on the files left out
+     */
+    public String formatDiff(Repository repository, String commitId) throws IOException {
+        return diff(repository, commitId).getText();
+    }
+
+    /**
+     * @param repository A repository containing the commit and its first parent
+     * @param commitId The SHA of the commit
+     * @return The diff against the first parent and the patch id of the commit
+     */
+    public CommitDiff diff(Repository repository, String commitId) throws IOException {
+        ObjectId id = repository.resolve(commitId);
+        if (id == null) {
+            throw new IOException("Unknown commit: " + commitId);
+        }
+
+        StringBuilder diff = new StringBuilder();
+        List<String> skipped = new ArrayList<>();
+        List<String> omitted = new ArrayList<>();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MessageDigest patchId = newDigest();
+        try (RevWalk revWalk = new RevWalk(repository); DiffFormatter formatter = new DiffFormatter(out)) {
+            RevCommit commit = revWalk.parseCommit(id);
+            formatter.setRepository(repository);
+            formatter.setContext(contextLines);
+            formatter.setDetectRenames(true);
+
+            CanonicalTreeParser newTree = new CanonicalTreeParser(null, revWalk.getObjectReader(), commit.getTree());
+            List<DiffEntry> entries = commit.getParentCount() == 0
+                    ? formatter.scan(new EmptyTreeIterator(), newTree)
+                    : formatter.scan(revWalk.parseCommit(commit.getParent(0)).getTree(), commit.getTree());
+
+            for (DiffEntry entry : entries) {
+                String path = entry.getChangeType() == DiffEntry.ChangeType.DELETE ? entry.getOldPath() : entry.getNewPath();
+                if (isLockfileOrGenerated(path)) {
+                    // Lockfiles can be huge; their content is identified by the blob ids instead
+                    updateWithBlobs(patchId, entry);
+                    skipped.add(path);
+                    continue;
+                }
+
+                out.reset();
+                formatter.format(entry);
+                String fileDiff = out.toString(StandardCharsets.UTF_8);
+                if (fileDiff.contains("\nBinary files differ")) {
+                    updateWithBlobs(patchId, entry);
+                    skipped.add(path);
+                    continue;
+                }
+                updateWithHunks(patchId, fileDiff);
+                fileDiff = compact(fileDiff);
+                if (fileDiff.length() > maxFileChars) {
+                    fileDiff = fileDiff.substring(0, maxFileChars)
+                            + "\n... (" + (fileDiff.length() - maxFileChars) + " more characters of this file omitted)\n";
+                }
+                if (diff.length() + fileDiff.length() > maxChars) {
+                    omitted.add(path);
+                    continue;
+                }
+                diff.append(fileDiff);
+            }
+        }
+
+        if (!skipped.isEmpty()) {
+            diff.append("\nLockfiles, generated and binary files not shown: ").append(String.join(", ", skipped)).append("\n");
+        }
+        if (!omitted.isEmpty()) {
+            diff.append("\nFiles not shown because the diff is too large: ").append(String.join(", ", omitted)).append("\n");
+        }
+        return new CommitDiff(diff.toString(), HexFormat.of().formatHex(patchId.digest()));
+    }
+
+    // Hunk headers carry line numbers and index lines carry SHAs, neither of which depends on the change itself
+    private void updateWithHunks(MessageDigest patchId, String fileDiff) {
+        for (String line : fileDiff.split("\n")) {
+            if (line.startsWith("index ") || line.startsWith("@@")) {
+                continue;
+            }
+            patchId.update(line.replaceAll("\\s+", "").getBytes(StandardCharsets.UTF_8));
+            patchId.update((byte) '\n');
+        }
+    }
+
+    private void updateWithBlobs(MessageDigest patchId, DiffEntry entry) {
+        String blobs = entry.getOldPath() + " " + entry.getOldId().name() + " " + entry.getNewPath() + " " + entry.getNewId().name() + "\n";
+        patchId.update(blobs.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private boolean isLockfileOrGenerated(String path) {
+        String lower = path.toLowerCase(Locale.ROOT);
+        String fileName = lower.substring(lower.lastIndexOf('/') + 1);
+        if (LOCKFILES.contains(fileName)) {
+            return true;
+        }
+        for (String suffix : GENERATED_SUFFIXES) {
+            if (fileName.endsWith(suffix)) {
+                return true;
+            }
+        }
+        for (String directory : GENERATED_DIRECTORIES) {
+            if (lower.startsWith(directory) || lower.contains("/" + directory)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The "index <sha>..<sha>" lines carry nothing the model can use
+    private String compact(String fileDiff) {
+        StringBuilder compacted = new StringBuilder(fileDiff.length());
+        for (String line : fileDiff.split("\n", -1)) {
+            if (!line.startsWith("index ")) {
+                compacted.append(line).append("\n");
+            }
+        }
+        return compacted.toString().stripTrailing() + "\n";
+    }
+}
@@ -0,0 +1,233 @@
+package saim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Service;
+
+/**
+ * Summarizes the most recent commits of a branch in the background when one of its commits
+ * is viewed, so that follow-up clicks hit the summary cache. Prefetching runs on its own
+ * small low-priority executor, is limited by a per-tenant budget, and waits while
+ * interactive summaries are being computed. The wait happens between commits: a commit whose
+ * summary has started is finished, its LLM calls queued behind interactive ones.
+ */
+@Service
+public class CommitPrefetchService {
+
+    private static final long YIELD_POLL_MILLIS = 500;
+    private static final long EVICTION_INTERVAL_MILLIS = 60_000L;
+
+    @Autowired
+    @Qualifier("prefetchExecutor")
+    private TaskExecutor prefetchExecutor;
+
+    @Autowired
+    private ApiKeyRepo apiKeyRepo;
+
+    @Autowired
+    private CommitService cService;
+
+    @Autowired
+    private BatchSummaryService batchSummaryService;
+
+    @Autowired
+    private RepositoryMirrorManager mirrorManager;
+
+    @Autowired
+    private SummaryRequestCoalescer coalescer;
+
+    @Value("${prefetch.enabled:true}")
+    private boolean enabled;
+
+    // Number of recent commits of the branch to summarize
+    @Value("${prefetch.commits:5}")
+    private int prefetchCommits;
+
+    // A repository is prefetched again for the same tenant only after this time
+    @Value("${prefetch.repo.cooldown-minutes:30}")
+    private long repoCooldownMinutes;
+
+    // Commits each tenant may have prefetched (and pay LLM calls for) per hour
+    @Value("${prefetch.tenant.commits-per-hour:20}")
+    private int tenantCommitsPerHour;
+
+    // How long a prefetch waits for interactive work to finish before giving up
+    @Value("${prefetch.yield.max-wait-seconds:30}")
+    private long maxYieldSeconds;
+
+    private final Map<String, Long> lastPrefetchTimes = new ConcurrentHashMap<>();
+    private final Map<String, TenantBudget> budgets = new ConcurrentHashMap<>();
+    private volatile long lastEvictedAt;
+
+    private final ReactoringHelper helper = new ReactoringHelper();
+
+    /**
+     * Queues a prefetch of the branch containing the viewed commit. Never throws: prefetching
+     * is best effort and is skipped when disabled, recently done, or the executor is full.
+     *
+     * @param url The repository URL
+     * @param id The viewed commit SHA
+     * @param uuid The tenant whose API keys are used (prefetch is skipped without one)
+     */
+    public void schedulePrefetch(String url, String id, String uuid) {
+        if (!enabled || uuid == null || uuid.isBlank() || prefetchCommits <= 0) {
+            return;
+        }
+        String repoKey = uuid + "|" + helper.canonicalRepoUrl(url);
+        long now = System.currentTimeMillis();
+        evictStaleEntries(now);
+        Long last = lastPrefetchTimes.get(repoKey);
+        if (last != null && now - last < repoCooldownMinutes * 60_000L) {
+            return;
+        }
+        lastPrefetchTimes.put(repoKey, now);
+
+        try {
+            prefetchExecutor.execute(() -> prefetch(url, helper.cleanCommitId(id).trim(), uuid));
+        } catch (TaskRejectedException e) {
+            System.out.println("Prefetch queue is full, skipping prefetch for " + url);
+            lastPrefetchTimes.remove(repoKey, now);
+        }
+    }
+
+    private void prefetch(String url, String viewedId, String uuid) {
+        try {
+            Optional<ApiKey> apiKey = apiKeyRepo.findByUuid(uuid);
+            if (apiKey.isEmpty() || apiKey.get().getGithubApiKey() == null || apiKey.get().getGithubApiKey().isBlank()) {
+                return;
+            }
+            GitHubCredentials credentials = new GitHubCredentials(apiKey.get().getGithubApiKey());
+
+            List<String> candidates;
+            try (Repository repository = mirrorManager.openWithCommits(helper.getRepoUrl(url), List.of(viewedId), credentials)) {
+                candidates = recentCommitsOnBranchOf(repository, viewedId);
+            }
+
+            int prefetched = 0;
+            for (String sha : candidates) {
+                if (cService.getCommitfromDB(url, sha).isPresent()) {
+                    continue;
+                }
+                if (!waitForInteractiveWork()) {
+                    System.out.println("Interactive summaries still running, stopping prefetch for " + url);
+                    break;
+                }
+                if (!budgets.computeIfAbsent(uuid, k -> new TenantBudget()).tryConsume(tenantCommitsPerHour)) {
+                    System.out.println("Prefetch budget exhausted for tenant, stopping prefetch for " + url);
+                    break;
+                }
+
+                BatchSummaryRequest request = new BatchSummaryRequest();
+                request.url = url;
+                request.uuid = uuid;
+                request.ids = List.of(sha);
+                batchSummaryService.summarize(request, LlmRequestScheduler.Priority.BACKGROUND);
+                prefetched++;
+            }
+            System.out.println("Prefetched " + prefetched + " summaries for " + url);
+        } catch (Exception e) {
+            System.err.println("Prefetch failed for " + url + ": " + e.getMessage());
+        }
+    }
+
+    // Cooldowns that have passed and budgets whose hour has passed hold no state worth keeping
+    private void evictStaleEntries(long now) {
+        if (now - lastEvictedAt < EVICTION_INTERVAL_MILLIS) {
+            return;
+        }
+        lastEvictedAt = now;
+        lastPrefetchTimes.values().removeIf(last -> now - last >= repoCooldownMinutes * 60_000L);
+        budgets.values().removeIf(budget -> budget.isExpired(now));
+    }
+
+    // The newest non-merge commits of the branch containing the viewed commit (the default branch if several do)
+    private List<String> recentCommitsOnBranchOf(Repository repository, String viewedId) throws Exception {
+        List<String> commits = new ArrayList<>();
+        try (RevWalk revWalk = new RevWalk(repository)) {
+            ObjectId viewed = repository.resolve(viewedId);
+            if (viewed == null) {
+                return commits;
+            }
+            RevCommit viewedCommit = revWalk.parseCommit(viewed);
+
+            ObjectId tip = null;
+            Ref head = repository.exactRef(Constants.HEAD);
+            if (head != null && head.getObjectId() != null
+                    && revWalk.isMergedInto(viewedCommit, revWalk.parseCommit(head.getObjectId()))) {
+                tip = head.getObjectId();
+            } else {
+                for (Ref branch : repository.getRefDatabase().getRefsByPrefix(Constants.R_HEADS)) {
+                    if (revWalk.isMergedInto(viewedCommit, revWalk.parseCommit(branch.getObjectId()))) {
+                        tip = branch.getObjectId();
+                        break;
+                    }
+                }
+            }
+            if (tip == null) {
+                // Not on any branch (e.g. an unmerged pull request commit): its own ancestors are the neighbours
+                tip = viewed;
+            }
+
+            revWalk.reset();
+            revWalk.markStart(revWalk.parseCommit(tip));
+            for (RevCommit commit : revWalk) {
+                if (commits.size() >= prefetchCommits) {
+                    break;
+                }
+                if (commit.getParentCount() <= 1 && !commit.equals(viewedCommit)) {
+                    commits.add(commit.getName());
+                }
+            }
+        }
+        return commits;
+    }
+
+    // Interactive summaries are counted by the coalescer apart from the background ones of this and other prefetches
+    private boolean waitForInteractiveWork() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + maxYieldSeconds * 1000;
+        while (coalescer.interactiveCount() > 0) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(YIELD_POLL_MILLIS);
+        }
+        return true;
+    }
+
+    private static class TenantBudget {
+        private long windowStart = System.currentTimeMillis();
+        private int used = 0;
+
+        synchronized boolean tryConsume(int limit) {
+            long now = System.currentTimeMillis();
+            if (now - windowStart > 3_600_000L) {
+                windowStart = now;
+                used = 0;
+            }
+            if (used >= limit) {
+                return false;
+            }
+            used++;
+            return true;
+        }
+
+        synchronized boolean isExpired(long now) {
+            return now - windowStart > 3_600_000L;
+        }
+    }
+}
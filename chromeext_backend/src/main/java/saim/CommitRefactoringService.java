@@ -0,0 +1,117 @@
+package saim;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.refactoringminer.api.Refactoring;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Service class for storing and reading mined refactorings.
+ * Saving is an upsert: mining the same commit again replaces its rows.
+ */
+@Service
+public class CommitRefactoringService {
+
+    @Autowired
+    private CommitRefactoringsRepository commitRefactoringsRepository;
+
+    @Autowired
+    private RefactoringRecordRepo refactoringRecordRepo;
+
+    private final ReactoringHelper helper = new ReactoringHelper();
+
+    /**
+     * Stores the refactorings found in a commit, replacing any earlier result for it
+     *
+     * @param repoUrl The repository URL
+     * @param commitId The commit SHA
+     * @param refactorings The refactorings reported by RefactoringMiner
+     */
+    @Transactional
+    public void saveRefactorings(String repoUrl, String commitId, List<Refactoring> refactorings) {
+        replaceRefactorings(helper.canonicalRepoUrl(repoUrl), commitId, refactorings);
+    }
+
+    /**
+     * Stores the refactorings of several commits of one repository in a single transaction
+     *
+     * @param repoUrl The repository URL
+     * @param refactoringsByCommit Commit SHA to the refactorings reported by RefactoringMiner
+     */
+    @Transactional
+    public void saveRefactoringsBatch(String repoUrl, Map<String, List<Refactoring>> refactoringsByCommit) {
+        String canonicalUrl = helper.canonicalRepoUrl(repoUrl);
+        for (Map.Entry<String, List<Refactoring>> entry : refactoringsByCommit.entrySet()) {
+            replaceRefactorings(canonicalUrl, entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Returns the refactorings of a commit rendered as the numbered list used in prompts
+     *
+     * @param repoUrl The repository URL
+     * @param commitId The commit SHA
+     * @return The numbered list (empty string if the commit had none), or empty if the commit was never mined
+     */
+    public Optional<String> findRefactoringMessages(String repoUrl, String commitId) {
+        String canonicalUrl = helper.canonicalRepoUrl(repoUrl);
+        String sha = normalizeCommitId(commitId);
+
+        if (commitRefactoringsRepository.findByRepoUrlAndCommitId(canonicalUrl, sha).isPresent()) {
+            StringBuilder messages = new StringBuilder();
+            for (RefactoringRecord record : refactoringRecordRepo.findByRepoUrlAndCommitIdOrderByPositionAsc(canonicalUrl, sha)) {
+                messages.append(record.getPosition()).append(". ").append(record.getDescription()).append("\n");
+            }
+            return Optional.of(messages.toString());
+        }
+
+        // Rows saved before refactorings were stored individually
+        return commitRefactoringsRepository.findFirstByCommitIdOrderByIdDesc(sha)
+                .map(CommitRefactorings::getRefactorings);
+    }
+
+    /**
+     * Returns how many refactorings of each type a commit contains, without re-mining it
+     *
+     * @param repoUrl The repository URL
+     * @param commitId The commit SHA
+     * @return Refactoring type to number of instances
+     */
+    public Map<String, Integer> findRefactoringInstances(String repoUrl, String commitId) {
+        Map<String, Integer> instances = new LinkedHashMap<>();
+        for (Object[] row : refactoringRecordRepo.countByType(helper.canonicalRepoUrl(repoUrl), normalizeCommitId(commitId))) {
+            instances.put((String) row[0], ((Number) row[1]).intValue());
+        }
+        return instances;
+    }
+
+    private void replaceRefactorings(String canonicalUrl, String commitId, List<Refactoring> refactorings) {
+        String sha = normalizeCommitId(commitId);
+
+        refactoringRecordRepo.deleteByRepoUrlAndCommitId(canonicalUrl, sha);
+        List<RefactoringRecord> records = new ArrayList<>(refactorings.size());
+        int position = 1;
+        for (Refactoring ref : refactorings) {
+            records.add(new RefactoringRecord(canonicalUrl, sha, position++,
+                    ref.getRefactoringType().toString(), ref.toString()));
+        }
+        refactoringRecordRepo.saveAll(records);
+
+        CommitRefactorings header = commitRefactoringsRepository.findByRepoUrlAndCommitId(canonicalUrl, sha)
+                .orElseGet(() -> new CommitRefactorings(canonicalUrl, sha, 0));
+        header.setRefactoringCount(records.size());
+        header.setMinedAt(LocalDateTime.now());
+        commitRefactoringsRepository.save(header);
+    }
+
+    private String normalizeCommitId(String commitId) {
+        return helper.cleanCommitId(commitId).trim().toLowerCase();
+    }
+}
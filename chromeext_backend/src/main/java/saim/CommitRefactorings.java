@@ -1,31 +1,54 @@
 package saim;
 
+import java.time.LocalDateTime;
+
 import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
 
+/**
+ * One row per mined commit. The individual refactorings live in refactoring_records;
+ * this row records that the commit was mined and how many refactorings were found,
+ * so commits without refactorings are not mined again.
+ */
 @Entity
-@Table(name = "commit_refactorings")
+@Table(name = "commit_refactorings",
+       uniqueConstraints = @UniqueConstraint(name = "uk_commit_refactorings_repo_commit", columnNames = {"repo_url", "commit_id"}),
+       indexes = @Index(name = "idx_commit_refactorings_commit_id", columnList = "commit_id"))
 public class CommitRefactorings {
     
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
-    @Column(name = "commit_id", nullable = false)
+    @Column(name = "commit_id", nullable = false, length = 64)
     private String commitId;
 
+    @Column(name = "repo_url")
+    private String repoUrl;
+
+    @Column(name = "refactoring_count")
+    private Integer refactoringCount;
+
+    @Column(name = "mined_at")
+    private LocalDateTime minedAt;
+
+    // Legacy: the rendered refactoring list, only present on rows written before refactoring_records existed
     @Column(name = "refactorings", columnDefinition = "TEXT")
     private String refactorings;
 
     public CommitRefactorings() {}
 
-    public CommitRefactorings(String commitId, String refactorings) {
+    public CommitRefactorings(String repoUrl, String commitId, int refactoringCount) {
+        this.repoUrl = repoUrl;
         this.commitId = commitId;
-        this.refactorings = refactorings;
+        this.refactoringCount = refactoringCount;
+        this.minedAt = LocalDateTime.now();
     }
 
     // Getters and Setters
@@ -41,6 +64,30 @@ public class CommitRefactorings {
         this.commitId = commitId;
     }
 
+    public String getRepoUrl() {
+        return repoUrl;
+    }
+
+    public void setRepoUrl(String repoUrl) {
+        this.repoUrl = repoUrl;
+    }
+
+    public Integer getRefactoringCount() {
+        return refactoringCount;
+    }
+
+    public void setRefactoringCount(Integer refactoringCount) {
+        this.refactoringCount = refactoringCount;
+    }
+
+    public LocalDateTime getMinedAt() {
+        return minedAt;
+    }
+
+    public void setMinedAt(LocalDateTime minedAt) {
+        this.minedAt = minedAt;
+    }
+
     public String getRefactorings() {
         return refactorings;
     }
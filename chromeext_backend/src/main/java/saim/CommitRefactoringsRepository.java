@@ -5,5 +5,8 @@ import java.util.Optional;
 import org.springframework.data.jpa.repository.JpaRepository;
 
 public interface CommitRefactoringsRepository extends JpaRepository<CommitRefactorings, Long> {
-    Optional<CommitRefactorings> findByCommitId(String commitId);
+    Optional<CommitRefactorings> findByRepoUrlAndCommitId(String repoUrl, String commitId);
+
+    // Legacy rows have no repo_url; take the newest one if a commit was saved more than once
+    Optional<CommitRefactorings> findFirstByCommitIdOrderByIdDesc(String commitId);
 }
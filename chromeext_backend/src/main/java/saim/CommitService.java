@@ -1,9 +1,19 @@
 package saim;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 @Service
 public class CommitService {
@@ -11,16 +21,149 @@ public class CommitService {
     @Autowired
     private CommitDetailsRepo repo;
 
+    @Autowired
+    private CommitSummaryCache cache;
+
+    @Autowired
+    private RepositoryMirrorManager mirrorManager;
+
+    @Value("${summary.cache.warm-size:500}")
+    private int warmSize;
+
+    private static final int FULL_SHA_LENGTH = 40;
+
+    private final ReactoringHelper helper = new ReactoringHelper();
+
     public Optional<String> getCommitfromDB(String url, String id){
-        Optional<Commit> c = repo.findByUrlAndCommitId(url,id);
-        return c.map(Commit::getCommitMessage);
+        String commitId = resolveCommitId(url, id);
+        String commitKey = helper.canonicalCommitKey(url, commitId);
+        Optional<String> cached = cache.get(commitKey);
+        if (cached.isPresent()) {
+            return cached;
+        }
+
+        Optional<Commit> stored = findInDB(url, commitId);
+        // A row found by prefix carries the full SHA to cache it under
+        stored.ifPresent(c -> cache.put(helper.canonicalCommitKey(url, c.getCommitId()), c.getCommitMessage()));
+        return stored.map(Commit::getCommitMessage);
     }
     public Commit saveCommit(String commitID, String url, String msg, String og){
-        Commit c = new Commit();
-        c.setCommitId(commitID);
-        c.setUrl(url);
+        String canonicalUrl = helper.canonicalRepoUrl(url);
+        String commitId = resolveCommitId(url, commitID);
+
+        // Upsert on (url, commit_id) so regenerating a summary never adds a duplicate row
+        Commit c = repo.findByUrlAndCommitId(canonicalUrl, commitId).orElseGet(Commit::new);
+        c.setCommitId(commitId);
+        c.setUrl(canonicalUrl);
         c.setCommitMessage(msg);
         c.setOgMessage(og);
-        return repo.save(c);
+        Commit saved;
+        try {
+            saved = repo.save(c);
+        } catch (DataIntegrityViolationException e) {
+            // Another request inserted the same commit first; update that row instead
+            Commit existing = repo.findByUrlAndCommitId(canonicalUrl, commitId).orElseThrow(() -> e);
+            existing.setCommitMessage(msg);
+            existing.setOgMessage(og);
+            saved = repo.save(existing);
+        }
+        cache.put(helper.canonicalCommitKey(url, commitId), msg);
+        return saved;
+    }
+
+    /**
+     * Upserts the summaries of several commits of one repository in a single transaction
+     *
+     * @param url The repository URL
+     * @param summaries Commit SHA to generated summary
+     * @param ogMessages Commit SHA to original commit message
+     */
+    @Transactional
+    public void saveCommits(String url, Map<String, String> summaries, Map<String, String> ogMessages) {
+        String canonicalUrl = helper.canonicalRepoUrl(url);
+        List<Commit> commits = new ArrayList<>(summaries.size());
+        for (Map.Entry<String, String> entry : summaries.entrySet()) {
+            String commitId = resolveCommitId(url, entry.getKey());
+            Commit c = repo.findByUrlAndCommitId(canonicalUrl, commitId).orElseGet(Commit::new);
+            c.setCommitId(commitId);
+            c.setUrl(canonicalUrl);
+            c.setCommitMessage(entry.getValue());
+            c.setOgMessage(ogMessages.getOrDefault(entry.getKey(), ""));
+            commits.add(c);
+        }
+        repo.saveAll(commits);
+        for (Commit c : commits) {
+            cache.put(helper.canonicalCommitKey(url, c.getCommitId()), c.getCommitMessage());
+        }
+    }
+
+    /**
+     * Loads the most recently generated summaries into the in-memory cache
+     * so that the first views after a restart do not go to the database.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmCache() {
+        if (warmSize <= 0) {
+            return;
+        }
+        try {
+            List<Commit> recent = repo.findAll(PageRequest.of(0, warmSize, Sort.by(Sort.Direction.DESC, "id"))).getContent();
+            // Oldest first so the most recent commits end up most recently used
+            for (int i = recent.size() - 1; i >= 0; i--) {
+                Commit c = recent.get(i);
+                if (c.getUrl() != null && c.getCommitId() != null) {
+                    cache.put(helper.canonicalCommitKey(c.getUrl(), c.getCommitId()), c.getCommitMessage());
+                }
+            }
+            System.out.println("Warmed summary cache with " + cache.size() + " commits");
+        } catch (Exception e) {
+            System.err.println("Could not warm summary cache: " + e.getMessage());
+        }
+    }
+
+    private Optional<Commit> findInDB(String url, String id) {
+        String canonicalUrl = helper.canonicalRepoUrl(url);
+        String commitId = normalizeCommitId(id);
+
+        Optional<Commit> c = repo.findByUrlAndCommitId(canonicalUrl, commitId);
+        if (c.isEmpty()) {
+            // Rows written before URLs were canonicalized
+            c = repo.findByUrlAndCommitId(url, id);
+        }
+        if (c.isEmpty() && commitId.length() < FULL_SHA_LENGTH) {
+            c = repo.findByUrlAndCommitIdPrefix(canonicalUrl, commitId).stream().findFirst();
+        }
+        return c;
+    }
+
+    /**
+     * Expands an abbreviated SHA, as found in commit page URLs, to the full SHA so that the
+     * cache and the database are keyed consistently. The cached commits are tried first, then
+     * the stored summaries and finally the repository's mirror.
+     *
+     * @return The full SHA, or the normalized input if it cannot be expanded unambiguously
+     */
+    private String resolveCommitId(String url, String id) {
+        String commitId = normalizeCommitId(id);
+        if (commitId.length() >= FULL_SHA_LENGTH) {
+            return commitId;
+        }
+        Optional<String> cachedKey = cache.resolveKey(helper.canonicalCommitKey(url, commitId));
+        if (cachedKey.isPresent()) {
+            return cachedKey.get().substring(cachedKey.get().lastIndexOf('@') + 1);
+        }
+        List<String> stored = repo.findByUrlAndCommitIdPrefix(helper.canonicalRepoUrl(url), commitId).stream()
+                .map(Commit::getCommitId)
+                .filter(sha -> sha.length() == FULL_SHA_LENGTH)
+                .distinct()
+                .toList();
+        if (stored.size() == 1) {
+            return stored.get(0);
+        }
+        return mirrorManager.resolveCommitId(url, commitId).orElse(commitId);
+    }
+
+    private String normalizeCommitId(String id) {
+        return helper.cleanCommitId(id).trim().toLowerCase();
     }
 }
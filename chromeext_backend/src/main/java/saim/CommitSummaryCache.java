@@ -0,0 +1,156 @@
+package saim;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Bounded in-process cache of generated commit summaries, sitting in front of the
+ * commit_details table. Entries are evicted least-recently-used once the cache is
+ * full and expire after a configurable time to live. Entries are keyed by full SHAs only;
+ * abbreviated SHAs are expanded against the cached keys of the same repository.
+ */
+@Component
+public class CommitSummaryCache {
+
+    private static final int FULL_SHA_LENGTH = 40;
+
+    private final int maxEntries;
+    private final long ttlMillis;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final LinkedHashMap<String, CacheEntry> entries;
+    // The keys of entries in sorted order, so abbreviated SHAs resolve without a scan
+    private final TreeSet<String> sortedKeys = new TreeSet<>();
+
+    public CommitSummaryCache(@Value("${summary.cache.max-entries:1000}") int maxEntries,
+                              @Value("${summary.cache.ttl-minutes:1440}") long ttlMinutes) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMinutes * 60_000L;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                if (size() > CommitSummaryCache.this.maxEntries) {
+                    sortedKeys.remove(eldest.getKey());
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Looks up a summary. An abbreviated SHA is expanded to the one full SHA cached for the
+     * same repository that it abbreviates; an ambiguous abbreviation is a miss.
+     *
+     * @param commitKey The canonical commit key (see ReactoringHelper.canonicalCommitKey)
+     * @return The cached summary, or empty on a miss
+     */
+    public synchronized Optional<String> get(String commitKey) {
+        String fullKey = isAbbreviated(commitKey) ? resolveKey(commitKey).orElse(null) : commitKey;
+        CacheEntry entry = fullKey == null ? null : entries.get(fullKey);
+        if (entry != null && entry.isExpired(ttlMillis)) {
+            remove(fullKey);
+            evictions.incrementAndGet();
+            entry = null;
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+        hits.incrementAndGet();
+        return Optional.of(entry.summary);
+    }
+
+    /**
+     * Caches a summary. Summaries of abbreviated SHAs that do not resolve to a cached full SHA
+     * are not cached, since later lookups by the full SHA would miss them.
+     */
+    public synchronized void put(String commitKey, String summary) {
+        if (summary == null) {
+            return;
+        }
+        String fullKey = isAbbreviated(commitKey) ? resolveKey(commitKey).orElse(null) : commitKey;
+        if (fullKey == null) {
+            return;
+        }
+        entries.put(fullKey, new CacheEntry(summary));
+        sortedKeys.add(fullKey);
+    }
+
+    public synchronized void invalidate(String commitKey) {
+        resolveKey(commitKey).ifPresent(this::remove);
+    }
+
+    /**
+     * @param commitKey A canonical commit key, possibly with an abbreviated SHA
+     * @return The key of the only cached commit the key matches, or empty if none or several do
+     */
+    public synchronized Optional<String> resolveKey(String commitKey) {
+        if (!isAbbreviated(commitKey)) {
+            return sortedKeys.contains(commitKey) ? Optional.of(commitKey) : Optional.empty();
+        }
+        String match = sortedKeys.ceiling(commitKey);
+        if (match == null || !match.startsWith(commitKey)) {
+            return Optional.empty();
+        }
+        String next = sortedKeys.higher(match);
+        if (next != null && next.startsWith(commitKey)) {
+            return Optional.empty();
+        }
+        return Optional.of(match);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return Hit/miss/eviction counters and current occupancy, for monitoring
+     */
+    public synchronized Map<String, Object> stats() {
+        long totalLookups = hits.get() + misses.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", entries.size());
+        stats.put("maxEntries", maxEntries);
+        stats.put("ttlMinutes", ttlMillis / 60_000L);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        stats.put("hitRate", totalLookups == 0 ? 0.0 : (double) hits.get() / totalLookups);
+        return stats;
+    }
+
+    private boolean isAbbreviated(String commitKey) {
+        int separator = commitKey.lastIndexOf('@');
+        return separator >= 0 && commitKey.length() - separator - 1 < FULL_SHA_LENGTH;
+    }
+
+    private void remove(String fullKey) {
+        entries.remove(fullKey);
+        sortedKeys.remove(fullKey);
+    }
+
+    private static class CacheEntry {
+        final String summary;
+        final long createdAt;
+
+        CacheEntry(String summary) {
+            this.summary = summary;
+            this.createdAt = System.currentTimeMillis();
+        }
+
+        boolean isExpired(long ttlMillis) {
+            return System.currentTimeMillis() - createdAt > ttlMillis;
+        }
+    }
+}
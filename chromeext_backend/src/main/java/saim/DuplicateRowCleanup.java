@@ -0,0 +1,66 @@
+package saim;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.EntityManagerFactoryDependsOnPostProcessor;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Removes duplicate rows that were written before commit_details, commit_refactorings and
+ * refactoring_records had unique keys. It runs before the entity manager factory is created,
+ * so the schema update that adds the unique keys finds no duplicates. Of every set of
+ * duplicates the most recently inserted row is kept. On an up-to-date database this only
+ * runs three grouping queries.
+ */
+@Component("duplicateRowCleanup")
+public class DuplicateRowCleanup {
+
+    private final JdbcTemplate jdbc;
+
+    @Value("${db.dedupe-on-startup:true}")
+    private boolean enabled;
+
+    public DuplicateRowCleanup(DataSource dataSource) {
+        this.jdbc = new JdbcTemplate(dataSource);
+    }
+
+    // Makes the entity manager factory, and with it the schema update, wait for the cleanup
+    @Component
+    static class RunBeforeSchemaUpdate extends EntityManagerFactoryDependsOnPostProcessor {
+        RunBeforeSchemaUpdate() {
+            super("duplicateRowCleanup");
+        }
+    }
+
+    @PostConstruct
+    public void removeDuplicates() {
+        if (!enabled) {
+            return;
+        }
+        removeDuplicates("commit_details", "url, commit_id");
+        removeDuplicates("commit_refactorings", "repo_url, commit_id");
+        removeDuplicates("refactoring_records", "repo_url, commit_id, position");
+    }
+
+    private void removeDuplicates(String table, String keyColumns) {
+        try {
+            Integer groups = jdbc.queryForObject("SELECT COUNT(*) FROM (SELECT 1 FROM " + table
+                    + " GROUP BY " + keyColumns + " HAVING COUNT(*) > 1) duplicates", Integer.class);
+            if (groups == null || groups == 0) {
+                return;
+            }
+            // The derived table is materialized first, which MySQL requires to delete from the table it reads
+            int deleted = jdbc.update("DELETE FROM " + table + " WHERE id NOT IN (SELECT id FROM (SELECT MAX(id) AS id FROM "
+                    + table + " GROUP BY " + keyColumns + ") kept)");
+            System.out.println("Removed " + deleted + " duplicate rows from " + table + " before adding its unique key");
+        } catch (DataAccessException e) {
+            // The table does not exist yet on a new database, or predates one of the key columns
+            System.out.println("Skipped duplicate cleanup of " + table + ": " + e.getMostSpecificCause().getMessage());
+        }
+    }
+}
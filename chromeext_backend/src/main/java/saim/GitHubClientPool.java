@@ -0,0 +1,182 @@
+package saim;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.kohsuke.github.GHRateLimit;
+import org.kohsuke.github.GitHub;
+import org.kohsuke.github.GitHubBuilder;
+import org.refactoringminer.rm1.GitHistoryRefactoringMinerImpl;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Pool of authenticated GitHub clients and RefactoringMiner instances, one per GitHub token.
+ * Each miner talks to GitHub only through its own client, so requests from different tenants
+ * never share credentials. Entries expire after a TTL, and the result of the getMyself() auth
+ * check is cached so it is not repeated for every summary.
+ */
+@Component
+public class GitHubClientPool {
+
+    // Failed auth checks are retried sooner than successful ones are re-verified
+    private static final long FAILED_AUTH_TTL_MILLIS = 60_000L;
+    // The remaining requests change with every call, so a reading is only reused briefly
+    private static final long RATE_LIMIT_TTL_MILLIS = 30_000L;
+
+    @Value("${github.client.ttl-minutes:30}")
+    private long clientTtlMinutes;
+
+    @Value("${github.auth.ttl-minutes:10}")
+    private long authTtlMinutes;
+
+    private final Map<String, PooledClient> clients = new ConcurrentHashMap<>();
+
+    /**
+     * @param credentials The GitHub credentials of the requesting tenant
+     * @return An authenticated GitHub client shared by all requests using this token
+     */
+    public GitHub getClient(GitHubCredentials credentials) throws IOException {
+        return entryFor(credentials.getToken()).gitHub;
+    }
+
+    /**
+     * @param credentials The GitHub credentials of the requesting tenant
+     * @return A RefactoringMiner whose GitHub connection is authenticated with this token
+     */
+    public GitHistoryRefactoringMinerImpl getMiner(GitHubCredentials credentials) throws IOException {
+        return entryFor(credentials.getToken()).miner;
+    }
+
+    /**
+     * Checks that the token can authenticate against GitHub, reusing a recent result if there is one
+     *
+     * @param credentials The GitHub credentials of the requesting tenant
+     * @return true if authentication succeeded
+     */
+    public boolean verifyAuthentication(GitHubCredentials credentials) {
+        PooledClient entry;
+        try {
+            entry = entryFor(credentials.getToken());
+        } catch (IOException e) {
+            System.err.println("Warning: Could not create GitHub client: " + e.getMessage());
+            return false;
+        }
+
+        long now = System.currentTimeMillis();
+        Boolean cached = entry.authVerified;
+        long ttl = Boolean.TRUE.equals(cached) ? authTtlMinutes * 60_000L : FAILED_AUTH_TTL_MILLIS;
+        if (cached != null && now - entry.authCheckedAt < ttl) {
+            return cached;
+        }
+
+        boolean verified;
+        try {
+            String username = entry.gitHub.getMyself().getLogin();
+            System.out.println("Successfully authenticated as GitHub user: " + username);
+            verified = true;
+        } catch (Exception e) {
+            System.err.println("Warning: GitHub API authentication test failed: " + e.getMessage());
+            verified = false;
+        }
+        entry.authVerified = verified;
+        entry.authCheckedAt = now;
+        return verified;
+    }
+
+    /**
+     * Remaining core API requests of a token. The rate limit endpoint does not count against the
+     * limit, but it is still a round trip, so a reading is reused for a short while.
+     *
+     * @param credentials The GitHub credentials of the requesting tenant
+     * @return The number of core API requests left in the current window
+     */
+    public int remainingRequests(GitHubCredentials credentials) throws IOException {
+        PooledClient entry = entryFor(credentials.getToken());
+        long now = System.currentTimeMillis();
+        GHRateLimit rateLimit = entry.rateLimit;
+        if (rateLimit == null || now - entry.rateLimitCheckedAt > RATE_LIMIT_TTL_MILLIS) {
+            rateLimit = entry.gitHub.getRateLimit();
+            entry.rateLimit = rateLimit;
+            entry.rateLimitCheckedAt = now;
+        }
+        return rateLimit.getCore().getRemaining();
+    }
+
+    /**
+     * Drops the pooled client for a token, e.g. when the user replaces their GitHub key
+     *
+     * @param githubToken The token whose client should be discarded (ignored if null)
+     */
+    public void invalidate(String githubToken) {
+        if (githubToken == null || githubToken.isBlank()) {
+            return;
+        }
+        if (clients.remove(tokenKey(githubToken)) != null) {
+            System.out.println("Invalidated pooled GitHub client");
+        }
+    }
+
+    public int size() {
+        return clients.size();
+    }
+
+    private PooledClient entryFor(String githubToken) throws IOException {
+        long now = System.currentTimeMillis();
+        long ttl = clientTtlMinutes * 60_000L;
+        clients.values().removeIf(entry -> now - entry.createdAt > ttl);
+
+        String key = tokenKey(githubToken);
+        PooledClient entry = clients.get(key);
+        if (entry != null) {
+            return entry;
+        }
+        PooledClient created = new PooledClient(githubToken);
+        PooledClient existing = clients.putIfAbsent(key, created);
+        return existing != null ? existing : created;
+    }
+
+    // Tokens are only kept inside the clients themselves, not as map keys
+    private String tokenKey(String githubToken) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(githubToken.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static class PooledClient {
+        final GitHub gitHub;
+        final GitHistoryRefactoringMinerImpl miner;
+        final long createdAt;
+        volatile Boolean authVerified;
+        volatile long authCheckedAt;
+        volatile GHRateLimit rateLimit;
+        volatile long rateLimitCheckedAt;
+
+        PooledClient(String githubToken) throws IOException {
+            this.gitHub = new GitHubBuilder().withOAuthToken(githubToken).build();
+            this.miner = new GitHistoryRefactoringMinerImpl();
+            this.createdAt = System.currentTimeMillis();
+            injectGitHub(miner, gitHub);
+        }
+
+        // Without its own client the miner would fall back to a process-wide token, so fail instead
+        private static void injectGitHub(GitHistoryRefactoringMinerImpl miner, GitHub gitHub) throws IOException {
+            try {
+                Field githubField = GitHistoryRefactoringMinerImpl.class.getDeclaredField("gitHub");
+                githubField.setAccessible(true);
+                githubField.set(miner, gitHub);
+            } catch (ReflectiveOperationException e) {
+                throw new IOException("Could not set GitHub client on RefactoringMiner: " + e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package saim;
+
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
+
+/**
+ * The GitHub credentials of one tenant, passed explicitly through a request
+ * instead of being published in JVM-wide system properties or environment variables.
+ */
+public final class GitHubCredentials {
+
+    private static final GitHubCredentials ANONYMOUS = new GitHubCredentials(null);
+
+    private final String token;
+
+    public GitHubCredentials(String token) {
+        this.token = token;
+    }
+
+    /**
+     * @return Credentials for public repositories only
+     */
+    public static GitHubCredentials anonymous() {
+        return ANONYMOUS;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public boolean isAnonymous() {
+        return token == null || token.isBlank();
+    }
+
+    /**
+     * @return A JGit credentials provider for fetching over HTTPS, or null when anonymous
+     */
+    public CredentialsProvider toCredentialsProvider() {
+        if (isAnonymous()) {
+            return null;
+        }
+        // GitHub accepts a token as the password for any user name
+        return new UsernamePasswordCredentialsProvider("x-access-token", token);
+    }
+
+    @Override
+    public String toString() {
+        return isAnonymous() ? "GitHubCredentials[anonymous]" : "GitHubCredentials[token=****]";
+    }
+}
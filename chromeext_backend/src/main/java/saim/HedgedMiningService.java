@@ -0,0 +1,393 @@
+package saim;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.lib.Repository;
+import org.refactoringminer.api.Refactoring;
+import org.refactoringminer.api.RefactoringHandler;
+import org.refactoringminer.rm1.GitHistoryRefactoringMinerImpl;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Mines a commit through the GitHub API and through the local mirror. Instead of starting
+ * the mirror path only after the API path has failed, the mirror path is started as a hedge
+ * after a delay (or right away when the GitHub rate limit is low); the first path that finds
+ * refactorings wins. RefactoringMiner cannot be interrupted, so the losing path and any path
+ * past its timeout keep running in the background with their results ignored; both paths run
+ * on a bounded executor, which limits how many such runs can pile up. Win counts and latencies
+ * of both paths are recorded so the delay can be tuned.
+ */
+@Service
+public class HedgedMiningService {
+
+    public static final String GITHUB_API = "github_api";
+    public static final String LOCAL_CLONE = "local_clone";
+
+    // The public GitHub API detectAtCommit only exists with a timeout, which runs the work on a thread of the
+    // miner's own that is neither bounded nor stoppable; this is the work it runs there, called on our thread
+    private static final Method DETECT_WITH_GITHUB_API = githubApiDetection();
+
+    @Autowired
+    private RepositoryMirrorManager mirrorManager;
+
+    @Autowired
+    private GitHubClientPool gitHubClientPool;
+
+    @Value("${mining.hedge.enabled:true}")
+    private boolean enabled;
+
+    // How long the API path runs alone before the mirror path is started as well
+    @Value("${mining.hedge.delay-seconds:20}")
+    private long hedgeDelaySeconds;
+
+    // Below this many remaining GitHub API requests both paths start at once
+    @Value("${mining.hedge.min-rate-limit:200}")
+    private int minRateLimit;
+
+    private final Map<String, PathStats> stats = new LinkedHashMap<>();
+    private final AtomicLong immediateHedges = new AtomicLong();
+
+    // Runs every mining path, including losing and timed-out ones that have not finished yet
+    private final ThreadPoolExecutor miningExecutor;
+
+    public HedgedMiningService(@Value("${mining.hedge.max-concurrent-paths:8}") int maxConcurrentPaths,
+                               @Value("${mining.hedge.queue-capacity:16}") int queueCapacity) {
+        stats.put(GITHUB_API, new PathStats());
+        stats.put(LOCAL_CLONE, new PathStats());
+        AtomicInteger threadCount = new AtomicInteger();
+        this.miningExecutor = new ThreadPoolExecutor(maxConcurrentPaths, maxConcurrentPaths, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "HedgedMining-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    // The refactorings found by the winning path
+    public static class Result {
+        public final List<Refactoring> refactorings;
+        public final String path; // GITHUB_API, LOCAL_CLONE or null if no path completed
+        public final boolean completed; // False if every path failed or timed out, so the refactorings are unknown
+
+        Result(List<Refactoring> refactorings, String path, boolean completed) {
+            this.refactorings = refactorings;
+            this.path = path;
+            this.completed = completed;
+        }
+
+        static Result failed() {
+            return new Result(List.of(), null, false);
+        }
+    }
+
+    /**
+     * @param repoUrl The URL of the repository
+     * @param commitId The SHA of the commit
+     * @param credentials The credentials of the tenant, used by the mirror path
+     * @param miner The miner of the tenant
+     * @param timeoutSeconds How long to wait for each path
+     * @return The refactorings of the first path that found any, else the empty result of a path
+     *         that completed, else a result that is not completed
+     */
+    public Result mine(String repoUrl, String commitId, GitHubCredentials credentials, GitHistoryRefactoringMinerImpl miner,
+                       int timeoutSeconds) {
+        if (!enabled) {
+            Result result = await(startPath(GITHUB_API, () -> mineWithGitHubApi(repoUrl, commitId, miner), timeoutSeconds));
+            if (result.refactorings.isEmpty()) {
+                System.out.println("GitHub API approach failed - falling back to local mirror approach");
+                Result fallback = await(startPath(LOCAL_CLONE, () -> mineWithLocalClone(repoUrl, commitId, credentials, miner), timeoutSeconds));
+                // An empty API result still counts if the mirror path fails
+                if (fallback.completed || !result.completed) {
+                    result = fallback;
+                }
+            }
+            if (result.path != null) {
+                stats.get(result.path).wins.incrementAndGet();
+            }
+            return result;
+        }
+
+        Race race = new Race();
+        PathRun api = startPath(GITHUB_API, () -> mineWithGitHubApi(repoUrl, commitId, miner), timeoutSeconds);
+        if (api == null) {
+            return Result.failed();
+        }
+        api.settled.thenAccept(result -> {
+            if (result.refactorings.isEmpty()) {
+                // Same as the sequential fallback: an empty or failed API result starts the mirror path right away
+                race.startClone(() -> mineWithLocalClone(repoUrl, commitId, credentials, miner), timeoutSeconds);
+            }
+            race.finish(result);
+        });
+
+        if (rateLimitIsLow(credentials)) {
+            immediateHedges.incrementAndGet();
+            race.startClone(() -> mineWithLocalClone(repoUrl, commitId, credentials, miner), timeoutSeconds);
+        } else {
+            // Only the start is delayed on the shared scheduler; the mirror path itself runs on the mining executor
+            CompletableFuture.delayedExecutor(hedgeDelaySeconds, TimeUnit.SECONDS)
+                    .execute(() -> race.startClone(() -> mineWithLocalClone(repoUrl, commitId, credentials, miner), timeoutSeconds));
+        }
+
+        try {
+            Result result = race.winner.get(hedgeDelaySeconds + 2L * timeoutSeconds + 60, TimeUnit.SECONDS);
+            if (result.path != null) {
+                stats.get(result.path).wins.incrementAndGet();
+                System.out.println("Mining of commit " + commitId + " won by " + result.path);
+            }
+            return result;
+        } catch (TimeoutException | ExecutionException e) {
+            System.err.println("Mining of commit " + commitId + " did not finish: " + e.getMessage());
+            return Result.failed();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Result.failed();
+        } finally {
+            race.decide();
+        }
+    }
+
+    /**
+     * @return Starts, wins, failures, timeouts and latencies of both mining paths
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        stats.forEach((path, pathStats) -> result.put(path, pathStats.toMap()));
+        result.put("immediateHedges", immediateHedges.get());
+        result.put("runningOrQueuedPaths", miningExecutor.getActiveCount() + miningExecutor.getQueue().size());
+        return result;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        miningExecutor.shutdownNow();
+    }
+
+    private boolean rateLimitIsLow(GitHubCredentials credentials) {
+        try {
+            return gitHubClientPool.remainingRequests(credentials) < minRateLimit;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Starts a path on the mining executor. Its run settles once: with its result, or as failed
+     * when the timeout passes first. A run past its timeout cannot be stopped; it keeps its
+     * executor thread until it finishes.
+     *
+     * @return The run, or null if the executor is full
+     */
+    private PathRun startPath(String path, MiningPath miningPath, int timeoutSeconds) {
+        PathStats pathStats = stats.get(path);
+        PathRun run = new PathRun();
+        long start = System.currentTimeMillis();
+        try {
+            miningExecutor.execute(() -> {
+                try {
+                    List<Refactoring> refactorings = miningPath.mine();
+                    if (run.settled.complete(new Result(refactorings, path, true))) {
+                        pathStats.recordLatency(System.currentTimeMillis() - start);
+                    }
+                } catch (Exception e) {
+                    if (run.settled.complete(Result.failed())) {
+                        pathStats.failures.incrementAndGet();
+                        System.err.println("Error analyzing commit with " + path + ": " + e.getMessage());
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            System.err.println("Too many commits being mined, not starting the " + path + " path");
+            return null;
+        }
+        pathStats.started.incrementAndGet();
+        CompletableFuture.delayedExecutor(timeoutSeconds, TimeUnit.SECONDS).execute(() -> {
+            if (run.settled.complete(Result.failed())) {
+                pathStats.timeouts.incrementAndGet();
+                System.err.println("Mining with " + path + " did not finish within " + timeoutSeconds + "s, leaving it to finish in the background");
+            }
+        });
+        return run;
+    }
+
+    private Result await(PathRun run) {
+        if (run == null) {
+            return Result.failed();
+        }
+        try {
+            // Settles at the latest when the timeout of the path passes
+            return run.settled.get();
+        } catch (ExecutionException e) {
+            return Result.failed();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Result.failed();
+        }
+    }
+
+    private List<Refactoring> mineWithGitHubApi(String repoUrl, String commitId, GitHistoryRefactoringMinerImpl miner) throws Exception {
+        List<Refactoring> found = new ArrayList<>();
+        Exception[] error = {null};
+        boolean[] handled = {false};
+        RefactoringHandler handler = new RefactoringHandler() {
+            @Override
+            public void handle(String commitId, List<Refactoring> refactorings) {
+                System.out.println("Found " + refactorings.size() + " refactorings (GitHub API method)");
+                found.addAll(refactorings);
+                handled[0] = true;
+            }
+
+            @Override
+            public void handleException(String commitId, Exception e) {
+                error[0] = e;
+            }
+        };
+        try {
+            DETECT_WITH_GITHUB_API.invoke(miner, handler, repoUrl, commitId);
+        } catch (InvocationTargetException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+        return completedRefactorings(found, error[0], handled[0]);
+    }
+
+    private List<Refactoring> mineWithLocalClone(String repoUrl, String commitId, GitHubCredentials credentials,
+                                                 GitHistoryRefactoringMinerImpl miner) throws Exception {
+        List<Refactoring> found = new ArrayList<>();
+        Exception[] error = {null};
+        boolean[] handled = {false};
+        try (Repository repository = mirrorManager.openWithCommitPair(repoUrl, commitId, credentials)) {
+            miner.detectAtCommit(repository, commitId, new RefactoringHandler() {
+                @Override
+                public void handle(String commitId, List<Refactoring> refactorings) {
+                    System.out.println("Found " + refactorings.size() + " refactorings (local mirror method)");
+                    found.addAll(refactorings);
+                    handled[0] = true;
+                }
+
+                @Override
+                public void handleException(String commitId, Exception e) {
+                    error[0] = e;
+                }
+            });
+        }
+        return completedRefactorings(found, error[0], handled[0]);
+    }
+
+    // The miner reports every completed run to handle, even without refactorings, and failures to handleException
+    private List<Refactoring> completedRefactorings(List<Refactoring> found, Exception error, boolean handled) throws Exception {
+        if (error != null) {
+            throw error;
+        }
+        if (!handled) {
+            throw new IllegalStateException("Mining ended without reporting a result");
+        }
+        return found;
+    }
+
+    private static Method githubApiDetection() {
+        try {
+            Method method = GitHistoryRefactoringMinerImpl.class.getDeclaredMethod("detectRefactorings",
+                    RefactoringHandler.class, String.class, String.class);
+            method.setAccessible(true);
+            return method;
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Unsupported RefactoringMiner version, no GitHub API detection: " + e.getMessage(), e);
+        }
+    }
+
+    private interface MiningPath {
+        List<Refactoring> mine() throws Exception;
+    }
+
+    private static class PathRun {
+        final CompletableFuture<Result> settled = new CompletableFuture<>();
+    }
+
+    // One mining request: the API path, the mirror path once started, and the first useful result
+    private class Race {
+        final CompletableFuture<Result> winner = new CompletableFuture<>();
+        final AtomicInteger running = new AtomicInteger(1);
+        volatile Result completedEmpty;
+        boolean cloneStarted;
+
+        synchronized void startClone(MiningPath miningPath, int timeoutSeconds) {
+            if (cloneStarted || winner.isDone()) {
+                return;
+            }
+            cloneStarted = true;
+            running.incrementAndGet();
+            PathRun clone = startPath(LOCAL_CLONE, miningPath, timeoutSeconds);
+            if (clone == null) {
+                finish(Result.failed());
+                return;
+            }
+            clone.settled.thenAccept(this::finish);
+        }
+
+        // Refactorings win right away; otherwise the race ends with the last path, preferring a completed empty result
+        void finish(Result result) {
+            if (!result.refactorings.isEmpty()) {
+                winner.complete(result);
+                return;
+            }
+            if (result.completed) {
+                completedEmpty = result;
+            }
+            if (running.decrementAndGet() == 0) {
+                Result empty = completedEmpty;
+                winner.complete(empty != null ? empty : result);
+            }
+        }
+
+        // Marks the race as decided, so a delayed hedge that fires later does not start.
+        // Paths still running are not stopped; they finish on the mining executor unobserved.
+        synchronized void decide() {
+            winner.complete(Result.failed());
+        }
+    }
+
+    private static class PathStats {
+        final AtomicLong started = new AtomicLong();
+        final AtomicLong wins = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong timeouts = new AtomicLong();
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong totalLatencyMillis = new AtomicLong();
+        final AtomicLong maxLatencyMillis = new AtomicLong();
+
+        void recordLatency(long millis) {
+            completed.incrementAndGet();
+            totalLatencyMillis.addAndGet(millis);
+            maxLatencyMillis.accumulateAndGet(millis, Math::max);
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("started", started.get());
+            map.put("wins", wins.get());
+            map.put("failures", failures.get());
+            map.put("timeouts", timeouts.get());
+            map.put("averageLatencyMillis", completed.get() == 0 ? 0 : totalLatencyMillis.get() / completed.get());
+            map.put("maxLatencyMillis", maxLatencyMillis.get());
+            return map;
+        }
+    }
+}
@@ -1,19 +1,84 @@
 package saim;
 
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Component;
 
 import com.google.gson.JsonObject;
 import com.theokanning.openai.service.OpenAiService;
 
-
+@Component
 public class LLM {
 
+    private static final String GET_RESPONSE_PATH = "/get-response";
+    private static final String GET_RESPONSE_STREAM_PATH = "/get-response/stream";
+
+    // Bump whenever the refactorings prompt (PromptCompiler) changes, so cached responses of the old prompt are dropped
+    static final String REFACTORINGS_PROMPT_VERSION = "refactorings-v5";
+
+    // Bump whenever the commit page prompt (buildPromptFromURL) or the way the diff is sent changes
+    static final String DIFF_PROMPT_VERSION = "diff-v1";
+
+    private static final Pattern LIST_NUMBERING = Pattern.compile("^\\d+\\.\\s*");
+
+    @Autowired
+    private MetricsGatewayClient metricsGateway;
+
+    @Autowired
+    private LlmResponseCache responseCache;
+
+    @Autowired
+    private PromptCompiler promptCompiler;
+
+    @Autowired
+    private LlmRequestScheduler requestScheduler;
+
+    @Autowired
+    @Qualifier("chunkSummaryExecutor")
+    private AsyncTaskExecutor chunkSummaryExecutor;
+
+    // Commits with more distinct refactorings than this are summarized in chunks instead of one request
+    @Value("${summary.map-reduce.threshold:300}")
+    private int mapReduceThreshold;
+
+    @Value("${summary.map-reduce.chunk-size:150}")
+    private int mapReduceChunkSize;
+
+    // Added to the prompt size when estimating tokens: the completion plus context added by the metrics service
+    @Value("${llm.rate.expected-output-tokens:1500}")
+    private int expectedOutputTokens;
+
+    // Only part of the response cache key; must match the model used by the metrics service
+    @Value("${llm.model:gpt-4-turbo}")
+    private String model;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void dropOutdatedResponses() {
+        try {
+            responseCache.retainPromptVersions(List.of(REFACTORINGS_PROMPT_VERSION, DIFF_PROMPT_VERSION));
+        } catch (Exception e) {
+            System.err.println("Could not clean up LLM response cache: " + e.getMessage());
+        }
+    }
+
     public String buildPromptFromURL(String fullUrl) {
         System.out.println("Building prompt from " + fullUrl);
         /* String prompt = "You are an expert software engineer trained in commit summarization.\n" +
@@ -69,7 +134,7 @@ public class LLM {
 
 
 
-    public String buildPromptFromRefactorings(String refactorings) {
+    public String buildPromptFromRefactorings(String refactorings, Map<String, Integer> refactoringInstances) {
 //        String prompt = "You are an AI software engineer trained in code refactoring analysis and commit summarization.\n" +
 //                "You are given a list of refactorings extracted from a commit. Create a concise summary that includes:\n" +
 //                "\n" +
@@ -79,60 +144,7 @@ public class LLM {
 //
 //                "Refactorings:\n" + refactorings;
 
-        String prompt = "You are an expert software engineer trained in commit summarization.\n" +
-                "Given a code refactorings, go through the entire changes, and extract a meaningful summary using this structure:\n" +
-                "\n" +
-                "MANDATORY FORMAT:\n" +
-                "SUMMARY: A in-depth technical description of the change (2-3 lines max), " +
-                "INTENT: Give a software change classification such as Fixed Bug, Internal Quality Improvement, External Quality Improvement, Feature Update, Code Smell Resolution, Refactoring, Performance Optimization, Security Patch, Test Addition, Test Update, Test Removal, Logging Improvement, Dependency Update, Documentation Update, UI/UX Enhancement. Don't be limited to this list. You can also find other classification in the code. Use parent format also Corrective, Perfective, Preventive, and Adaptive" +
-                "IMPACT: Explain how the change affects software quality. Use software engineering concepts such as: reduced cyclomatic complexity, improved cohesion, " +
-                "decreased coupling, better adherence to SRP/OCP, enhanced testability, or improved abstraction layering. Do not use vague terms like 'maintainability' or 'readability' without tying them to specific code behaviors or design principles.\n\n" +
-
-                "You MUST include all three sections. Always use the provided INTENT terms. Connect the IMPACT to both the SUMMARY and INTENT using concrete software reasoning.\n\n" +
-
-                "EXAMPLES:\n\n" +
-
-                "Example 1:\n" +
-                "SUMMARY: Replaced nested loop in UserProcessor.java with a Map<String, User> lookup. Added early exit logic to validateUserBatch().\n" +
-                "INTENT: Adaptive: Performance Optimization, Code Simplification\n" +
-                "IMPACT: Reduced time complexity from O(n²) to O(n), improving execution for large inputs. Used guard clauses and data structure optimization to align with efficient control flow and low-complexity design principles.\n\n" +
-
-                "Example 2:\n" +
-                "SUMMARY: Extracted credential validation logic into AuthService and introduced LoginRequest/Response DTOs.\n" +
-                "INTENT: Perfective: Internal Quality Improvement, Preventive: Architectural Refactoring\n" +
-                "IMPACT: Applied SRP by isolating responsibilities and improved cohesion within business logic layers. Reduced controller-service coupling, increasing testability and layering integrity.\n\n" +
-
-                "Example 3:\n" +
-                "SUMMARY: Integrated pagination using Spring Data’s Pageable in UserRequestController.\n" +
-                "INTENT: Perfective: External Quality Improvement, Adaptive: Feature Update\n" +
-                "IMPACT: Improved modularity and frontend responsiveness by reducing payload size. Supports lazy loading and aligns with ISO/IEC 25010 responsiveness and functional suitability metrics.\n\n" +
-
-                "Example 4:\n" +
-                "SUMMARY: Replaced switch-case structure in PermissionsManager with polymorphic handlers.\n" +
-                "INTENT: Perfective: Code Smell Resolution\n" +
-                "IMPACT: Eliminated type-checking smell by encapsulating behavior polymorphically. Reduced conditional logic complexity and applied Strategy pattern as per Refactoring.Guru.\n\n" +
-
-                "Example 5:\n" +
-                "SUMMARY: Introduced batch inserts in OrderRepository to replace per-record inserts.\n" +
-                "INTENT: Perfective: Performance Optimization\n" +
-                "IMPACT: Reduced round trips and improved transactional throughput. Optimized data persistence following performance tuning principles for database operations.\n\n" +
-
-                "Example 6:\n" +
-                "SUMMARY: Migrated user auth from monolith to OAuth2-based service. Configured token validation with service registry integration.\n" +
-                "INTENT: Preventive: Architectural Refactoring\n" +
-                "IMPACT: Enabled clean separation of concerns and horizontal scalability by isolating authentication. Aligned architecture with microservices and domain-driven design.\n\n" +
-
-                "Example 7:\n" +
-                "SUMMARY: Created PyTest suite to validate reconciliation edge cases, covering duplicate detection and currency rounding.\n" +
-                "INTENT: Test Enhancement\n" +
-                "IMPACT: Improved edge coverage and defect isolation. Aligned with test-first practices and boosted defect detection rates in CI through targeted regression testing.\n\n" +
-
-                "Example 8:\n" +
-                "SUMMARY: Refactored controller to delegate report downloads to ReportService. Removed file streaming logic from controller layer.\n" +
-                "INTENT: External Quality Improvement\n" +
-                "IMPACT: Reduced coupling and improved abstraction boundaries. Enhanced external quality by aligning responsibilities with modular service-oriented architecture.\n\n" +
-               "Refactorings:\n" + refactorings;
-
+        String prompt = promptCompiler.compile(refactorings, refactoringInstances);
         System.out.println(prompt);
 
         return prompt;
@@ -147,46 +159,50 @@ public class LLM {
 
 
     public String generateSummaryForNoRefactorings(String commitUrl, String repoUrl, OpenAiService service, String aiToken) {
+        return generateSummaryForNoRefactorings(commitUrl, repoUrl, service, aiToken, LlmRequestScheduler.Priority.INTERACTIVE);
+    }
+
+    public String generateSummaryForNoRefactorings(String commitUrl, String repoUrl, OpenAiService service, String aiToken,
+                                                   LlmRequestScheduler.Priority priority) {
+        return generateSummaryForNoRefactorings(commitUrl, repoUrl, service, aiToken, priority, null);
+    }
+
+    /**
+     * @param commitDiff The diff of the commit computed from the mirror, or null to let the
+     *                   metrics service read it from the commit page. Only summaries based on
+     *                   a diff are cached, keyed by its patch id.
+     */
+    public String generateSummaryForNoRefactorings(String commitUrl, String repoUrl, OpenAiService service, String aiToken,
+                                                   LlmRequestScheduler.Priority priority, CommitDiff commitDiff) {
         System.out.println("Generating summary for no refactorings");
 
-        System.out.println("🔄 Sending request to: http://chromeext-metrics:8000/get-response");
-        System.out.println("With token: Bearer " + aiToken);
+        String cacheKey = diffCacheKey(commitDiff);
+        Optional<String> cached = cacheKey == null ? Optional.empty() : responseCache.get(cacheKey);
+        if (cached.isPresent()) {
+            System.out.println("Using cached LLM response for an identical diff");
+            return cached.get();
+        }
+
+        System.out.println("🔄 Sending request to: " + metricsGateway.getBaseUrl() + GET_RESPONSE_PATH);
         
         try {
             String prompt = buildPromptFromURL(commitUrl);
-
-            JsonObject json = new JsonObject();
-            json.addProperty("query", prompt);
-            json.addProperty("userag", false);
-            json.addProperty("git_url", repoUrl);
-            json.addProperty("commit_url", commitUrl);
-            String jsonRequestBody = json.toString();
+            String jsonRequestBody = buildRequestBody(prompt, false, repoUrl, commitUrl, commitDiff);
             System.out.println(jsonRequestBody);
 
-            HttpClient client = HttpClient.newBuilder()
-                    .version(HttpClient.Version.HTTP_1_1)
-                    .build();
-                
-            // URI uri = new URI("http", null, "chromeext-metrics", 8000, "/get-response", null, null);
-            URI uri = new URI("http://localhost:8000/get-response");
-
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(uri)
-                    .header("Content-Type", "application/json")
-                    .header("Authorization", "Bearer "+aiToken)
-                    .POST(HttpRequest.BodyPublishers.ofString(jsonRequestBody))
-                    .build();
-
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-            
-            System.out.println(" Response status code: " + response.statusCode());
-            System.out.println(" Response body: " + response.body());
-
-            JSONObject jsonResponse = new JSONObject(response.body());
+            String responseBody = postToMetricsService(jsonRequestBody, aiToken, priority);
+            System.out.println(" Response body: " + responseBody);
+
+            JSONObject jsonResponse = new JSONObject(responseBody);
             String generatedText = jsonResponse.optString("response_with_cs", ""); 
+            if (cacheKey != null) {
+                responseCache.put(cacheKey, DIFF_PROMPT_VERSION, model, generatedText);
+            }
             return generatedText;
 
-        }catch (Exception exp) {
+        } catch (TaskRejectedException exp) {
+            throw exp;
+        } catch (Exception exp) {
             System.err.println("Error generating summary: " + exp.getMessage());
             throw new RuntimeException(exp.getMessage());
         }          
@@ -194,55 +210,328 @@ public class LLM {
     }
 
     public String generateSummaryForRefactorings(String refactorings, Map<String, Integer> refactoringInstances, String repoUrl, String commitUrl, String aiToken) {
+        return generateSummaryForRefactorings(refactorings, refactoringInstances, repoUrl, commitUrl, aiToken, LlmRequestScheduler.Priority.INTERACTIVE);
+    }
+
+    public String generateSummaryForRefactorings(String refactorings, Map<String, Integer> refactoringInstances, String repoUrl, String commitUrl,
+                                                 String aiToken, LlmRequestScheduler.Priority priority) {
+        return generateSummaryForRefactorings(refactorings, refactoringInstances, repoUrl, commitUrl, aiToken, priority, null);
+    }
+
+    /**
+     * @param commitDiff The diff of the commit, whose patch id is part of the cache key; without
+     *                   it the response is not cached
+     */
+    public String generateSummaryForRefactorings(String refactorings, Map<String, Integer> refactoringInstances, String repoUrl, String commitUrl,
+                                                 String aiToken, LlmRequestScheduler.Priority priority, CommitDiff commitDiff) {
         System.out.println("Generating summary for refactorings");
 
-        System.out.println("🔄 Sending request to: http://chromeext-metrics:8000/get-response");
-        System.out.println("With token: Bearer " + aiToken);
+        String cacheKey = refactoringsCacheKey(refactorings, commitDiff);
+        Optional<String> cached = cacheKey == null ? Optional.empty() : responseCache.get(cacheKey);
+        if (cached.isPresent()) {
+            System.out.println("Using cached LLM response for identical refactorings");
+            return cached.get() + " INSTRUCTION: " + formatInstructions(refactoringInstances);
+        }
+
+        String prompt = buildPrompt(refactorings, refactoringInstances, aiToken, priority);
+        return generateSummaryForPrompt(prompt, cacheKey, refactoringInstances, repoUrl, commitUrl, aiToken, priority);
+    }
+
+    // Sends a refactorings prompt that has already been built, e.g. after its chunks were summarized
+    private String generateSummaryForPrompt(String prompt, String cacheKey, Map<String, Integer> refactoringInstances, String repoUrl,
+                                            String commitUrl, String aiToken, LlmRequestScheduler.Priority priority) {
+        System.out.println("🔄 Sending request to: " + metricsGateway.getBaseUrl() + GET_RESPONSE_PATH);
         try {
-            String prompt = buildPromptFromRefactorings(refactorings);
-
-            JsonObject json = new JsonObject();
-            json.addProperty("query", prompt);
-            json.addProperty("userag", true);
-            json.addProperty("git_url", repoUrl);
-            json.addProperty("commit_url", commitUrl);
-            String jsonRequestBody = json.toString();
+            String jsonRequestBody = buildRequestBody(prompt, true, repoUrl, commitUrl);
             System.out.println(jsonRequestBody);
 
-            HttpClient client = HttpClient.newBuilder()
-                    .version(HttpClient.Version.HTTP_1_1)
-                    .build();
+            String responseBody = postToMetricsService(jsonRequestBody, aiToken, priority);
+            System.out.println(" Response body: " + responseBody);
+
+            JSONObject jsonResponse = new JSONObject(responseBody);
+            String generatedText = jsonResponse.optString("response_with_cs", "");
+            if (cacheKey != null) {
+                responseCache.put(cacheKey, REFACTORINGS_PROMPT_VERSION, model, generatedText);
+            }
+
+            return generatedText + " INSTRUCTION: " + formatInstructions(refactoringInstances);
+        } catch (TaskRejectedException exp) {
+            // Kept as is, so callers can tell a full rate limit queue from a failure
+            throw exp;
+        } catch (Exception exp) {
+            // Thrown rather than returned, so the error message is never cached as the summary
+            System.err.println("Error generating summary: " + exp.getMessage());
+            throw new RuntimeException(exp.getMessage());
+        }
+    }
 
-            // URI uri = new URI("http", null, "chromeext-metrics", 8000, "/get-response", null, null);
-            URI uri = new URI("http://localhost:8000/get-response");
+    /**
+     * Generates the summary of one commit, choosing the prompt depending on whether any
+     * refactorings were found in it
+     *
+     * @param refactoringMessages The numbered list of refactorings (blank if there are none)
+     * @param refactoringInstances Refactoring type to number of instances
+     * @param repoUrl The repository URL
+     * @param commitUrl The URL of the commit on GitHub
+     * @param aiToken The OpenAI key of the user
+     * @return The generated summary
+     */
+    public String generateSummary(String refactoringMessages, Map<String, Integer> refactoringInstances, String repoUrl,
+                                  String commitUrl, String aiToken) {
+        return generateSummary(refactoringMessages, refactoringInstances, repoUrl, commitUrl, aiToken, LlmRequestScheduler.Priority.INTERACTIVE);
+    }
 
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(uri)
-                    .header("Content-Type", "application/json")
-                    .header("Authorization", "Bearer "+aiToken)
-                    .POST(HttpRequest.BodyPublishers.ofString(jsonRequestBody))
-                    .build();
+    public String generateSummary(String refactoringMessages, Map<String, Integer> refactoringInstances, String repoUrl,
+                                  String commitUrl, String aiToken, LlmRequestScheduler.Priority priority) {
+        return generateSummary(refactoringMessages, refactoringInstances, repoUrl, commitUrl, aiToken, priority, null);
+    }
 
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+    /**
+     * @param commitDiff The diff of the commit, sent when no refactorings were found (null to
+     *                   let the metrics service read it from the commit page). Its patch id keys
+     *                   the cached response either way.
+     */
+    public String generateSummary(String refactoringMessages, Map<String, Integer> refactoringInstances, String repoUrl,
+                                  String commitUrl, String aiToken, LlmRequestScheduler.Priority priority, CommitDiff commitDiff) {
+        if (refactoringMessages.trim().isEmpty()) {
+            return generateSummaryForNoRefactorings(commitUrl, repoUrl, new OpenAiService(aiToken), aiToken, priority, commitDiff);
+        }
+        return generateSummaryForRefactorings(refactoringMessages, refactoringInstances, repoUrl, commitUrl, aiToken, priority, commitDiff);
+    }
 
-            System.out.println(" Response status code: " + response.statusCode());
-            System.out.println(" Response body: " + response.body());
+    /**
+     * Same as generateSummaryForNoRefactorings, but forwards the generated text to the
+     * listener as it arrives from the metrics service
+     */
+    public String streamSummaryForNoRefactorings(String commitUrl, String repoUrl, OpenAiService service, String aiToken,
+                                                 SummaryProgressListener listener) {
+        return streamSummaryForNoRefactorings(commitUrl, repoUrl, service, aiToken, listener, null);
+    }
 
-            JSONObject jsonResponse = new JSONObject(response.body());
-            String generatedText = jsonResponse.optString("response_with_cs", "");
+    public String streamSummaryForNoRefactorings(String commitUrl, String repoUrl, OpenAiService service, String aiToken,
+                                                 SummaryProgressListener listener, CommitDiff commitDiff) {
+        System.out.println("Streaming summary for no refactorings");
+        String cacheKey = diffCacheKey(commitDiff);
+        Optional<String> cached = cacheKey == null ? Optional.empty() : responseCache.get(cacheKey);
+        if (cached.isPresent()) {
+            System.out.println("Using cached LLM response for an identical diff");
+            listener.onToken(cached.get());
+            return cached.get();
+        }
+
+        String streamed = streamResponse(buildRequestBody(buildPromptFromURL(commitUrl), false, repoUrl, commitUrl, commitDiff), aiToken, listener);
+        if (streamed != null) {
+            if (cacheKey != null) {
+                responseCache.put(cacheKey, DIFF_PROMPT_VERSION, model, streamed);
+            }
+            return streamed;
+        }
+        String generatedText = generateSummaryForNoRefactorings(commitUrl, repoUrl, service, aiToken,
+                LlmRequestScheduler.Priority.INTERACTIVE, commitDiff);
+        listener.onToken(generatedText);
+        return generatedText;
+    }
+
+    /**
+     * Same as generateSummaryForRefactorings, but forwards the generated text to the
+     * listener as it arrives from the metrics service
+     */
+    public String streamSummaryForRefactorings(String refactorings, Map<String, Integer> refactoringInstances, String repoUrl,
+                                               String commitUrl, String aiToken, SummaryProgressListener listener) {
+        return streamSummaryForRefactorings(refactorings, refactoringInstances, repoUrl, commitUrl, aiToken, listener, null);
+    }
+
+    public String streamSummaryForRefactorings(String refactorings, Map<String, Integer> refactoringInstances, String repoUrl,
+                                               String commitUrl, String aiToken, SummaryProgressListener listener,
+                                               CommitDiff commitDiff) {
+        System.out.println("Streaming summary for refactorings");
+        String cacheKey = refactoringsCacheKey(refactorings, commitDiff);
+        Optional<String> cached = cacheKey == null ? Optional.empty() : responseCache.get(cacheKey);
+        if (cached.isPresent()) {
+            System.out.println("Using cached LLM response for identical refactorings");
+            listener.onToken(cached.get());
+            return cached.get() + " INSTRUCTION: " + formatInstructions(refactoringInstances);
+        }
 
-            StringBuilder instructions = new StringBuilder();
-            for (Map.Entry<String, Integer> entry : refactoringInstances.entrySet()) {
-                instructions.append(entry.getValue())
-                        .append(" ")
-                        .append(entry.getKey())
-                        .append("  ");
+        String prompt = buildPrompt(refactorings, refactoringInstances, aiToken, LlmRequestScheduler.Priority.INTERACTIVE);
+        String streamed = streamResponse(buildRequestBody(prompt, true, repoUrl, commitUrl), aiToken, listener);
+        if (streamed != null) {
+            if (cacheKey != null) {
+                responseCache.put(cacheKey, REFACTORINGS_PROMPT_VERSION, model, streamed);
             }
+            return streamed + " INSTRUCTION: " + formatInstructions(refactoringInstances);
+        }
+        // The prompt is reused, so the chunks of a large commit are not summarized a second time
+        String generatedText = generateSummaryForPrompt(prompt, cacheKey, refactoringInstances, repoUrl, commitUrl, aiToken,
+                LlmRequestScheduler.Priority.INTERACTIVE);
+        listener.onToken(generatedText);
+        return generatedText;
+    }
+
+    /**
+     * Builds the prompt of a refactoring summary. Very large commits are split into chunks of
+     * related refactorings that are described in parallel (map), and the final prompt is built
+     * from those descriptions (reduce), so no single request has to carry the whole list.
+     */
+    private String buildPrompt(String refactorings, Map<String, Integer> refactoringInstances, String aiToken,
+                               LlmRequestScheduler.Priority priority) {
+        List<String> descriptions = promptCompiler.parseRefactorings(refactorings);
+        if (descriptions.size() <= mapReduceThreshold) {
+            return buildPromptFromRefactorings(refactorings, refactoringInstances);
+        }
+
+        List<List<String>> chunks = promptCompiler.splitByPackage(descriptions, mapReduceChunkSize);
+        System.out.println("Summarizing " + descriptions.size() + " refactorings in " + chunks.size() + " chunks");
+        List<Future<String>> pending = new ArrayList<>();
+        List<String> partialSummaries = new ArrayList<>();
+        try {
+            for (List<String> chunk : chunks) {
+                pending.add(chunkSummaryExecutor.submit(() -> summarizeChunk(chunk, aiToken, priority)));
+            }
+            for (Future<String> partial : pending) {
+                partialSummaries.add(partial.get());
+            }
+        } catch (ExecutionException e) {
+            // The summary of a commit is only useful if it covers all of it, so the other chunks are interrupted
+            pending.forEach(partial -> partial.cancel(true));
+            throw e.getCause() instanceof RuntimeException cause ? cause : new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            pending.forEach(partial -> partial.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while summarizing the commit in parts", e);
+        } catch (RuntimeException e) {
+            // Chunk executor saturated
+            pending.forEach(partial -> partial.cancel(true));
+            throw e;
+        }
+        return promptCompiler.compileReduce(partialSummaries, refactoringInstances);
+    }
 
-            return generatedText + " INSTRUCTION: " + instructions.toString();
+    // Chunks are sent without repository context, which only the final request needs
+    private String summarizeChunk(List<String> chunk, String aiToken, LlmRequestScheduler.Priority priority) {
+        try {
+            String responseBody = postToMetricsService(buildRequestBody(promptCompiler.compileChunk(chunk), false, null, null), aiToken, priority);
+            return new JSONObject(responseBody).optString("response_with_cs", "");
+        } catch (TaskRejectedException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Error summarizing part of the commit: " + e.getMessage(), e);
+        }
+    }
+
+    private String buildRequestBody(String prompt, boolean userag, String repoUrl, String commitUrl) {
+        return buildRequestBody(prompt, userag, repoUrl, commitUrl, null);
+    }
+
+    private String buildRequestBody(String prompt, boolean userag, String repoUrl, String commitUrl, CommitDiff commitDiff) {
+        JsonObject json = new JsonObject();
+        json.addProperty("query", prompt);
+        json.addProperty("userag", userag);
+        json.addProperty("git_url", repoUrl);
+        json.addProperty("commit_url", commitUrl);
+        if (commitDiff != null) {
+            json.addProperty("commit_diff", commitDiff.getText());
+        }
+        return json.toString();
+    }
+
+    // Waits for the user's rate limit budget before calling the metrics service
+    private String postToMetricsService(String jsonRequestBody, String aiToken, LlmRequestScheduler.Priority priority) throws Exception {
+        requestScheduler.acquire(aiToken, LlmRequestScheduler.estimateTokens(jsonRequestBody, expectedOutputTokens), priority);
+        return metricsGateway.post(GET_RESPONSE_PATH, jsonRequestBody, aiToken);
+    }
+
+    /**
+     * Posts to the streaming endpoint of the metrics service and reads its event stream.
+     *
+     * @return The full generated text, or null if the metrics service does not support streaming
+     */
+    private String streamResponse(String jsonRequestBody, String aiToken, SummaryProgressListener listener) {
+        try {
+            requestScheduler.acquire(aiToken, LlmRequestScheduler.estimateTokens(jsonRequestBody, expectedOutputTokens),
+                    LlmRequestScheduler.Priority.INTERACTIVE);
+            HttpResponse<Stream<String>> response = metricsGateway.postStreaming(GET_RESPONSE_STREAM_PATH, jsonRequestBody, aiToken);
+            System.out.println(" Stream response status code: " + response.statusCode());
+            if (response.statusCode() == 404 || response.statusCode() == 405) {
+                response.body().close();
+                System.out.println("Metrics service does not support streaming, falling back to a single response");
+                return null;
+            }
+            if (response.statusCode() != 200) {
+                response.body().close();
+                throw new RuntimeException("Metrics service returned status " + response.statusCode());
+            }
+
+            StringBuilder generatedText = new StringBuilder();
+            String eventName = "message";
+            try (Stream<String> lines = response.body()) {
+                Iterator<String> it = lines.iterator();
+                while (it.hasNext()) {
+                    String line = it.next();
+                    if (line.isEmpty()) {
+                        eventName = "message";
+                    } else if (line.startsWith("event:")) {
+                        eventName = line.substring(6).trim();
+                    } else if (line.startsWith("data:")) {
+                        String data = line.substring(5).trim();
+                        if ("[DONE]".equals(data)) {
+                            break;
+                        }
+                        JSONObject payload = new JSONObject(data);
+                        if ("error".equals(eventName)) {
+                            throw new RuntimeException(payload.optString("error", "Metrics service stream failed"));
+                        }
+                        String token = payload.optString("token", "");
+                        if (!token.isEmpty()) {
+                            generatedText.append(token);
+                            listener.onToken(token);
+                        }
+                    }
+                }
+            }
+            return generatedText.toString();
+        } catch (InterruptedException exp) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(exp.getMessage());
+        } catch (RuntimeException exp) {
+            System.err.println("Error streaming summary: " + exp.getMessage());
+            throw exp;
         } catch (Exception exp) {
-            System.err.println("Error generating summary: " + exp.getMessage());
-            return exp.getMessage();
+            System.err.println("Error streaming summary: " + exp.getMessage());
+            throw new RuntimeException(exp.getMessage());
+        }
+    }
+
+    // Numbering, spacing and order of the refactoring list do not change the prompt's meaning. The metrics
+    // service adds the commit's changes to the prompt, so their patch id is part of the key: a cherry-pick
+    // or fork of the commit reuses the response, another commit with the same refactorings does not
+    private String refactoringsCacheKey(String refactorings, CommitDiff commitDiff) {
+        if (commitDiff == null) {
+            return null;
+        }
+        List<String> lines = new ArrayList<>();
+        for (String line : refactorings.split("\n")) {
+            String normalized = LIST_NUMBERING.matcher(line.trim()).replaceFirst("").replaceAll("\\s+", " ");
+            if (!normalized.isEmpty()) {
+                lines.add(normalized);
+            }
+        }
+        Collections.sort(lines);
+        return responseCache.key(REFACTORINGS_PROMPT_VERSION, model, commitDiff.getPatchId() + "\n" + String.join("\n", lines));
+    }
+
+    private String diffCacheKey(CommitDiff commitDiff) {
+        return commitDiff == null ? null : responseCache.key(DIFF_PROMPT_VERSION, model, commitDiff.getPatchId());
+    }
+
+    private String formatInstructions(Map<String, Integer> refactoringInstances) {
+        StringBuilder instructions = new StringBuilder();
+        for (Map.Entry<String, Integer> entry : refactoringInstances.entrySet()) {
+            instructions.append(entry.getValue())
+                    .append(" ")
+                    .append(entry.getKey())
+                    .append("  ");
         }
+        return instructions.toString();
     }
 }
@@ -0,0 +1,238 @@
+package saim;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Component;
+
+/**
+ * Meters outbound LLM requests per OpenAI key with two token buckets, one for requests and one
+ * for estimated tokens per minute, so bursts are spread out below the provider's rate limits
+ * instead of turning into 429s and retries. Callers wait in a queue per key, where interactive
+ * requests go before background ones; a request that cannot start within the maximum wait is
+ * rejected with a TaskRejectedException. Keys that have been idle long enough for their
+ * buckets to refill are forgotten, together with their statistics.
+ */
+@Component
+public class LlmRequestScheduler {
+
+    public enum Priority { INTERACTIVE, BACKGROUND }
+
+    // Both buckets refill completely within a minute, so a rejected request can start by then
+    public static final long RETRY_AFTER_SECONDS = 60;
+
+    private static final long EVICTION_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    @Value("${llm.rate.requests-per-minute:60}")
+    private int requestsPerMinute;
+
+    @Value("${llm.rate.tokens-per-minute:30000}")
+    private int tokensPerMinute;
+
+    @Value("${llm.rate.max-wait-seconds:60}")
+    private long maxWaitSeconds;
+
+    private final Map<String, KeyState> states = new ConcurrentHashMap<>();
+    private final AtomicLong ticketSequence = new AtomicLong();
+    private volatile long lastEvictedAt = System.nanoTime();
+
+    /**
+     * Blocks until the key may send a request of the estimated size
+     *
+     * @param aiToken The OpenAI key the request is sent with
+     * @param estimatedTokens Estimated prompt plus completion tokens of the request
+     * @param priority INTERACTIVE for requests a user is waiting on, BACKGROUND otherwise
+     * @throws TaskRejectedException If the request could not start within the maximum wait
+     */
+    public void acquire(String aiToken, int estimatedTokens, Priority priority) {
+        // A request larger than the whole bucket would otherwise never be allowed to start
+        int tokens = Math.min(Math.max(estimatedTokens, 1), tokensPerMinute);
+        Ticket ticket = new Ticket(priority, ticketSequence.incrementAndGet());
+
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(maxWaitSeconds);
+        evictIdleStates(start);
+        KeyState state = lockState(tokenKey(aiToken));
+        try {
+            state.waiting.add(ticket);
+            while (true) {
+                long now = System.nanoTime();
+                state.refill(now, requestsPerMinute, tokensPerMinute);
+                boolean first = state.waiting.peek() == ticket;
+                if (first && state.requestTokens >= 1 && state.llmTokens >= tokens) {
+                    state.requestTokens -= 1;
+                    state.llmTokens -= tokens;
+                    state.waiting.remove(ticket);
+                    state.recordGranted(TimeUnit.NANOSECONDS.toMillis(now - start));
+                    state.changed.signalAll();
+                    return;
+                }
+
+                long remaining = deadline - now;
+                if (remaining <= 0) {
+                    state.waiting.remove(ticket);
+                    state.rejected++;
+                    state.changed.signalAll();
+                    throw new TaskRejectedException("LLM rate limit queue for this API key is full, waited " + maxWaitSeconds + "s");
+                }
+                long wait = first ? Math.min(remaining, state.nanosUntilCapacity(tokens, requestsPerMinute, tokensPerMinute)) : remaining;
+                state.changed.awaitNanos(Math.max(wait, TimeUnit.MILLISECONDS.toNanos(1)));
+            }
+        } catch (InterruptedException e) {
+            state.waiting.remove(ticket);
+            state.changed.signalAll();
+            Thread.currentThread().interrupt();
+            throw new TaskRejectedException("Interrupted while waiting for the LLM rate limit", e);
+        } finally {
+            state.lock.unlock();
+        }
+    }
+
+    /**
+     * @param text The prompt sent to the metrics service
+     * @param expectedOutputTokens Tokens expected for the completion and added context
+     * @return A rough token estimate (about four characters per token)
+     */
+    public static int estimateTokens(String text, int expectedOutputTokens) {
+        return text.length() / 4 + expectedOutputTokens;
+    }
+
+    /**
+     * @return Queue depth, wait times and rejections per key (keys shown as a short hash)
+     */
+    public List<Map<String, Object>> stats() {
+        List<Map<String, Object>> stats = new ArrayList<>();
+        states.forEach((key, state) -> {
+            state.lock.lock();
+            try {
+                state.refill(System.nanoTime(), requestsPerMinute, tokensPerMinute);
+                long interactive = state.waiting.stream().filter(t -> t.priority == Priority.INTERACTIVE).count();
+                Map<String, Object> entry = new LinkedHashMap<>();
+                entry.put("key", key.substring(0, 8));
+                entry.put("queuedInteractive", interactive);
+                entry.put("queuedBackground", state.waiting.size() - interactive);
+                entry.put("granted", state.granted);
+                entry.put("rejected", state.rejected);
+                entry.put("averageWaitMillis", state.granted == 0 ? 0 : state.totalWaitMillis / state.granted);
+                entry.put("maxWaitMillis", state.maxWaitMillis);
+                entry.put("availableRequests", (int) state.requestTokens);
+                entry.put("availableTokens", (int) state.llmTokens);
+                stats.add(entry);
+            } finally {
+                state.lock.unlock();
+            }
+        });
+        return stats;
+    }
+
+    // Returns the locked state of the key, never one that eviction has already removed
+    private KeyState lockState(String key) {
+        while (true) {
+            KeyState state = states.computeIfAbsent(key, k -> new KeyState(requestsPerMinute, tokensPerMinute));
+            state.lock.lock();
+            if (!state.evicted) {
+                return state;
+            }
+            state.lock.unlock();
+        }
+    }
+
+    // A key nobody waits on whose buckets are full again behaves exactly like a new one, so it can be dropped.
+    // Runs on acquisitions, at most once a minute
+    private void evictIdleStates(long now) {
+        if (now - lastEvictedAt < EVICTION_INTERVAL_NANOS) {
+            return;
+        }
+        lastEvictedAt = now;
+        states.values().removeIf(state -> {
+            if (!state.lock.tryLock()) {
+                return false;
+            }
+            try {
+                state.refill(System.nanoTime(), requestsPerMinute, tokensPerMinute);
+                state.evicted = state.waiting.isEmpty()
+                        && state.requestTokens >= requestsPerMinute && state.llmTokens >= tokensPerMinute;
+                return state.evicted;
+            } finally {
+                state.lock.unlock();
+            }
+        });
+    }
+
+    // Keys are only kept as hashes
+    private String tokenKey(String aiToken) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(aiToken.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static class Ticket {
+        final Priority priority;
+        final long sequence;
+
+        Ticket(Priority priority, long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+    }
+
+    private static class KeyState {
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition changed = lock.newCondition();
+        final PriorityQueue<Ticket> waiting = new PriorityQueue<>(
+                Comparator.comparing((Ticket t) -> t.priority).thenComparingLong(t -> t.sequence));
+
+        double requestTokens;
+        double llmTokens;
+        long lastRefillNanos = System.nanoTime();
+        boolean evicted;
+
+        long granted;
+        long rejected;
+        long totalWaitMillis;
+        long maxWaitMillis;
+
+        KeyState(int requestsPerMinute, int tokensPerMinute) {
+            this.requestTokens = requestsPerMinute;
+            this.llmTokens = tokensPerMinute;
+        }
+
+        void refill(long now, int requestsPerMinute, int tokensPerMinute) {
+            double minutes = (now - lastRefillNanos) / 60e9;
+            requestTokens = Math.min(requestsPerMinute, requestTokens + minutes * requestsPerMinute);
+            llmTokens = Math.min(tokensPerMinute, llmTokens + minutes * tokensPerMinute);
+            lastRefillNanos = now;
+        }
+
+        long nanosUntilCapacity(int tokens, int requestsPerMinute, int tokensPerMinute) {
+            double requestDeficit = Math.max(0, 1 - requestTokens);
+            double tokenDeficit = Math.max(0, tokens - llmTokens);
+            double minutes = Math.max(requestDeficit / requestsPerMinute, tokenDeficit / tokensPerMinute);
+            return (long) (minutes * 60e9);
+        }
+
+        void recordGranted(long waitMillis) {
+            granted++;
+            totalWaitMillis += waitMillis;
+            maxWaitMillis = Math.max(maxWaitMillis, waitMillis);
+        }
+    }
+}
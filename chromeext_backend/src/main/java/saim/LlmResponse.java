@@ -0,0 +1,107 @@
+package saim;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+
+/**
+ * A generated LLM response, stored under a hash of the prompt template version, the model
+ * and the normalized prompt content rather than under a repository URL
+ */
+@Entity
+@Table(name = "llm_response_cache",
+       uniqueConstraints = @UniqueConstraint(name = "uk_llm_response_cache_content_hash", columnNames = {"content_hash"}),
+       indexes = {
+           @Index(name = "idx_llm_response_cache_last_accessed", columnList = "last_accessed_at"),
+           @Index(name = "idx_llm_response_cache_prompt_version", columnList = "prompt_version")
+       })
+public class LlmResponse {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // SHA-256 of prompt version, model and normalized content
+    @Column(name = "content_hash", nullable = false, length = 64)
+    private String contentHash;
+
+    @Column(name = "prompt_version", nullable = false, length = 64)
+    private String promptVersion;
+
+    @Column(name = "model", nullable = false, length = 64)
+    private String model;
+
+    @Column(name = "response", columnDefinition = "TEXT")
+    private String response;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    @Column(name = "last_accessed_at")
+    private LocalDateTime lastAccessedAt;
+
+    @Column(name = "hit_count")
+    private long hitCount;
+
+    public LlmResponse() {}
+
+    public LlmResponse(String contentHash, String promptVersion, String model, String response) {
+        this.contentHash = contentHash;
+        this.promptVersion = promptVersion;
+        this.model = model;
+        this.response = response;
+        this.createdAt = LocalDateTime.now();
+        this.lastAccessedAt = this.createdAt;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public String getPromptVersion() {
+        return promptVersion;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public String getResponse() {
+        return response;
+    }
+
+    public void setResponse(String response) {
+        this.response = response;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public LocalDateTime getLastAccessedAt() {
+        return lastAccessedAt;
+    }
+
+    public void setLastAccessedAt(LocalDateTime lastAccessedAt) {
+        this.lastAccessedAt = lastAccessedAt;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public void setHitCount(long hitCount) {
+        this.hitCount = hitCount;
+    }
+}
@@ -0,0 +1,135 @@
+package saim;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+/**
+ * Persistent cache of LLM responses addressed by a hash of everything the response depends
+ * on, so that equivalent requests (e.g. a cherry-pick or fork of a commit that makes the
+ * same change, or a commit summarized again after a restart) reuse one response. The least recently used entries are evicted beyond the configured size, and entries of
+ * outdated prompt template versions can be dropped selectively.
+ */
+@Service
+public class LlmResponseCache {
+
+    @Autowired
+    private LlmResponseRepo repo;
+
+    @Value("${llm.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${llm.cache.max-entries:10000}")
+    private int maxEntries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param promptVersion The version of the prompt template
+     * @param model The model generating the response
+     * @param normalizedContent The prompt content, normalized so equivalent inputs are equal
+     * @return The key under which the response is stored
+     */
+    public String key(String promptVersion, String model, String normalizedContent) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(promptVersion.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(model.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(normalizedContent.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public Optional<String> get(String key) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        Optional<LlmResponse> entry = repo.findByContentHash(key);
+        if (entry.isEmpty()) {
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+        hits.incrementAndGet();
+        repo.markAccessed(entry.get().getId(), LocalDateTime.now());
+        return Optional.ofNullable(entry.get().getResponse());
+    }
+
+    public void put(String key, String promptVersion, String model, String response) {
+        if (!enabled || response == null || response.isBlank()) {
+            return;
+        }
+        try {
+            repo.save(new LlmResponse(key, promptVersion, model, response));
+        } catch (DataIntegrityViolationException e) {
+            // Another request stored the same content first
+            return;
+        }
+        evictIfFull();
+    }
+
+    /**
+     * Drops every response that was not produced by one of the given prompt template versions
+     *
+     * @param currentVersions The prompt versions still in use
+     * @return The number of responses removed
+     */
+    public int retainPromptVersions(List<String> currentVersions) {
+        int removed = repo.deleteByPromptVersionNotIn(currentVersions);
+        if (removed > 0) {
+            System.out.println("Removed " + removed + " cached LLM responses of outdated prompt versions");
+        }
+        return removed;
+    }
+
+    public int invalidatePromptVersion(String promptVersion) {
+        return repo.deleteByPromptVersion(promptVersion);
+    }
+
+    /**
+     * @return Hit/miss/eviction counters and current occupancy, for monitoring
+     */
+    public Map<String, Object> stats() {
+        long totalLookups = hits.get() + misses.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("size", repo.count());
+        stats.put("maxEntries", maxEntries);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        stats.put("hitRate", totalLookups == 0 ? 0.0 : (double) hits.get() / totalLookups);
+        return stats;
+    }
+
+    private void evictIfFull() {
+        long excess = repo.count() - maxEntries;
+        if (excess <= 0) {
+            return;
+        }
+        // Evict a little more than needed so that not every insert has to evict
+        int batch = (int) Math.min(Integer.MAX_VALUE, excess + Math.max(1, maxEntries / 100));
+        List<Long> ids = repo.findLeastRecentlyUsedIds(PageRequest.of(0, batch));
+        if (!ids.isEmpty()) {
+            evictions.addAndGet(repo.deleteByIds(ids));
+        }
+    }
+}
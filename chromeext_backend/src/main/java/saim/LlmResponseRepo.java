@@ -0,0 +1,43 @@
+package saim;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+public interface LlmResponseRepo extends JpaRepository<LlmResponse, Long> {
+
+    Optional<LlmResponse> findByContentHash(String contentHash);
+
+    @Query("SELECT r.id FROM LlmResponse r ORDER BY r.lastAccessedAt ASC")
+    List<Long> findLeastRecentlyUsedIds(Pageable pageable);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE LlmResponse r SET r.lastAccessedAt = :accessedAt, r.hitCount = r.hitCount + 1 WHERE r.id = :id")
+    int markAccessed(@Param("id") Long id, @Param("accessedAt") LocalDateTime accessedAt);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM LlmResponse r WHERE r.id IN :ids")
+    int deleteByIds(@Param("ids") List<Long> ids);
+
+    /**
+     * Removes responses produced by other versions of the prompt templates
+     */
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM LlmResponse r WHERE r.promptVersion NOT IN :promptVersions")
+    int deleteByPromptVersionNotIn(@Param("promptVersions") List<String> promptVersions);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM LlmResponse r WHERE r.promptVersion = :promptVersion")
+    int deleteByPromptVersion(@Param("promptVersion") String promptVersion);
+}
@@ -0,0 +1,225 @@
+package saim;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Single HTTP client for the Python metrics/LLM service. Connections are pooled and reused
+ * (HTTP/2 where the server supports it), every request has a timeout, 5xx and 429 answers
+ * are retried with jittered exponential backoff, and a circuit breaker fails requests
+ * immediately while the service keeps failing instead of tying up request threads.
+ */
+@Component
+public class MetricsGatewayClient {
+
+    private enum CircuitState { CLOSED, OPEN, HALF_OPEN }
+
+    private final String baseUrl;
+    private final Duration requestTimeout;
+    private final int maxRetries;
+    private final long retryBackoffMillis;
+    private final long maxBackoffMillis;
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private final HttpClient client;
+
+    private CircuitState circuitState = CircuitState.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAt = 0;
+
+    public MetricsGatewayClient(@Value("${metrics.service.url:http://localhost:8000}") String baseUrl,
+                                @Value("${metrics.service.connect-timeout-seconds:5}") long connectTimeoutSeconds,
+                                @Value("${metrics.service.request-timeout-seconds:120}") long requestTimeoutSeconds,
+                                @Value("${metrics.service.max-retries:2}") int maxRetries,
+                                @Value("${metrics.service.retry-backoff-millis:500}") long retryBackoffMillis,
+                                @Value("${metrics.service.max-backoff-millis:30000}") long maxBackoffMillis,
+                                @Value("${metrics.service.circuit.failure-threshold:5}") int failureThreshold,
+                                @Value("${metrics.service.circuit.open-seconds:30}") long openSeconds) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.requestTimeout = Duration.ofSeconds(requestTimeoutSeconds);
+        this.maxRetries = maxRetries;
+        this.retryBackoffMillis = retryBackoffMillis;
+        // Waiting longer than a request may take would outlast the caller
+        this.maxBackoffMillis = Math.min(maxBackoffMillis, requestTimeout.toMillis());
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openSeconds * 1000;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofSeconds(connectTimeoutSeconds))
+                .build();
+    }
+
+    /**
+     * Posts a JSON body and returns the response body of a successful (2xx) answer
+     *
+     * @param path The endpoint path, e.g. /get-response
+     * @param jsonBody The request body
+     * @param aiToken The OpenAI key of the user, sent as bearer token
+     * @return The response body
+     * @throws IOException If the service is unavailable or keeps answering with an error
+     */
+    public String post(String path, String jsonBody, String aiToken) throws IOException, InterruptedException {
+        HttpResponse<String> response = send(path, jsonBody, aiToken, "application/json", HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() / 100 != 2) {
+            throw new IOException("Metrics service returned status " + response.statusCode() + ": " + response.body());
+        }
+        return response.body();
+    }
+
+    /**
+     * Posts a JSON body to an endpoint answering with Server-Sent Events. Retries only happen
+     * before the stream starts; the caller must close the returned body.
+     *
+     * @param path The endpoint path, e.g. /get-response/stream
+     * @param jsonBody The request body
+     * @param aiToken The OpenAI key of the user, sent as bearer token
+     * @return The response, whose status may be 4xx (e.g. 404 if the service cannot stream)
+     */
+    public HttpResponse<Stream<String>> postStreaming(String path, String jsonBody, String aiToken) throws IOException, InterruptedException {
+        return send(path, jsonBody, aiToken, "text/event-stream", HttpResponse.BodyHandlers.ofLines());
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    private <T> HttpResponse<T> send(String path, String jsonBody, String aiToken, String accept,
+                                     HttpResponse.BodyHandler<T> bodyHandler) throws IOException, InterruptedException {
+        acquirePermission();
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + path))
+                .timeout(requestTimeout)
+                .header("Content-Type", "application/json")
+                .header("Accept", accept)
+                .header("Authorization", "Bearer " + aiToken)
+                .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
+                .build();
+
+        try {
+            return sendWithRetries(request, path, bodyHandler);
+        } catch (InterruptedException | RuntimeException e) {
+            abortTrial();
+            throw e;
+        }
+    }
+
+    private <T> HttpResponse<T> sendWithRetries(HttpRequest request, String path,
+                                                HttpResponse.BodyHandler<T> bodyHandler) throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            HttpResponse<T> response;
+            try {
+                response = client.send(request, bodyHandler);
+            } catch (IOException e) {
+                if (attempt >= maxRetries) {
+                    recordFailure();
+                    throw new IOException("Metrics service request to " + path + " failed: " + e.getMessage(), e);
+                }
+                System.err.println("Metrics service request to " + path + " failed (attempt " + (attempt + 1) + "): " + e.getMessage());
+                Thread.sleep(backoffMillis(attempt, Optional.empty()));
+                continue;
+            }
+
+            int status = response.statusCode();
+            boolean retryable = status == 429 || status >= 500;
+            if (!retryable || attempt >= maxRetries) {
+                // 429 means the service is up but busy, so only 5xx count towards opening the circuit
+                if (status >= 500) {
+                    recordFailure();
+                } else {
+                    recordSuccess();
+                }
+                return response;
+            }
+
+            System.err.println("Metrics service answered " + status + " for " + path + " (attempt " + (attempt + 1) + "), retrying");
+            Optional<String> retryAfter = response.headers().firstValue("Retry-After");
+            discard(response);
+            Thread.sleep(backoffMillis(attempt, retryAfter));
+        }
+    }
+
+    // A random delay between half and all of the exponential backoff, or the server's Retry-After if it sent one,
+    // never longer than the maximum backoff
+    private long backoffMillis(int attempt, Optional<String> retryAfter) {
+        Optional<Long> requested = retryAfter.flatMap(this::parseRetryAfterMillis);
+        if (requested.isPresent()) {
+            return Math.max(0, Math.min(requested.get(), maxBackoffMillis));
+        }
+        long cap = Math.min(retryBackoffMillis << Math.min(attempt, 10), maxBackoffMillis);
+        return ThreadLocalRandom.current().nextLong(cap / 2, cap + 1);
+    }
+
+    // Retry-After is either a number of seconds or an HTTP-date
+    private Optional<Long> parseRetryAfterMillis(String retryAfter) {
+        String value = retryAfter.trim();
+        try {
+            long seconds = Long.parseLong(value);
+            return Optional.of(seconds > maxBackoffMillis / 1000 ? maxBackoffMillis : seconds * 1000);
+        } catch (NumberFormatException e) {
+            // Not a number of seconds, try the HTTP-date form
+        }
+        try {
+            ZonedDateTime at = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Optional.of(at.toInstant().toEpochMilli() - System.currentTimeMillis());
+        } catch (DateTimeParseException e) {
+            System.err.println("Ignoring malformed Retry-After header: " + value);
+            return Optional.empty();
+        }
+    }
+
+    private void discard(HttpResponse<?> response) {
+        if (response.body() instanceof Stream<?> lines) {
+            lines.close();
+        }
+    }
+
+    private synchronized void acquirePermission() throws IOException {
+        if (circuitState == CircuitState.OPEN) {
+            if (System.currentTimeMillis() - openedAt < openMillis) {
+                throw new IOException("Metrics service unavailable, not sending requests for up to " + openMillis / 1000 + "s");
+            }
+            // Let one trial request through
+            circuitState = CircuitState.HALF_OPEN;
+        } else if (circuitState == CircuitState.HALF_OPEN) {
+            throw new IOException("Metrics service unavailable, waiting for the trial request to finish");
+        }
+    }
+
+    // A trial request that ended without an answer neither closes nor re-opens the circuit
+    private synchronized void abortTrial() {
+        if (circuitState == CircuitState.HALF_OPEN) {
+            circuitState = CircuitState.OPEN;
+        }
+    }
+
+    private synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        circuitState = CircuitState.CLOSED;
+    }
+
+    private synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (circuitState == CircuitState.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            if (circuitState != CircuitState.OPEN) {
+                System.err.println("Opening metrics service circuit after " + consecutiveFailures + " consecutive failures");
+            }
+            circuitState = CircuitState.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+}
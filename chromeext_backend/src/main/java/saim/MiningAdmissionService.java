@@ -0,0 +1,424 @@
+package saim;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
+import org.kohsuke.github.GHCommit;
+import org.refactoringminer.api.Refactoring;
+import org.refactoringminer.api.RefactoringHandler;
+import org.refactoringminer.rm1.GitHistoryRefactoringMinerImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Decides how a commit is mined before RefactoringMiner runs, since its time and memory grow
+ * with the size of the diff. The size is estimated from the GitHub API or the local mirror;
+ * small commits are mined fully with a timeout that grows with their size, large ones only on
+ * a sample of their Java files, and huge ones (e.g. an imported library) are not mined at all
+ * and summarized from their diff. Recent decisions are kept for operators.
+ * <p>
+ * Sampled runs and the full runs of batches are mined on a bounded executor. RefactoringMiner
+ * does not check for interrupts, so a run past its timeout cannot be stopped: the caller stops
+ * waiting, and the run keeps its thread until it finishes. The executor limits how many such
+ * runs can pile up; further runs are rejected and the commits summarized from their diff.
+ */
+@Service
+public class MiningAdmissionService {
+
+    private static final Logger log = LoggerFactory.getLogger(MiningAdmissionService.class);
+
+    // GitHub lists at most this many files of a commit
+    private static final int GITHUB_FILE_LIMIT = 300;
+
+    @Autowired
+    private RepositoryMirrorManager mirrorManager;
+
+    @Value("${mining.admission.full.max-lines:20000}")
+    private int fullMaxLines;
+
+    @Value("${mining.admission.full.max-files:400}")
+    private int fullMaxFiles;
+
+    @Value("${mining.admission.full.max-bytes:20000000}")
+    private long fullMaxBytes;
+
+    // Above this many changed lines the commit is not mined at all
+    @Value("${mining.admission.sampled.max-lines:200000}")
+    private int sampledMaxLines;
+
+    // Java files with the most changed lines that are mined for a sampled commit
+    @Value("${mining.admission.sample-files:100}")
+    private int sampleFiles;
+
+    @Value("${mining.admission.base-timeout-seconds:30}")
+    private int baseTimeoutSeconds;
+
+    // Expected mining speed, used to give larger commits a longer timeout
+    @Value("${mining.admission.lines-per-second:200}")
+    private int linesPerSecond;
+
+    @Value("${mining.admission.max-timeout-seconds:240}")
+    private int maxTimeoutSeconds;
+
+    @Value("${mining.admission.history-size:200}")
+    private int historySize;
+
+    private final Deque<MiningDecision> recentDecisions = new ConcurrentLinkedDeque<>();
+    private final Map<MiningDecision.Strategy, AtomicLong> decisionCounts = new EnumMap<>(MiningDecision.Strategy.class);
+
+    // Runs sampled and batch mining, including timed-out runs that have not finished yet
+    private final ThreadPoolExecutor miningExecutor;
+
+    public MiningAdmissionService(@Value("${mining.admission.concurrency:2}") int concurrency,
+                                  @Value("${mining.admission.queue-capacity:8}") int queueCapacity) {
+        for (MiningDecision.Strategy strategy : MiningDecision.Strategy.values()) {
+            decisionCounts.put(strategy, new AtomicLong());
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        this.miningExecutor = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "AdmittedMining-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Estimates the size of a commit with the GitHub API, or from the mirror if the API fails
+     *
+     * @param repoUrl The URL of the repository
+     * @param commitId The full SHA of the commit
+     * @param miner The miner of the tenant, whose GitHub client is used
+     * @param credentials The credentials of the tenant, used if the commit must be fetched
+     * @return The recorded decision
+     */
+    public MiningDecision decide(String repoUrl, String commitId, GitHistoryRefactoringMinerImpl miner, GitHubCredentials credentials) {
+        MiningDecision truncated = null;
+        try {
+            GHCommit commit = miner.getGitHubRepository(repoUrl).getCommit(commitId);
+            List<GHCommit.File> files = commit.getFiles();
+            MiningDecision decision = new MiningDecision(repoUrl, commitId, "github", files.size(),
+                    commit.getLinesAdded(), commit.getLinesDeleted(), -1);
+            if (files.size() < GITHUB_FILE_LIMIT) {
+                return record(decision, files.stream().anyMatch(file -> isJavaFile(file.getFileName())), false);
+            }
+            // The file list is cut off, so the number and size of the changed files are only known from the mirror
+            log.info("GitHub lists only the first {} files of commit {}, estimating its size from the mirror", files.size(), commitId);
+            truncated = decision;
+        } catch (Exception e) {
+            log.warn("Could not estimate size of commit {} with the GitHub API: {}", commitId, e.getMessage());
+        }
+
+        try (Repository repository = mirrorManager.openWithCommitPair(repoUrl, commitId, credentials)) {
+            return decide(repository, repoUrl, commitId);
+        } catch (Exception e) {
+            log.warn("Could not estimate size of commit {} from the mirror: {}", commitId, e.getMessage());
+            if (truncated != null) {
+                return record(truncated, true, true);
+            }
+            MiningDecision decision = new MiningDecision(repoUrl, commitId, "none", 0, 0, 0, -1);
+            return record(decision, true, false);
+        }
+    }
+
+    /**
+     * Estimates the size of a commit from a repository that already contains it
+     *
+     * @param repository A repository containing the commit and its first parent
+     * @param repoUrl The URL of the repository
+     * @param commitId The SHA of the commit
+     * @return The recorded decision
+     */
+    public MiningDecision decide(Repository repository, String repoUrl, String commitId) throws IOException {
+        List<FileChange> changes = changedFiles(repository, commitId);
+        int added = 0;
+        int deleted = 0;
+        long bytes = 0;
+        boolean javaChanged = false;
+        for (FileChange change : changes) {
+            added += change.linesAdded;
+            deleted += change.linesDeleted;
+            bytes += change.bytes;
+            javaChanged |= change.isJava();
+        }
+        MiningDecision decision = new MiningDecision(repoUrl, commitId, "mirror", changes.size(), added, deleted, bytes);
+        return record(decision, javaChanged, false);
+    }
+
+    /**
+     * Mines only the Java files of the commit with the most changed lines, within the timeout
+     * of the decision. Refactorings that span other files (e.g. moves into unsampled files)
+     * are not found.
+     *
+     * @param miner The miner of the tenant
+     * @param repository A repository containing the commit and its first parent
+     * @param decision The decision for the commit
+     * @return The refactorings found, or empty if mining timed out or failed
+     */
+    public Optional<List<Refactoring>> mineSampled(GitHistoryRefactoringMinerImpl miner, Repository repository, MiningDecision decision) {
+        try {
+            Map<String, String> before = new HashMap<>();
+            Map<String, String> after = new HashMap<>();
+            List<FileChange> sample = changedFiles(repository, decision.commitId).stream()
+                    .filter(FileChange::isJava)
+                    .sorted(Comparator.comparingInt((FileChange change) -> change.linesAdded + change.linesDeleted).reversed())
+                    .limit(sampleFiles)
+                    .toList();
+            try (ObjectReader reader = repository.newObjectReader()) {
+                for (FileChange change : sample) {
+                    if (!ObjectId.zeroId().equals(change.oldId)) {
+                        before.put(change.oldPath, new String(reader.open(change.oldId).getBytes(), StandardCharsets.UTF_8));
+                    }
+                    if (!ObjectId.zeroId().equals(change.newId)) {
+                        after.put(change.newPath, new String(reader.open(change.newId).getBytes(), StandardCharsets.UTF_8));
+                    }
+                }
+            }
+            log.debug("Mining {} sampled files of commit {}", sample.size(), decision.commitId);
+
+            List<Refactoring> found = new ArrayList<>();
+            AtomicBoolean failed = new AtomicBoolean();
+            Future<?> mining = miningExecutor.submit(() -> miner.detectAtFileContents(before, after, new RefactoringHandler() {
+                @Override
+                public void handle(String commitId, List<Refactoring> refactorings) {
+                    found.addAll(refactorings);
+                }
+
+                @Override
+                public void handleException(String commitId, Exception e) {
+                    log.warn("Error detecting refactorings in sampled files of commit {}: {}", decision.commitId, e.getMessage());
+                    failed.set(true);
+                }
+            }));
+            try {
+                mining.get(decision.timeoutSeconds, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                // Frees the queue slot of a run that has not started; a running one is not interruptible and finishes unobserved
+                miningExecutor.remove((Runnable) mining);
+                mining.cancel(false);
+                log.warn("Sampled mining of commit {} timed out after {}s", decision.commitId, decision.timeoutSeconds);
+                return Optional.empty();
+            }
+            return failed.get() ? Optional.empty() : Optional.of(found);
+        } catch (IOException | ExecutionException e) {
+            log.warn("Error during sampled mining of commit {}: {}", decision.commitId, e.getMessage());
+            return Optional.empty();
+        } catch (RejectedExecutionException e) {
+            log.warn("Too many minings in progress, not mining sampled files of commit {}", decision.commitId);
+            return Optional.empty();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Mines a whole commit within the timeout of the decision, for batches; single commits are
+     * mined by HedgedMiningService. The timed detectAtCommit of RefactoringMiner is not used, as
+     * it mines on an extra thread per call that nothing bounds.
+     *
+     * @param miner The miner of the tenant
+     * @param repository A repository containing the commit and its first parent; a run past
+     *                   its timeout keeps its own reference to it until it finishes
+     * @param decision The decision for the commit
+     * @return The refactorings found, or empty if mining failed, timed out or was rejected
+     */
+    public Optional<List<Refactoring>> mineFull(GitHistoryRefactoringMinerImpl miner, Repository repository, MiningDecision decision) {
+        List<Refactoring> found = new ArrayList<>();
+        AtomicBoolean completed = new AtomicBoolean();
+        AtomicBoolean failed = new AtomicBoolean();
+        repository.incrementOpen();
+        Future<?> mining;
+        try {
+            mining = miningExecutor.submit(() -> {
+                try {
+                    miner.detectAtCommit(repository, decision.commitId, new RefactoringHandler() {
+                        @Override
+                        public void handle(String commitId, List<Refactoring> refactorings) {
+                            found.addAll(refactorings);
+                            completed.set(true);
+                        }
+
+                        @Override
+                        public void handleException(String commitId, Exception e) {
+                            log.warn("Error detecting refactorings for commit {}: {}", commitId, e.getMessage());
+                            failed.set(true);
+                        }
+                    });
+                } finally {
+                    repository.close();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            repository.close();
+            log.warn("Too many minings in progress, not mining commit {}", decision.commitId);
+            return Optional.empty();
+        }
+
+        try {
+            mining.get(decision.timeoutSeconds, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            // Only a queued run is dropped (cancel alone also succeeds on a running one, whose task
+            // still closes the repository); a running one is not interruptible and finishes unobserved
+            if (miningExecutor.remove((Runnable) mining)) {
+                repository.close();
+            }
+            mining.cancel(false);
+            log.warn("Mining of commit {} timed out after {}s", decision.commitId, decision.timeoutSeconds);
+            return Optional.empty();
+        } catch (ExecutionException e) {
+            log.warn("Error during mining of commit {}: {}", decision.commitId, e.getMessage());
+            return Optional.empty();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        }
+        return completed.get() && !failed.get() ? Optional.of(found) : Optional.empty();
+    }
+
+    /**
+     * @return Number of decisions per strategy and the most recent decisions, newest first
+     */
+    public Map<String, Object> decisions() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        decisionCounts.forEach((strategy, count) -> counts.put(strategy.name(), count.get()));
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("counts", counts);
+        result.put("recent", new ArrayList<>(recentDecisions));
+        return result;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        miningExecutor.shutdownNow();
+    }
+
+    // filesTruncated: the file count is only a lower bound, at GitHub's listing limit
+    private MiningDecision record(MiningDecision decision, boolean javaChanged, boolean filesTruncated) {
+        int lines = decision.getLinesChanged();
+        if (!javaChanged) {
+            decision.strategy = MiningDecision.Strategy.DIFF_ONLY;
+            decision.reason = "no Java files changed";
+        } else if (lines > sampledMaxLines) {
+            decision.strategy = MiningDecision.Strategy.DIFF_ONLY;
+            decision.reason = lines + " changed lines exceed " + sampledMaxLines;
+        } else if (lines > fullMaxLines) {
+            decision.strategy = MiningDecision.Strategy.SAMPLED;
+            decision.reason = lines + " changed lines exceed " + fullMaxLines;
+        } else if (filesTruncated) {
+            decision.strategy = MiningDecision.Strategy.SAMPLED;
+            decision.reason = "at least " + decision.filesChanged + " changed files, more than GitHub lists";
+        } else if (decision.filesChanged > fullMaxFiles) {
+            decision.strategy = MiningDecision.Strategy.SAMPLED;
+            decision.reason = decision.filesChanged + " changed files exceed " + fullMaxFiles;
+        } else if (decision.bytes > fullMaxBytes) {
+            decision.strategy = MiningDecision.Strategy.SAMPLED;
+            decision.reason = decision.bytes + " bytes of changed files exceed " + fullMaxBytes;
+        } else {
+            decision.strategy = MiningDecision.Strategy.FULL;
+            decision.reason = "within limits";
+        }
+        decision.timeoutSeconds = (int) Math.min(maxTimeoutSeconds, baseTimeoutSeconds + (long) lines / Math.max(1, linesPerSecond));
+
+        decisionCounts.get(decision.strategy).incrementAndGet();
+        recentDecisions.addFirst(decision);
+        while (recentDecisions.size() > historySize) {
+            recentDecisions.pollLast();
+        }
+        log.debug("Mining decision for commit {}: {} ({}, timeout {}s, size from {})",
+                decision.commitId, decision.strategy, decision.reason, decision.timeoutSeconds, decision.source);
+        return decision;
+    }
+
+    private List<FileChange> changedFiles(Repository repository, String commitId) throws IOException {
+        ObjectId id = repository.resolve(commitId);
+        if (id == null) {
+            throw new IOException("Unknown commit: " + commitId);
+        }
+        List<FileChange> changes = new ArrayList<>();
+        try (RevWalk revWalk = new RevWalk(repository); DiffFormatter formatter = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
+            RevCommit commit = revWalk.parseCommit(id);
+            formatter.setRepository(repository);
+            formatter.setDetectRenames(true);
+
+            CanonicalTreeParser newTree = new CanonicalTreeParser(null, revWalk.getObjectReader(), commit.getTree());
+            List<DiffEntry> entries = commit.getParentCount() == 0
+                    ? formatter.scan(new EmptyTreeIterator(), newTree)
+                    : formatter.scan(revWalk.parseCommit(commit.getParent(0)).getTree(), commit.getTree());
+            for (DiffEntry entry : entries) {
+                FileChange change = new FileChange(entry);
+                for (Edit edit : formatter.toFileHeader(entry).toEditList()) {
+                    change.linesAdded += edit.getLengthB();
+                    change.linesDeleted += edit.getLengthA();
+                }
+                if (!ObjectId.zeroId().equals(change.newId)) {
+                    change.bytes = revWalk.getObjectReader().getObjectSize(change.newId, Constants.OBJ_BLOB);
+                }
+                changes.add(change);
+            }
+        }
+        return changes;
+    }
+
+    private static boolean isJavaFile(String path) {
+        return path != null && path.endsWith(".java");
+    }
+
+    private static class FileChange {
+        final String oldPath;
+        final String newPath;
+        final ObjectId oldId;
+        final ObjectId newId;
+        int linesAdded;
+        int linesDeleted;
+        long bytes;
+
+        FileChange(DiffEntry entry) {
+            this.oldPath = entry.getOldPath();
+            this.newPath = entry.getNewPath();
+            this.oldId = entry.getOldId().toObjectId();
+            this.newId = entry.getNewId().toObjectId();
+        }
+
+        boolean isJava() {
+            return isJavaFile(newPath) || isJavaFile(oldPath);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package saim;
+
+// How one commit is mined, chosen from its estimated size before RefactoringMiner runs
+public class MiningDecision {
+
+    public enum Strategy {
+        FULL,       // All changed files are mined
+        SAMPLED,    // Only the Java files with the most changed lines are mined
+        DIFF_ONLY   // Nothing is mined; the summary is based on the diff
+    }
+
+    public String repoUrl;
+    public String commitId;
+    public Strategy strategy;
+    public int timeoutSeconds;
+    public String source; // Where the size estimate came from: github, mirror or none
+    public int filesChanged;
+    public int linesAdded;
+    public int linesDeleted;
+    public long bytes; // Size of the changed files after the commit, -1 if unknown
+    public String reason;
+    public long decidedAt;
+
+    // Default constructor for frameworks like Jackson (JSON serialization)
+    public MiningDecision() {}
+
+    public MiningDecision(String repoUrl, String commitId, String source, int filesChanged, int linesAdded, int linesDeleted, long bytes) {
+        this.repoUrl = repoUrl;
+        this.commitId = commitId;
+        this.source = source;
+        this.filesChanged = filesChanged;
+        this.linesAdded = linesAdded;
+        this.linesDeleted = linesDeleted;
+        this.bytes = bytes;
+        this.decidedAt = System.currentTimeMillis();
+    }
+
+    public String getRepoUrl() {
+        return repoUrl;
+    }
+
+    public String getCommitId() {
+        return commitId;
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    public int getTimeoutSeconds() {
+        return timeoutSeconds;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public int getFilesChanged() {
+        return filesChanged;
+    }
+
+    public int getLinesAdded() {
+        return linesAdded;
+    }
+
+    public int getLinesDeleted() {
+        return linesDeleted;
+    }
+
+    public int getLinesChanged() {
+        return linesAdded + linesDeleted;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public long getDecidedAt() {
+        return decidedAt;
+    }
+}
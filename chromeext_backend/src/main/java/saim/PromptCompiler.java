@@ -0,0 +1,298 @@
+package saim;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.refactoringminer.api.RefactoringType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Builds the refactoring summary prompt within a token budget. The instructions and few-shot
+ * examples form a fixed prefix that is identical for every commit (so provider-side prompt
+ * caching applies), followed by the refactorings grouped by type: duplicates are removed,
+ * and large groups are cut down to a few samples plus a count of the rest until the prompt
+ * fits the budget.
+ */
+@Component
+public class PromptCompiler {
+
+    private static final String INSTRUCTIONS =
+            "You are an expert software engineer trained in commit summarization.\n" +
+            "Given a code refactorings, go through the entire changes, and extract a meaningful summary using this structure:\n" +
+            "\n" +
+            "MANDATORY FORMAT:\n" +
+            "SUMMARY: A in-depth technical description of the change (2-3 lines max), " +
+            "INTENT: Give a software change classification such as Fixed Bug, Internal Quality Improvement, External Quality Improvement, Feature Update, Code Smell Resolution, Refactoring, Performance Optimization, Security Patch, Test Addition, Test Update, Test Removal, Logging Improvement, Dependency Update, Documentation Update, UI/UX Enhancement. Don't be limited to this list. You can also find other classification in the code. Use parent format also Corrective, Perfective, Preventive, and Adaptive" +
+            "IMPACT: Explain how the change affects software quality. Use software engineering concepts such as: reduced cyclomatic complexity, improved cohesion, " +
+            "decreased coupling, better adherence to SRP/OCP, enhanced testability, or improved abstraction layering. Do not use vague terms like 'maintainability' or 'readability' without tying them to specific code behaviors or design principles.\n\n" +
+
+            "You MUST include all three sections. Always use the provided INTENT terms. Connect the IMPACT to both the SUMMARY and INTENT using concrete software reasoning.\n\n" +
+
+            "EXAMPLES:\n\n";
+
+    private static final String[] EXAMPLES = {
+        "Example 1:\n" +
+        "SUMMARY: Replaced nested loop in UserProcessor.java with a Map<String, User> lookup. Added early exit logic to validateUserBatch().\n" +
+        "INTENT: Adaptive: Performance Optimization, Code Simplification\n" +
+        "IMPACT: Reduced time complexity from O(n²) to O(n), improving execution for large inputs. Used guard clauses and data structure optimization to align with efficient control flow and low-complexity design principles.\n\n",
+
+        "Example 2:\n" +
+        "SUMMARY: Extracted credential validation logic into AuthService and introduced LoginRequest/Response DTOs.\n" +
+        "INTENT: Perfective: Internal Quality Improvement, Preventive: Architectural Refactoring\n" +
+        "IMPACT: Applied SRP by isolating responsibilities and improved cohesion within business logic layers. Reduced controller-service coupling, increasing testability and layering integrity.\n\n",
+
+        "Example 3:\n" +
+        "SUMMARY: Integrated pagination using Spring Data’s Pageable in UserRequestController.\n" +
+        "INTENT: Perfective: External Quality Improvement, Adaptive: Feature Update\n" +
+        "IMPACT: Improved modularity and frontend responsiveness by reducing payload size. Supports lazy loading and aligns with ISO/IEC 25010 responsiveness and functional suitability metrics.\n\n",
+
+        "Example 4:\n" +
+        "SUMMARY: Replaced switch-case structure in PermissionsManager with polymorphic handlers.\n" +
+        "INTENT: Perfective: Code Smell Resolution\n" +
+        "IMPACT: Eliminated type-checking smell by encapsulating behavior polymorphically. Reduced conditional logic complexity and applied Strategy pattern as per Refactoring.Guru.\n\n",
+
+        "Example 5:\n" +
+        "SUMMARY: Introduced batch inserts in OrderRepository to replace per-record inserts.\n" +
+        "INTENT: Perfective: Performance Optimization\n" +
+        "IMPACT: Reduced round trips and improved transactional throughput. Optimized data persistence following performance tuning principles for database operations.\n\n",
+
+        "Example 6:\n" +
+        "SUMMARY: Migrated user auth from monolith to OAuth2-based service. Configured token validation with service registry integration.\n" +
+        "INTENT: Preventive: Architectural Refactoring\n" +
+        "IMPACT: Enabled clean separation of concerns and horizontal scalability by isolating authentication. Aligned architecture with microservices and domain-driven design.\n\n",
+
+        "Example 7:\n" +
+        "SUMMARY: Created PyTest suite to validate reconciliation edge cases, covering duplicate detection and currency rounding.\n" +
+        "INTENT: Test Enhancement\n" +
+        "IMPACT: Improved edge coverage and defect isolation. Aligned with test-first practices and boosted defect detection rates in CI through targeted regression testing.\n\n",
+
+        "Example 8:\n" +
+        "SUMMARY: Refactored controller to delegate report downloads to ReportService. Removed file streaming logic from controller layer.\n" +
+        "INTENT: External Quality Improvement\n" +
+        "IMPACT: Reduced coupling and improved abstraction boundaries. Enhanced external quality by aligning responsibilities with modular service-oriented architecture.\n\n"
+    };
+
+    private static final String CHUNK_INSTRUCTIONS =
+            "You are an expert software engineer trained in commit summarization.\n" +
+            "The refactorings below are one part of a very large commit. Describe in 3-5 sentences what they change, " +
+            "naming the main classes, packages and design changes involved. Do not use the SUMMARY/INTENT/IMPACT format; " +
+            "your answer is combined with the descriptions of the other parts.\n\n" +
+            "Refactorings:\n";
+
+    private static final Pattern LIST_NUMBERING = Pattern.compile("^\\d+\\.\\s*");
+    // First type named in a description, e.g. "in class org.foo.Bar" or "from class org.foo.Bar"
+    private static final Pattern QUALIFIED_TYPE = Pattern.compile("(?:class|interface|enum) ([\\w.$]+)");
+    private static final String OTHER_GROUP = "OTHER";
+    private static final String DEFAULT_PACKAGE = "(default package)";
+
+    private final String examplesPrefix;
+    private final String prefix;
+    private final int tokenBudget;
+    private final int maxPerType;
+
+    public PromptCompiler(@Value("${prompt.refactorings.examples:8}") int exampleCount,
+                          @Value("${prompt.refactorings.token-budget:6000}") int tokenBudget,
+                          @Value("${prompt.refactorings.max-per-type:5}") int maxPerType) {
+        StringBuilder prefixBuilder = new StringBuilder(INSTRUCTIONS);
+        for (int i = 0; i < Math.min(exampleCount, EXAMPLES.length); i++) {
+            prefixBuilder.append(EXAMPLES[i]);
+        }
+        this.examplesPrefix = prefixBuilder.toString();
+        this.prefix = examplesPrefix + "Refactorings:\n";
+        this.tokenBudget = tokenBudget;
+        this.maxPerType = maxPerType;
+    }
+
+    /**
+     * @param refactoringMessages The numbered list of refactorings of the commit
+     * @param refactoringInstances Refactoring type to number of instances
+     * @return The complete prompt, at most the token budget long
+     */
+    public String compile(String refactoringMessages, Map<String, Integer> refactoringInstances) {
+        Map<String, Set<String>> groups = groupByType(parseRefactorings(refactoringMessages));
+        return prefix + fitToBudget(groups, refactoringInstances, maxPerType, tokenBudget - estimateTokens(prefix));
+    }
+
+    /**
+     * @param refactoringMessages The numbered list of refactorings of the commit
+     * @return The distinct refactoring descriptions without their numbering, in the miner's order
+     */
+    public List<String> parseRefactorings(String refactoringMessages) {
+        Set<String> descriptions = new LinkedHashSet<>();
+        for (String line : refactoringMessages.split("\n")) {
+            String description = LIST_NUMBERING.matcher(line.trim()).replaceFirst("");
+            if (!description.isEmpty()) {
+                descriptions.add(description);
+            }
+        }
+        return new ArrayList<>(descriptions);
+    }
+
+    /**
+     * Splits the refactorings of a large commit into chunks of related changes: refactorings
+     * of the same package stay together, small packages share a chunk, and packages larger
+     * than a chunk are split.
+     *
+     * @param descriptions The refactorings, as returned by parseRefactorings
+     * @param chunkSize The maximum number of refactorings per chunk
+     * @return The chunks, each ordered by package
+     */
+    public List<List<String>> splitByPackage(List<String> descriptions, int chunkSize) {
+        Map<String, List<String>> packages = new TreeMap<>();
+        for (String description : descriptions) {
+            packages.computeIfAbsent(packageOf(description), k -> new ArrayList<>()).add(description);
+        }
+
+        List<List<String>> chunks = new ArrayList<>();
+        List<String> current = new ArrayList<>();
+        for (List<String> members : packages.values()) {
+            if (!current.isEmpty() && current.size() + members.size() > chunkSize) {
+                chunks.add(current);
+                current = new ArrayList<>();
+            }
+            for (String description : members) {
+                if (current.size() >= chunkSize) {
+                    chunks.add(current);
+                    current = new ArrayList<>();
+                }
+                current.add(description);
+            }
+        }
+        if (!current.isEmpty()) {
+            chunks.add(current);
+        }
+        return chunks;
+    }
+
+    /**
+     * @param chunk The refactorings of one part of the commit
+     * @return The prompt asking for a short description of that part
+     */
+    public String compileChunk(List<String> chunk) {
+        Map<String, Set<String>> groups = groupByType(chunk);
+        return CHUNK_INSTRUCTIONS + fitToBudget(groups, Map.of(), chunk.size(), tokenBudget - estimateTokens(CHUNK_INSTRUCTIONS));
+    }
+
+    /**
+     * Builds the final prompt of a split commit from the descriptions of its parts, with the
+     * same instructions and examples as compile
+     *
+     * @param partialSummaries The descriptions of the parts, in chunk order
+     * @param refactoringInstances Refactoring type to number of instances of the whole commit
+     * @return The complete prompt
+     */
+    public String compileReduce(List<String> partialSummaries, Map<String, Integer> refactoringInstances) {
+        StringBuilder body = new StringBuilder("The commit is too large to list every refactoring. Refactorings by type:\n");
+        refactoringInstances.entrySet().stream()
+                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+                .forEach(e -> body.append("- ").append(displayName(e.getKey())).append(": ").append(e.getValue()).append("\n"));
+        body.append("\nDescriptions of the parts of the commit:\n");
+        for (int i = 0; i < partialSummaries.size(); i++) {
+            body.append("Part ").append(i + 1).append(":\n").append(partialSummaries.get(i).trim()).append("\n\n");
+        }
+        String reduceBody = body.toString();
+        int bodyBudget = Math.max(0, tokenBudget - estimateTokens(examplesPrefix));
+        if (estimateTokens(reduceBody) > bodyBudget) {
+            reduceBody = reduceBody.substring(0, Math.min(reduceBody.length(), bodyBudget * 4)) + "\n...(truncated)\n";
+        }
+        return examplesPrefix + reduceBody;
+    }
+
+    // Shows fewer samples per type until the list fits, and truncates only as a last resort
+    private String fitToBudget(Map<String, Set<String>> groups, Map<String, Integer> refactoringInstances,
+                               int maxSamples, int bodyBudget) {
+        bodyBudget = Math.max(0, bodyBudget);
+        String body = renderGroups(groups, refactoringInstances, maxSamples);
+        for (int samples = maxSamples - 1; samples >= 0 && estimateTokens(body) > bodyBudget; samples--) {
+            body = renderGroups(groups, refactoringInstances, samples);
+        }
+        if (estimateTokens(body) > bodyBudget) {
+            body = body.substring(0, Math.min(body.length(), bodyBudget * 4)) + "\n...(truncated)\n";
+        }
+        return body;
+    }
+
+    private int estimateTokens(String text) {
+        return LlmRequestScheduler.estimateTokens(text, 0);
+    }
+
+    // Type name (as in refactoringInstances) to the descriptions of that type
+    private Map<String, Set<String>> groupByType(List<String> descriptions) {
+        Map<String, Set<String>> groups = new LinkedHashMap<>();
+        for (String description : descriptions) {
+            groups.computeIfAbsent(typeOf(description), k -> new LinkedHashSet<>()).add(description);
+        }
+        return groups;
+    }
+
+    // Package segments of the first qualified type name, up to the first capitalized (class) segment
+    private String packageOf(String description) {
+        Matcher matcher = QUALIFIED_TYPE.matcher(description);
+        if (!matcher.find()) {
+            return DEFAULT_PACKAGE;
+        }
+        List<String> segments = new ArrayList<>();
+        for (String segment : matcher.group(1).split("\\.")) {
+            if (segment.isEmpty() || Character.isUpperCase(segment.charAt(0))) {
+                break;
+            }
+            segments.add(segment);
+        }
+        return segments.isEmpty() ? DEFAULT_PACKAGE : String.join(".", segments);
+    }
+
+    private String typeOf(String description) {
+        try {
+            RefactoringType type = RefactoringType.extractFromDescription(description);
+            return type != null ? type.toString() : OTHER_GROUP;
+        } catch (RuntimeException e) {
+            return OTHER_GROUP;
+        }
+    }
+
+    private String renderGroups(Map<String, Set<String>> groups, Map<String, Integer> refactoringInstances, int samplesPerType) {
+        List<Map.Entry<String, Set<String>>> ordered = new ArrayList<>(groups.entrySet());
+        // Most frequent types first, so truncation drops the rarest ones
+        ordered.sort(Comparator.comparingInt((Map.Entry<String, Set<String>> e) -> -count(e, refactoringInstances))
+                .thenComparing(Map.Entry::getKey));
+
+        StringBuilder body = new StringBuilder();
+        for (Map.Entry<String, Set<String>> group : ordered) {
+            int total = count(group, refactoringInstances);
+            body.append(displayName(group.getKey())).append(" (").append(total).append("):\n");
+            int shown = 0;
+            for (String description : group.getValue()) {
+                if (shown >= samplesPerType) {
+                    break;
+                }
+                body.append("- ").append(description).append("\n");
+                shown++;
+            }
+            if (total > shown) {
+                body.append("- ... and ").append(total - shown).append(" more\n");
+            }
+        }
+        return body.toString();
+    }
+
+    private int count(Map.Entry<String, Set<String>> group, Map<String, Integer> refactoringInstances) {
+        return Math.max(group.getValue().size(), refactoringInstances.getOrDefault(group.getKey(), 0));
+    }
+
+    private String displayName(String typeName) {
+        try {
+            return RefactoringType.valueOf(typeName).getDisplayName();
+        } catch (IllegalArgumentException e) {
+            return "Other";
+        }
+    }
+}
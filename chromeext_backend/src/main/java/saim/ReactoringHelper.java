@@ -16,4 +16,33 @@ public class ReactoringHelper {
         }
         return id;
     }
+
+    /**
+     * Normalizes a repository URL so that the same repository always maps to the same key
+     * (no trailing slashes, no .git suffix, case-insensitive like GitHub itself)
+     *
+     * @param url The repository URL as received from the extension
+     * @return The canonical repository URL
+     */
+    public String canonicalRepoUrl(String url) {
+        String canonical = url.trim();
+        while (canonical.endsWith("/")) {
+            canonical = canonical.substring(0, canonical.length() - 1);
+        }
+        if (canonical.endsWith(".git")) {
+            canonical = canonical.substring(0, canonical.length() - 4);
+        }
+        return canonical.toLowerCase();
+    }
+
+    /**
+     * Builds the key identifying one commit of one repository
+     *
+     * @param url The repository URL
+     * @param id The commit SHA (may still contain a #fragment)
+     * @return A key of the form canonicalRepoUrl@sha
+     */
+    public String canonicalCommitKey(String url, String id) {
+        return canonicalRepoUrl(url) + "@" + cleanCommitId(id).trim().toLowerCase();
+    }
 }
@@ -1,36 +1,39 @@
 package saim;
 
-import java.io.File;
-import java.lang.reflect.Field;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicLong;
 
-import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.lib.Repository;
-import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
-import org.kohsuke.github.GitHub;
-import org.kohsuke.github.GitHubBuilder;
 import org.refactoringminer.api.Refactoring;
 import org.refactoringminer.api.RefactoringHandler;
 import org.refactoringminer.rm1.GitHistoryRefactoringMinerImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import com.google.gson.Gson;
 import com.theokanning.openai.service.OpenAiService;
 
 @RestController
 public class RefactoringController {
+
+    private static final Logger log = LoggerFactory.getLogger(RefactoringController.class);
     /*
      * REmoving the env variable for openai api key 
      */
@@ -40,18 +43,56 @@ public class RefactoringController {
     private ApiKeyRepo apiKeyRepo;
 
     @Autowired
-    private CommitRefactoringsRepository commitRefactoringsRepository;
+    private CommitRefactoringService commitRefactoringService;
 
     @Autowired
     private CommitService cService;
+
+    @Autowired
+    private SummaryRequestCoalescer coalescer;
+
+    @Autowired
+    private RepositoryMirrorManager mirrorManager;
+
+    @Autowired
+    private GitHubClientPool gitHubClientPool;
+
+    @Autowired
+    private SummaryJobService summaryJobService;
+
+    @Autowired
+    private CommitPrefetchService prefetchService;
+
+    @Autowired
+    private LLM llm;
+
+    @Autowired
+    private CommitDiffExtractor diffExtractor;
+
+    @Autowired
+    private MiningAdmissionService admissionService;
+
+    @Autowired
+    private HedgedMiningService hedgedMiningService;
+
+    @Autowired
+    @Qualifier("summaryExecutor")
+    private TaskExecutor summaryExecutor;
+
+    @Value("${summary.stream.timeout-seconds:300}")
+    private long streamTimeoutSeconds;
+
     private final AtomicLong counter = new AtomicLong();
     
     private boolean cachingEnabled = true; // Toggle for caching, mostly used for testing
 
     public String returnrefs(String url, String id, String uuid) {
+        return returnrefs(url, id, uuid, SummaryProgressListener.NONE);
+    }
+
+    public String returnrefs(String url, String id, String uuid, SummaryProgressListener listener) {
 
         ReactoringHelper helper = new ReactoringHelper();
-        LLM llm = new LLM();
 
         id = helper.cleanCommitId(id);
 
@@ -71,24 +112,41 @@ public class RefactoringController {
             throw new RuntimeException("GitHub API token not configured");
         }
 
-        GitHistoryRefactoringMinerImpl miner = new GitHistoryRefactoringMinerImpl();
-        setupGitHubAuthentication(githubToken, miner);
-        testGitHubAuthentication(githubToken);
+        listener.onStage("auth");
+        GitHubCredentials credentials = new GitHubCredentials(githubToken);
+        GitHistoryRefactoringMinerImpl miner = getAuthenticatedMiner(credentials);
+        gitHubClientPool.verifyAuthentication(credentials);
 
         StringBuilder refactoringMessages = new StringBuilder();
         Map<String, Integer> refactoringInstances = new HashMap<>();
 
-        boolean apiSuccess = analyzeCommitUsingGitHubApi(repoUrl, id, miner, refactoringMessages, refactoringInstances, commitRefactoringsRepository);
-
-        if (!apiSuccess) {
-            analyzeCommitUsingLocalClone(repoUrl, id, miner, refactoringMessages, refactoringInstances, commitRefactoringsRepository);
+        // Reuse refactorings stored by an earlier run instead of mining the commit again
+        listener.onStage("mining");
+        Optional<String> storedRefactorings = commitRefactoringService.findRefactoringMessages(repoUrl, id);
+        if (storedRefactorings.isPresent()) {
+            System.out.println("Using stored refactorings for commit: " + id);
+            refactoringMessages.append(storedRefactorings.get());
+            refactoringInstances.putAll(commitRefactoringService.findRefactoringInstances(repoUrl, id));
+            listener.onRefactorings(refactoringMessages.toString(), refactoringInstances);
+        } else {
+            analyzeCommit(repoUrl, id, credentials, miner, refactoringMessages, refactoringInstances, listener);
         }
 
+        // Without refactorings the summary is based on the diff, computed from the mirror; either way
+        // its patch id lets a cherry-pick or fork of an already summarized commit reuse the response
+        CommitDiff commitDiff = diffExtractor.extractDiff(repoUrl, id, credentials).orElse(null);
+
+        listener.onStage("llm");
+        if (listener == SummaryProgressListener.NONE) {
+            return llm.generateSummary(refactoringMessages.toString(), refactoringInstances, repoUrl, fullUrl, aiToken,
+                    LlmRequestScheduler.Priority.INTERACTIVE, commitDiff);
+        }
         OpenAiService service = new OpenAiService(aiToken);
         if (refactoringMessages.toString().trim().isEmpty()) {
-            return llm.generateSummaryForNoRefactorings(fullUrl, repoUrl, service, aiToken);
+            return llm.streamSummaryForNoRefactorings(fullUrl, repoUrl, service, aiToken, listener, commitDiff);
         } else {
-            return llm.generateSummaryForRefactorings(refactoringMessages.toString(), refactoringInstances, repoUrl, fullUrl, aiToken);
+            return llm.streamSummaryForRefactorings(refactoringMessages.toString(), refactoringInstances, repoUrl, fullUrl, aiToken, listener,
+                    commitDiff);
         }
     }
 
@@ -104,143 +162,61 @@ public class RefactoringController {
 
 
 
-    private void setupGitHubAuthentication(String githubToken, GitHistoryRefactoringMinerImpl miner) {
-        System.out.println("Using GitHub token for authentication");
-        System.setProperty("github.oauth", githubToken);
-
-        try {
-            Class<?> processEnvironmentClass = Class.forName("java.lang.ProcessEnvironment");
-            Field theEnvironmentField = processEnvironmentClass.getDeclaredField("theEnvironment");
-            theEnvironmentField.setAccessible(true);
-            @SuppressWarnings("unchecked")
-            Map<String, String> env = (Map<String, String>) theEnvironmentField.get(null);
-            env.put("GITHUB_OAUTH", githubToken);
-            env.put("GITHUB_TOKEN", githubToken);
-        } catch (Exception e) {
-            System.err.println("Could not set environment variables: " + e.getMessage());
-        }
-
-        try {
-            System.out.println("Attempting to directly set GitHub token in RefactoringMiner");
-            Field githubField = GitHistoryRefactoringMinerImpl.class.getDeclaredField("gitHub");
-            githubField.setAccessible(true);
-            GitHub authorizedGitHub = new GitHubBuilder().withOAuthToken(githubToken).build();
-            githubField.set(miner, authorizedGitHub);
-            System.out.println("Successfully injected authenticated GitHub instance into RefactoringMiner");
-        } catch (Exception e) {
-            System.err.println("Could not directly set GitHub token in RefactoringMiner: " + e.getMessage());
-        }
-    }
-
-    private boolean testGitHubAuthentication(String githubToken) {
+    private GitHistoryRefactoringMinerImpl getAuthenticatedMiner(GitHubCredentials credentials) {
         try {
-            GitHub github = new GitHubBuilder().withOAuthToken(githubToken).build();
-            String username = github.getMyself().getLogin();
-            System.out.println("Successfully authenticated as GitHub user: " + username);
-            return true;
-        } catch (Exception e) {
-            System.err.println("Warning: GitHub API authentication test failed: " + e.getMessage());
-            return false;
+            return gitHubClientPool.getMiner(credentials);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not create GitHub client: " + e.getMessage(), e);
         }
     }
 
-    private boolean analyzeCommitUsingGitHubApi(String repoUrl, String commitId, GitHistoryRefactoringMinerImpl miner,
-                                                StringBuilder refactoringMessages, Map<String, Integer> refactoringInstances,
-                                                CommitRefactoringsRepository commitRefactoringsRepository) {
-        final boolean[] refactoringsFound = {false};
-        try {
-            miner.detectAtCommit(repoUrl, commitId, new RefactoringHandler() {
-                @Override
-                public void handle(String commitId, List<Refactoring> refactorings) {
-                    System.out.println("Found " + refactorings.size() + " refactorings");
-                    if (!refactorings.isEmpty()) {
-                        refactoringsFound[0] = true;
-                    }
-                    int x = 1;
-                    for (Refactoring ref : refactorings) {
-                        System.out.println("Refactoring #" + ref.toString());
-                        refactoringMessages.append(x + ". " + ref.toString() + "\n");
-//                        System.out.println("Refactoring found: " + ref.getRefactoringType());
-                        String refType = ref.getRefactoringType().toString();
-                        refactoringInstances.put(refType, refactoringInstances.getOrDefault(refType, 0) + 1);
-                        x++;
-                    }
-                    CommitRefactorings commitRef = new CommitRefactorings(commitId, refactoringMessages.toString());
-                    commitRefactoringsRepository.save(commitRef);
-                    System.out.println("Saved refactorings for commit " + commitId + " into database (GitHub API method)");
-                }
-                @Override
-                public void handleException(String commitId, Exception e) {
-                    System.err.println("Error detecting refactorings for commit " + commitId);
-                    e.printStackTrace();
-                    refactoringsFound[0] = false;
+    // Large commits are mined on a sample of their files or not at all, so one commit cannot hold a worker for minutes
+    private void analyzeCommit(String repoUrl, String commitId, GitHubCredentials credentials, GitHistoryRefactoringMinerImpl miner,
+                               StringBuilder refactoringMessages, Map<String, Integer> refactoringInstances,
+                               SummaryProgressListener listener) {
+        MiningDecision decision = admissionService.decide(repoUrl, commitId, miner, credentials);
+        if (decision.getStrategy() == MiningDecision.Strategy.FULL) {
+            // The GitHub API and local mirror paths race, the first one finding refactorings wins
+            HedgedMiningService.Result result = hedgedMiningService.mine(repoUrl, commitId, credentials, miner, decision.getTimeoutSeconds());
+            if (result.completed) {
+                recordRefactorings(repoUrl, commitId, result.refactorings, refactoringMessages, refactoringInstances, listener, result.path);
+            } else {
+                // Storing an empty list would make the failure look like a commit without refactorings
+                System.err.println("Mining of commit " + commitId + " failed or timed out, not storing its refactorings");
+            }
+        } else if (decision.getStrategy() == MiningDecision.Strategy.SAMPLED) {
+            listener.onStage("sampled_mining");
+            try (Repository repository = mirrorManager.openWithCommitPair(repoUrl, commitId, credentials)) {
+                Optional<List<Refactoring>> sampled = admissionService.mineSampled(miner, repository, decision);
+                if (sampled.isPresent()) {
+                    recordRefactorings(repoUrl, commitId, sampled.get(), refactoringMessages, refactoringInstances, listener, "sampled mining");
+                } else {
+                    System.err.println("Sampled mining of commit " + commitId + " failed or timed out, not storing its refactorings");
                 }
-            }, 120);
-            return (refactoringMessages.length() > 0 && refactoringsFound[0]);
-        } catch (Exception e) {
-            System.err.println("Error analyzing commit with GitHub API: " + e.getMessage());
-            return false;
+            } catch (Exception e) {
+                System.err.println("Error during sampled analysis: " + e.getMessage());
+                e.printStackTrace();
+            }
+        } else {
+            log.debug("Not mining commit {} ({}), summarizing its diff", commitId, decision.getReason());
         }
     }
 
-    private void analyzeCommitUsingLocalClone(String repoUrl, String commitId, GitHistoryRefactoringMinerImpl miner,
-                                              StringBuilder refactoringMessages, Map<String, Integer> refactoringInstances,
-                                              CommitRefactoringsRepository commitRefactoringsRepository) {
-        try {
-            System.out.println("GitHub API approach failed - falling back to shallow clone approach");
-            Path tempDir = Files.createTempDirectory("refactoring-clone-");
-            File localRepoDir = tempDir.toFile();
-            localRepoDir.deleteOnExit();
-            System.out.println("Cloning repository to: " + localRepoDir.getAbsolutePath());
-
-            Git.cloneRepository().setURI(repoUrl).setDirectory(localRepoDir)
-                    .setCloneAllBranches(false)
-                    .setNoCheckout(false)
-                    .setDepth(1)
-                    .call();
-
-            Git git = Git.open(localRepoDir);
-            git.fetch()
-                    .setRemote("origin")
-                    .setRefSpecs("+refs/heads/*:refs/remotes/origin/*", "+refs/tags/*:refs/tags/*", "+refs/*:refs/*", "+" + commitId + ":" + commitId)
-                    .call();
-
-            Repository repository = new FileRepositoryBuilder()
-                    .setGitDir(new File(localRepoDir, ".git"))
-                    .build();
-
-            System.out.println("Analyzing commit using local clone: " + commitId);
-            refactoringMessages.setLength(0);
-            refactoringInstances.clear();
-
-            miner.detectAtCommit(repository, commitId, new RefactoringHandler() {
-                @Override
-                public void handle(String commitId, List<Refactoring> refactorings) {
-                    System.out.println("Found " + refactorings.size() + " refactorings in local clone");
-                    int x = 1;
-                    for (Refactoring ref : refactorings) {
-                        refactoringMessages.append(x + ". " + ref.toString() + "\n");
-                        System.out.println("Refactoring found: " + ref.getRefactoringType());
-                        String refType = ref.getRefactoringType().toString();
-                        refactoringInstances.put(refType, refactoringInstances.getOrDefault(refType, 0) + 1);
-                        x++;
-                    }
-                    CommitRefactorings commitRef = new CommitRefactorings(commitId, refactoringMessages.toString());
-                    commitRefactoringsRepository.save(commitRef);
-                    System.out.println("Saved refactorings for commit " + commitId + " into database (Local Clone method)");
-                }
-                @Override
-                public void handleException(String commitId, Exception e) {
-                    System.err.println("Error detecting refactorings for commit " + commitId + " in local clone");
-                    e.printStackTrace();
-                }
-            }, 120);
-            repository.close();
-            System.out.println("Shallow clone analysis completed successfully");
-        } catch (Exception e) {
-            System.err.println("Error during local clone analysis: " + e.getMessage());
-            e.printStackTrace();
+    private void recordRefactorings(String repoUrl, String commitId, List<Refactoring> refactorings, StringBuilder refactoringMessages,
+                                    Map<String, Integer> refactoringInstances, SummaryProgressListener listener, String method) {
+        System.out.println("Found " + refactorings.size() + " refactorings in " + commitId);
+        int x = 1;
+        for (Refactoring ref : refactorings) {
+            refactoringMessages.append(x + ". " + ref.toString() + "\n");
+            String refType = ref.getRefactoringType().toString();
+            refactoringInstances.put(refType, refactoringInstances.getOrDefault(refType, 0) + 1);
+            x++;
         }
+        if (!refactorings.isEmpty()) {
+            listener.onRefactorings(refactoringMessages.toString(), refactoringInstances);
+        }
+        commitRefactoringService.saveRefactorings(repoUrl, commitId, refactorings);
+        System.out.println("Saved refactorings for commit " + commitId + " into database (" + method + ")");
     }
 
 
@@ -263,6 +239,7 @@ public class RefactoringController {
             Optional<String> commitmsg = cService.getCommitfromDB(url, id);
             if (commitmsg.isPresent()) {
                 System.out.println("Retrieved cached summary for commit: " + id);
+                prefetchService.schedulePrefetch(url, id, uuid);
                 return new Greeting(counter.incrementAndGet(), commitmsg.get());
             }
         }
@@ -270,9 +247,7 @@ public class RefactoringController {
 
         // Generate new summary
         try {
-            String refMessage = returnrefs(url, id, uuid);
-            // Cache the result
-            cService.saveCommit(id, url, refMessage, og);
+            String refMessage = generateSummary(url, id, og, uuid);
             System.out.println("Generated new summary for commit: " + id);
             return new Greeting(counter.incrementAndGet(), refMessage);
         } catch (Exception e) {
@@ -280,9 +255,113 @@ public class RefactoringController {
             e.printStackTrace();
             return new Greeting(counter.incrementAndGet(), 
                 "Error analyzing commit: " + e.getMessage());
+        } finally {
+            // Summarize the neighbouring commits in the background, the user usually opens them next.
+            // Scheduled only now, so the prefetch does not compete with this request for the mirror
+            prefetchService.schedulePrefetch(url, id, uuid);
         }
     }
 
+    /**
+     * Asynchronous variant of /greeting: answers 200 with the cached summary on a hit,
+     * otherwise starts a background job and answers 202 with its id. Poll
+     * /api/summary/status?jobId= and fetch /api/summary/result?jobId= when it completes.
+     */
+    @CrossOrigin(origins = "*")
+    @GetMapping("/greeting/async")
+    public ResponseEntity<?> greetingAsync(
+            @RequestParam String url,
+            @RequestParam String id,
+            @RequestParam String og,
+            @RequestParam(required = false) String uuid)
+    {
+        if (cachingEnabled) {
+            Optional<String> commitmsg = cService.getCommitfromDB(url, id);
+            if (commitmsg.isPresent()) {
+                System.out.println("Retrieved cached summary for commit: " + id);
+                return ResponseEntity.ok(new Greeting(counter.incrementAndGet(), commitmsg.get()));
+            }
+        }
+
+        try {
+            String commitKey = new ReactoringHelper().canonicalCommitKey(url, id);
+            SummaryJob job = summaryJobService.submit(commitKey, url, id, () -> generateSummary(url, id, og, uuid));
+            Map<String, Object> response = new HashMap<>();
+            response.put("jobId", job.getJobId());
+            response.put("status", job.getStatus());
+            response.put("statusUrl", "/api/summary/status?jobId=" + job.getJobId());
+            response.put("resultUrl", "/api/summary/result?jobId=" + job.getJobId());
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
+        } catch (TaskRejectedException e) {
+            System.err.println("Summary executor is saturated: " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(Map.of("error", "Too many summaries in progress, please retry shortly"));
+        }
+    }
+
+    /**
+     * Streaming variant of /greeting using Server-Sent Events. Emits "stage" events as the
+     * pipeline progresses, a "refactorings" event as soon as they are mined, "token" events
+     * while the summary is generated, and finally a "summary" event carrying the Greeting
+     * (or an "error" event). A cached summary is sent as the "summary" event straight away.
+     */
+    @CrossOrigin(origins = "*")
+    @GetMapping(value = "/greeting/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter greetingStream(
+            @RequestParam String url,
+            @RequestParam String id,
+            @RequestParam String og,
+            @RequestParam(required = false) String uuid)
+    {
+        SseEmitter emitter = new SseEmitter(streamTimeoutSeconds * 1000L);
+        SseSummaryProgressListener listener = new SseSummaryProgressListener(emitter);
+        emitter.onCompletion(listener::markClosed);
+        emitter.onTimeout(listener::markClosed);
+        emitter.onError(e -> listener.markClosed());
+
+        if (cachingEnabled) {
+            Optional<String> commitmsg = cService.getCommitfromDB(url, id);
+            if (commitmsg.isPresent()) {
+                System.out.println("Retrieved cached summary for commit: " + id);
+                listener.complete(new Greeting(counter.incrementAndGet(), commitmsg.get()));
+                return emitter;
+            }
+        }
+
+        try {
+            summaryExecutor.execute(() -> {
+                try {
+                    String refMessage = generateSummary(url, id, og, uuid, listener);
+                    System.out.println("Generated new summary for commit: " + id);
+                    listener.complete(new Greeting(counter.incrementAndGet(), refMessage));
+                } catch (Exception e) {
+                    System.err.println("Error processing commit: " + e.getMessage());
+                    listener.fail("Error analyzing commit: " + e.getMessage());
+                }
+            });
+        } catch (TaskRejectedException e) {
+            System.err.println("Summary executor is saturated: " + e.getMessage());
+            listener.fail("Too many summaries in progress, please retry shortly");
+        }
+        return emitter;
+    }
+
+    private String generateSummary(String url, String id, String og, String uuid) {
+        return generateSummary(url, id, og, uuid, SummaryProgressListener.NONE);
+    }
+
+    // Generates and caches a summary, sharing one computation between concurrent requests for the same commit.
+    // Requests joining a computation already in flight only receive its final result, not its progress.
+    private String generateSummary(String url, String id, String og, String uuid, SummaryProgressListener listener) {
+        String commitKey = new ReactoringHelper().canonicalCommitKey(url, id);
+        return coalescer.execute(commitKey, () -> {
+            String message = returnrefs(url, id, uuid, listener);
+            // Cache the result before releasing waiting requests
+            cService.saveCommit(id, url, message, og);
+            return message;
+        });
+    }
+
     @CrossOrigin(origins = "*")
     @GetMapping("/api/refactorings")
     public ResponseEntity<String> getRefactorings(@RequestParam String url, @RequestParam String id, @RequestParam(required = false) String uuid) {
@@ -291,30 +370,25 @@ public class RefactoringController {
             String cleanId = new ReactoringHelper().cleanCommitId(id);
             
             // First check if refactorings are already in the database
-            Optional<CommitRefactorings> refactoringsOpt = commitRefactoringsRepository.findByCommitId(cleanId);
+            Optional<String> refactoringsOpt = commitRefactoringService.findRefactoringMessages(url, cleanId);
             
             if (refactoringsOpt.isPresent()) {
                 Map<String, String> response = new HashMap<>();
-                response.put("refactorings", refactoringsOpt.get().getRefactorings());
+                response.put("refactorings", refactoringsOpt.get());
                 return ResponseEntity.ok(new Gson().toJson(response));
             }
             
             // If not in database, fetch them
             String repoUrl = new ReactoringHelper().getRepoUrl(url);
             
-            GitHistoryRefactoringMinerImpl miner = new GitHistoryRefactoringMinerImpl();
             ApiKey apiKey = retrieveApiKey(uuid);
-            String githubToken = apiKey.getGithubApiKey();
-            setupGitHubAuthentication(githubToken, miner);
+            GitHubCredentials credentials = new GitHubCredentials(apiKey.getGithubApiKey());
+            GitHistoryRefactoringMinerImpl miner = getAuthenticatedMiner(credentials);
             
             StringBuilder refactoringMessages = new StringBuilder();
             Map<String, Integer> refactoringInstances = new HashMap<>();
             
-            boolean apiSuccess = analyzeCommitUsingGitHubApi(repoUrl, cleanId, miner, refactoringMessages, refactoringInstances, commitRefactoringsRepository);
-            
-            if (!apiSuccess) {
-                analyzeCommitUsingLocalClone(repoUrl, cleanId, miner, refactoringMessages, refactoringInstances, commitRefactoringsRepository);
-            }
+            analyzeCommit(repoUrl, cleanId, credentials, miner, refactoringMessages, refactoringInstances, SummaryProgressListener.NONE);
             
             Map<String, String> response = new HashMap<>();
             response.put("refactorings", refactoringMessages.toString());
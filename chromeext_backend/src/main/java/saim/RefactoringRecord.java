@@ -0,0 +1,97 @@
+package saim;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+
+/**
+ * A single refactoring detected by RefactoringMiner in a commit
+ */
+@Entity
+@Table(name = "refactoring_records",
+       uniqueConstraints = @UniqueConstraint(name = "uk_refactoring_records_repo_commit_position", columnNames = {"repo_url", "commit_id", "position"}),
+       indexes = {
+           @Index(name = "idx_refactoring_records_commit_id", columnList = "commit_id"),
+           @Index(name = "idx_refactoring_records_type", columnList = "refactoring_type")
+       })
+public class RefactoringRecord {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "repo_url", nullable = false)
+    private String repoUrl;
+
+    @Column(name = "commit_id", nullable = false, length = 64)
+    private String commitId;
+
+    // 1-based order in which the miner reported the refactoring
+    @Column(name = "position", nullable = false)
+    private int position;
+
+    @Column(name = "refactoring_type", nullable = false, length = 100)
+    private String refactoringType;
+
+    @Column(name = "description", columnDefinition = "TEXT")
+    private String description;
+
+    public RefactoringRecord() {}
+
+    public RefactoringRecord(String repoUrl, String commitId, int position, String refactoringType, String description) {
+        this.repoUrl = repoUrl;
+        this.commitId = commitId;
+        this.position = position;
+        this.refactoringType = refactoringType;
+        this.description = description;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getRepoUrl() {
+        return repoUrl;
+    }
+
+    public void setRepoUrl(String repoUrl) {
+        this.repoUrl = repoUrl;
+    }
+
+    public String getCommitId() {
+        return commitId;
+    }
+
+    public void setCommitId(String commitId) {
+        this.commitId = commitId;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public void setPosition(int position) {
+        this.position = position;
+    }
+
+    public String getRefactoringType() {
+        return refactoringType;
+    }
+
+    public void setRefactoringType(String refactoringType) {
+        this.refactoringType = refactoringType;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public void setDescription(String description) {
+        this.description = description;
+    }
+}
@@ -0,0 +1,25 @@
+package saim;
+
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+public interface RefactoringRecordRepo extends JpaRepository<RefactoringRecord, Long> {
+
+    List<RefactoringRecord> findByRepoUrlAndCommitIdOrderByPositionAsc(String repoUrl, String commitId);
+
+    /**
+     * Counts refactorings per type for a commit
+     *
+     * @return Rows of [refactoringType, count]
+     */
+    @Query("SELECT r.refactoringType, COUNT(r) FROM RefactoringRecord r WHERE r.repoUrl = :repoUrl AND r.commitId = :commitId GROUP BY r.refactoringType")
+    List<Object[]> countByType(@Param("repoUrl") String repoUrl, @Param("commitId") String commitId);
+
+    @Modifying
+    @Query("DELETE FROM RefactoringRecord r WHERE r.repoUrl = :repoUrl AND r.commitId = :commitId")
+    int deleteByRepoUrlAndCommitId(@Param("repoUrl") String repoUrl, @Param("commitId") String commitId);
+}
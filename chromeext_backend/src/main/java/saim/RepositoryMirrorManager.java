@@ -0,0 +1,672 @@
+package saim;
+
+import org.eclipse.jgit.api.FetchCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.dircache.DirCacheCheckout;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.transport.FetchResult;
+import org.eclipse.jgit.transport.TagOpt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Keeps one bare mirror per repository on local disk and updates it with incremental fetches.
+ * Both the refactoring fallback and the Understand analysis read from these mirrors instead
+ * of cloning the repository for every request. When the mirrors outgrow their size limit on
+ * disk, mirrors that have been idle for a while are deleted, least recently used first; they
+ * are recreated by the next request for the repository.
+ */
+@Component
+public class RepositoryMirrorManager {
+
+    private static final Logger log = LoggerFactory.getLogger(RepositoryMirrorManager.class);
+
+    private static final String ORIGIN = "origin";
+    private static final String BRANCHES_REFSPEC = "+refs/heads/*:refs/heads/*";
+    // Commits fetched by SHA are pinned under this prefix so they are not garbage collected
+    private static final String PINNED_COMMITS_REF_PREFIX = "refs/pinned-commits/";
+    // Touched whenever a mirror is used; its age tells which mirrors to evict first
+    private static final String LAST_USED_FILE = "last_used";
+
+    @Value("${mirrors.directory.name:mirrors}")
+    private String mirrorsDirName;
+
+    // Minimum time between two branch fetches of the same mirror
+    @Value("${mirrors.refresh.interval.seconds:60}")
+    private long refreshIntervalSeconds;
+
+    // Limit for all mirrors on disk; least recently used mirrors are deleted beyond it
+    @Value("${mirrors.max-bytes:21474836480}")
+    private long maxBytes;
+
+    // Mirrors used more recently than this are never evicted, so open repositories stay valid
+    @Value("${mirrors.eviction.min-idle-minutes:60}")
+    private long minIdleMinutes;
+
+    // Minimum time between two checks of the size of the mirrors
+    @Value("${mirrors.eviction.interval-minutes:10}")
+    private long evictionIntervalMinutes;
+
+    // How long a successful access check of one tenant for one repository is trusted
+    @Value("${mirrors.access-check.ttl-seconds:600}")
+    private long accessCheckTtlSeconds;
+
+    @Value("${mirrors.access-check.timeout-seconds:15}")
+    private int accessCheckTimeoutSeconds;
+
+    // Guards creating a mirror and fetching single commits into it
+    private final Map<String, ReentrantLock> repoLocks = new ConcurrentHashMap<>();
+    // Guards fetching the branches of a mirror
+    private final Map<String, ReentrantLock> branchLocks = new ConcurrentHashMap<>();
+    private final Map<String, Long> lastFetchTimes = new ConcurrentHashMap<>();
+    // Mirror key and credentials fingerprint to the time the access check expires
+    private final Map<String, Long> verifiedAccess = new ConcurrentHashMap<>();
+    private long lastEvictionCheck;
+
+    // Public API Methods
+
+    /**
+     * Makes sure the mirror contains the given commit and its first parent, which is all
+     * RefactoringMiner needs. Only the commit itself is requested from the remote (no tags,
+     * no other refs); on a mirror without complete history it is fetched with depth 2 so the
+     * download depends on the size of the commit, not of the repository.
+     *
+     * @param repoUrl The URL of the repository.
+     * @param commitId The full SHA of the commit to analyze.
+     * @param credentials The credentials of the requesting tenant; they must be able to read the
+     *                    repository, and are used only for this fetch.
+     * @return An open repository backed by the mirror; the caller must close it.
+     * @throws IOException If the credentials cannot read the repository (see checkAccess).
+     */
+    public Repository openWithCommitPair(String repoUrl, String commitId, GitHubCredentials credentials) throws IOException, GitAPIException {
+        String key = mirrorKey(repoUrl);
+        checkAccess(repoUrl, key, credentials);
+        // Commits already in the mirror are served without waiting for fetches of other requests
+        File existing = getMirrorDirectory(repoUrl);
+        if (new File(existing, "objects").isDirectory() && hasCommitPair(existing, commitId)) {
+            markUsed(existing);
+            return openRepository(existing);
+        }
+        ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            File mirrorDir = ensureMirrorExists(repoUrl);
+            markUsed(mirrorDir);
+            if (!hasCommitPair(mirrorDir, commitId)) {
+                fetchCommits(mirrorDir, key, List.of(commitId), credentials);
+            }
+            if (!hasCommitPair(mirrorDir, commitId)) {
+                throw new IOException("Commit " + commitId + " or its parent is not available in " + repoUrl);
+            }
+            return openRepository(mirrorDir);
+        } finally {
+            lock.unlock();
+            evictIdleMirrors();
+        }
+    }
+
+    /**
+     * Makes sure the mirror contains several commits and their first parents, for mining a
+     * batch of commits against one repository. The branches are fetched first (at most once
+     * per refresh interval) so history is available, then every commit still missing, e.g.
+     * from an unmerged pull request, is requested in a single fetch.
+     *
+     * @param repoUrl The URL of the repository.
+     * @param commitIds The commits (full SHAs, or branch names already on the remote) to make available.
+     * @param credentials The credentials of the requesting tenant; they must be able to read the
+     *                    repository, and are used only for these fetches.
+     * @return An open repository backed by the mirror; the caller must close it.
+     * @throws IOException If the credentials cannot read the repository (see checkAccess).
+     */
+    public Repository openWithCommits(String repoUrl, Collection<String> commitIds, GitHubCredentials credentials) throws IOException, GitAPIException {
+        String key = mirrorKey(repoUrl);
+        checkAccess(repoUrl, key, credentials);
+        File mirrorDir = createMirror(repoUrl, key);
+        refreshBranchesIfDue(mirrorDir, key, credentials);
+
+        ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            List<String> missing = new ArrayList<>();
+            for (String commitId : commitIds) {
+                if (!hasCommitPair(mirrorDir, commitId)) {
+                    missing.add(commitId);
+                }
+            }
+            if (!missing.isEmpty()) {
+                fetchCommits(mirrorDir, key, missing, credentials);
+                for (String commitId : missing) {
+                    if (!hasCommitPair(mirrorDir, commitId)) {
+                        throw new IOException("Commit " + commitId + " or its parent is not available in " + repoUrl);
+                    }
+                }
+            }
+            return openRepository(mirrorDir);
+        } finally {
+            lock.unlock();
+            evictIdleMirrors();
+        }
+    }
+
+    /**
+     * Brings the mirror up to date with the remote branches, at most once per refresh interval.
+     *
+     * @param repoUrl The URL of the repository.
+     * @return The SHA the mirror's HEAD points to after the update.
+     */
+    public ObjectId updateMirror(String repoUrl) throws IOException, GitAPIException {
+        return updateMirror(repoUrl, GitHubCredentials.anonymous());
+    }
+
+    /**
+     * Brings the mirror up to date with the remote branches, at most once per refresh interval.
+     *
+     * @param repoUrl The URL of the repository.
+     * @param credentials The credentials of the requesting tenant; they must be able to read the
+     *                    repository, and are used only for this fetch.
+     * @return The SHA the mirror's HEAD points to after the update.
+     */
+    public ObjectId updateMirror(String repoUrl, GitHubCredentials credentials) throws IOException, GitAPIException {
+        String key = mirrorKey(repoUrl);
+        checkAccess(repoUrl, key, credentials);
+        File mirrorDir = createMirror(repoUrl, key);
+        try {
+            refreshBranchesIfDue(mirrorDir, key, credentials);
+            try (Repository repository = openRepository(mirrorDir)) {
+                ObjectId headId = repository.resolve(Constants.HEAD);
+                if (headId == null) {
+                    throw new IOException("Mirror has no HEAD: " + mirrorDir.getAbsolutePath());
+                }
+                return headId;
+            }
+        } finally {
+            evictIdleMirrors();
+        }
+    }
+
+    /**
+     * Asks the remote which commit its HEAD points to without fetching anything, like
+     * git ls-remote; this works whether or not a mirror of the repository exists.
+     *
+     * @param repoUrl The URL of the repository.
+     * @param credentials The credentials of the requesting tenant. A successful query also
+     *                    counts as their access check (see checkAccess).
+     * @return The SHA of the remote HEAD, or empty if the remote could not be queried.
+     */
+    public Optional<ObjectId> lsRemoteHead(String repoUrl, GitHubCredentials credentials) {
+        try {
+            Ref head = lsRemote(repoUrl, credentials, false).get(Constants.HEAD);
+            rememberAccess(mirrorKey(repoUrl), credentials);
+            if (head == null || head.getObjectId() == null) {
+                log.info("Remote of {} did not advertise a HEAD", repoUrl);
+                return Optional.empty();
+            }
+            return Optional.of(head.getObjectId());
+        } catch (GitAPIException | RuntimeException e) {
+            log.warn("Could not list remote HEAD of {}: {}", repoUrl, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Creates a working copy that shares the mirror's object store (like git clone --shared)
+     * and checks out the given commit. Nothing is copied or downloaded, so deleting the
+     * working copy afterwards only removes the checked out files.
+     *
+     * @param repoUrl The URL of the repository, whose mirror must already exist.
+     * @param commitId The commit to check out.
+     * @param targetDir The directory for the working copy; must not exist yet.
+     * @return The opened working copy; the caller must close it.
+     */
+    public Git createSharedWorkingCopy(String repoUrl, ObjectId commitId, File targetDir) throws IOException, GitAPIException {
+        File mirrorDir = getMirrorDirectory(repoUrl);
+        if (!mirrorDir.exists()) {
+            throw new IOException("No mirror exists for " + repoUrl);
+        }
+        markUsed(mirrorDir);
+
+        log.info("Creating shared working copy of {} at {}", repoUrl, targetDir.getAbsolutePath());
+        Git.init().setDirectory(targetDir).call().close();
+
+        File gitDir = new File(targetDir, Constants.DOT_GIT);
+        Path alternates = gitDir.toPath().resolve("objects").resolve("info").resolve("alternates");
+        Files.createDirectories(alternates.getParent());
+        Files.writeString(alternates, new File(mirrorDir, "objects").getAbsolutePath() + "\n", StandardCharsets.UTF_8);
+
+        // Reopen so the object database picks up the alternate
+        Git git = Git.open(targetDir);
+        try {
+            checkoutDetached(git.getRepository(), commitId);
+            return git;
+        } catch (IOException e) {
+            git.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Expands an abbreviated commit SHA using the objects already in the repository's mirror.
+     * Nothing is fetched.
+     *
+     * @param repoUrl The URL of the repository.
+     * @param abbreviatedId The abbreviated SHA.
+     * @return The full SHA, or empty if there is no mirror, the commit is not in it, or the
+     *         abbreviation matches more than one commit.
+     */
+    public Optional<String> resolveCommitId(String repoUrl, String abbreviatedId) {
+        File mirrorDir = getMirrorDirectory(repoUrl);
+        if (!AbbreviatedObjectId.isId(abbreviatedId) || !new File(mirrorDir, "objects").isDirectory()) {
+            return Optional.empty();
+        }
+        try (Repository repository = openRepository(mirrorDir); ObjectReader reader = repository.newObjectReader()) {
+            List<ObjectId> commits = new ArrayList<>();
+            for (ObjectId candidate : reader.resolve(AbbreviatedObjectId.fromString(abbreviatedId))) {
+                if (reader.open(candidate).getType() == Constants.OBJ_COMMIT) {
+                    commits.add(candidate);
+                }
+            }
+            return commits.size() == 1 ? Optional.of(commits.get(0).getName()) : Optional.empty();
+        } catch (IOException e) {
+            log.warn("Could not resolve {} in mirror of {}: {}", abbreviatedId, repoUrl, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @param repoUrl The URL of the repository.
+     * @return The directory holding the bare mirror for the repository (it may not exist yet).
+     */
+    public File getMirrorDirectory(String repoUrl) {
+        return new File(getMirrorsBaseDir(), mirrorKey(repoUrl) + ".git");
+    }
+
+    // Private Helper Methods
+
+    private File createMirror(String repoUrl, String key) throws IOException, GitAPIException {
+        ReentrantLock lock = lockFor(key);
+        lock.lock();
+        try {
+            File mirrorDir = ensureMirrorExists(repoUrl);
+            markUsed(mirrorDir);
+            return mirrorDir;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Fetches the branches unless that was done within the refresh interval. Branch fetches
+     * download whole histories and can take long, so they are serialized by their own lock
+     * instead of the mirror lock. Incremental commit fetches of interactive requests only write
+     * refs/pinned-commits/ and new packs and do not wait for them; depth 2 fetches rewrite the
+     * shallow file like an unshallowing branch fetch does, so they take the branch lock too
+     * (see fetchCommits).
+     */
+    private void refreshBranchesIfDue(File mirrorDir, String key, GitHubCredentials credentials) throws IOException, GitAPIException {
+        ReentrantLock lock = branchLockFor(key);
+        lock.lock();
+        try {
+            Long lastFetch = lastFetchTimes.get(key);
+            if (lastFetch == null || System.currentTimeMillis() - lastFetch > refreshIntervalSeconds * 1000) {
+                fetchBranches(mirrorDir, key, credentials);
+            } else {
+                log.info("Mirror {} fetched {}ms ago, skipping fetch", key, System.currentTimeMillis() - lastFetch);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private File ensureMirrorExists(String repoUrl) throws IOException, GitAPIException {
+        File mirrorDir = getMirrorDirectory(repoUrl);
+        if (new File(mirrorDir, "objects").isDirectory()) {
+            return mirrorDir;
+        }
+
+        File baseDir = getMirrorsBaseDir();
+        if (!baseDir.exists() && !baseDir.mkdirs()) {
+            throw new IOException("Failed to create mirrors directory: " + baseDir.getAbsolutePath());
+        }
+
+        // Start empty; callers decide whether to fetch single commits or the branches
+        log.info("Creating bare mirror of {} at {}", repoUrl, mirrorDir.getAbsolutePath());
+        try (Git git = Git.init().setBare(true).setDirectory(mirrorDir).call()) {
+            StoredConfig config = git.getRepository().getConfig();
+            config.setString("remote", ORIGIN, "url", new ReactoringHelper().getRepoUrl(repoUrl));
+            config.setString("remote", ORIGIN, "fetch", BRANCHES_REFSPEC);
+            config.save();
+            return mirrorDir;
+        } catch (GitAPIException | IOException | RuntimeException e) {
+            log.error("Failed to create mirror for {}: {}", repoUrl, e.getMessage());
+            deleteQuietly(mirrorDir.toPath());
+            throw e;
+        }
+    }
+
+    private void fetchBranches(File mirrorDir, String key, GitHubCredentials credentials) throws IOException, GitAPIException {
+        try (Git git = Git.open(mirrorDir)) {
+            // Earlier single-commit fetches may have left shallow boundaries; the branches are
+            // fetched with their complete history so walks over the mirror see every parent
+            boolean shallow = !git.getRepository().getObjectDatabase().getShallowCommits().isEmpty();
+            FetchResult result = git.fetch()
+                    .setRemote(ORIGIN)
+                    .setCredentialsProvider(credentials.toCredentialsProvider())
+                    .setRefSpecs(BRANCHES_REFSPEC)
+                    .setRemoveDeletedRefs(true)
+                    .setUnshallow(shallow)
+                    .call();
+            updateHead(git.getRepository(), result);
+        }
+        lastFetchTimes.put(key, System.currentTimeMillis());
+        log.info("Fetched latest branches into mirror {}", key);
+    }
+
+    // Called with the mirror lock held
+    private void fetchCommits(File mirrorDir, String key, List<String> commitIds, GitHubCredentials credentials) throws IOException, GitAPIException {
+        try (Git git = Git.open(mirrorDir)) {
+            // With complete local history the server negotiates a small pack anyway, and a shallow
+            // fetch would only add shallow boundaries. Otherwise the fetch must be deepened
+            // explicitly: a commit that is itself a shallow boundary counts as present, so a plain
+            // fetch would never bring in its parent.
+            Repository repository = git.getRepository();
+            if (isComplete(repository)) {
+                fetchPinnedCommits(git, commitIds, credentials, true);
+                return;
+            }
+            // A depth 2 fetch rewrites the shallow file, which a running branch fetch is
+            // unshallowing; wait for it, after which the mirror may no longer need the depth
+            ReentrantLock branchLock = branchLockFor(key);
+            branchLock.lock();
+            try {
+                fetchPinnedCommits(git, commitIds, credentials, isComplete(repository));
+            } finally {
+                branchLock.unlock();
+            }
+        }
+    }
+
+    private void fetchPinnedCommits(Git git, List<String> commitIds, GitHubCredentials credentials, boolean complete) throws GitAPIException {
+        log.info("Fetching commits {} and their parents into mirror ({})", commitIds, complete ? "incremental" : "depth 2");
+
+        List<String> refSpecs = new ArrayList<>();
+        for (String commitId : commitIds) {
+            refSpecs.add("+" + commitId + ":" + PINNED_COMMITS_REF_PREFIX + commitId);
+        }
+        FetchCommand fetch = git.fetch()
+                .setRemote(ORIGIN)
+                .setCredentialsProvider(credentials.toCredentialsProvider())
+                .setRefSpecs(refSpecs.toArray(new String[0]))
+                .setTagOpt(TagOpt.NO_TAGS);
+        if (!complete) {
+            fetch.setDepth(2);
+        }
+        fetch.call();
+    }
+
+    private boolean isComplete(Repository repository) throws IOException {
+        return !repository.getRefDatabase().getRefsByPrefix(Constants.R_HEADS).isEmpty()
+                && repository.getObjectDatabase().getShallowCommits().isEmpty();
+    }
+
+    private void updateHead(Repository repository, FetchResult result) throws IOException {
+        Ref advertisedHead = result.getAdvertisedRef(Constants.HEAD);
+        if (advertisedHead == null || advertisedHead.getObjectId() == null) {
+            return;
+        }
+        String target = null;
+        if (advertisedHead.isSymbolic()) {
+            target = advertisedHead.getTarget().getName();
+        } else {
+            for (Ref ref : result.getAdvertisedRefs()) {
+                if (ref.getName().startsWith(Constants.R_HEADS) && advertisedHead.getObjectId().equals(ref.getObjectId())) {
+                    target = ref.getName();
+                    if (target.endsWith("/main") || target.endsWith("/master")) {
+                        break;
+                    }
+                }
+            }
+        }
+        if (target != null && repository.exactRef(target) != null) {
+            repository.updateRef(Constants.HEAD).link(target);
+        }
+    }
+
+    private boolean hasCommitPair(File mirrorDir, String commitId) throws IOException {
+        try (Repository repository = openRepository(mirrorDir); RevWalk revWalk = new RevWalk(repository)) {
+            ObjectId id = repository.resolve(commitId);
+            if (id == null || !repository.getObjectDatabase().has(id)) {
+                return false;
+            }
+            // A shallow boundary looks like a root commit, but its parent was never fetched
+            if (repository.getObjectDatabase().getShallowCommits().contains(id)) {
+                return false;
+            }
+            RevCommit commit = revWalk.parseCommit(id);
+            if (!repository.getObjectDatabase().has(commit.getTree())) {
+                return false;
+            }
+            if (commit.getParentCount() == 0) {
+                return true;
+            }
+            ObjectId parentId = commit.getParent(0).getId();
+            if (!repository.getObjectDatabase().has(parentId)) {
+                return false;
+            }
+            return repository.getObjectDatabase().has(revWalk.parseCommit(parentId).getTree());
+        } catch (MissingObjectException e) {
+            return false;
+        }
+    }
+
+    private Repository openRepository(File mirrorDir) throws IOException {
+        return new FileRepositoryBuilder()
+                .setGitDir(mirrorDir)
+                .setMustExist(true)
+                .build();
+    }
+
+    private void checkoutDetached(Repository repository, ObjectId commitId) throws IOException {
+        try (RevWalk revWalk = new RevWalk(repository)) {
+            RevCommit commit = revWalk.parseCommit(commitId);
+            DirCacheCheckout checkout = new DirCacheCheckout(repository, repository.lockDirCache(), commit.getTree());
+            checkout.setFailOnConflict(true);
+            checkout.checkout();
+
+            RefUpdate headUpdate = repository.updateRef(Constants.HEAD, true);
+            headUpdate.setNewObjectId(commit);
+            headUpdate.forceUpdate();
+        }
+    }
+
+    /**
+     * Mirrors are shared by all tenants and keyed by repository only, so a private repository
+     * fetched with one tenant's token must not be served to another tenant. Before a mirror is
+     * used, the remote is asked (like git ls-remote) whether the tenant's credentials can read
+     * the repository; successful checks are remembered for a while. Failing checks are not
+     * remembered, and the mirror is not served.
+     */
+    private void checkAccess(String repoUrl, String key, GitHubCredentials credentials) throws IOException {
+        String accessKey = key + "|" + fingerprint(credentials);
+        long now = System.currentTimeMillis();
+        Long verifiedUntil = verifiedAccess.get(accessKey);
+        if (verifiedUntil != null && verifiedUntil > now) {
+            return;
+        }
+        try {
+            lsRemote(repoUrl, credentials, true);
+        } catch (GitAPIException | RuntimeException e) {
+            throw new IOException("Cannot access " + repoUrl + " with " + credentials + ": " + e.getMessage(), e);
+        }
+        rememberAccess(key, credentials);
+    }
+
+    private void rememberAccess(String key, GitHubCredentials credentials) {
+        long now = System.currentTimeMillis();
+        verifiedAccess.values().removeIf(until -> until <= now);
+        verifiedAccess.put(key + "|" + fingerprint(credentials), now + accessCheckTtlSeconds * 1000);
+    }
+
+    // Lists the remote's refs with the tenant's credentials, giving up after the access check timeout
+    private Map<String, Ref> lsRemote(String repoUrl, GitHubCredentials credentials, boolean headsOnly) throws GitAPIException {
+        return Git.lsRemoteRepository()
+                .setRemote(new ReactoringHelper().getRepoUrl(repoUrl))
+                .setCredentialsProvider(credentials.toCredentialsProvider())
+                .setTimeout(accessCheckTimeoutSeconds)
+                .setHeads(headsOnly)
+                .callAsMap();
+    }
+
+    // Identifies credentials in memory without keeping the token itself as a map key
+    private String fingerprint(GitHubCredentials credentials) {
+        if (credentials.isAnonymous()) {
+            return "anonymous";
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(credentials.getToken().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private void markUsed(File mirrorDir) {
+        File marker = new File(mirrorDir, LAST_USED_FILE);
+        try {
+            if (!marker.exists()) {
+                Files.createFile(marker.toPath());
+            }
+            marker.setLastModified(System.currentTimeMillis());
+        } catch (IOException e) {
+            log.warn("Could not mark mirror {} as used: {}", mirrorDir.getName(), e.getMessage());
+        }
+    }
+
+    // Deletes least recently used mirrors while all mirrors together exceed the size limit
+    private void evictIdleMirrors() {
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (now - lastEvictionCheck < evictionIntervalMinutes * 60_000L) {
+                return;
+            }
+            lastEvictionCheck = now;
+        }
+
+        File[] mirrors = getMirrorsBaseDir().listFiles(file -> file.isDirectory() && file.getName().endsWith(".git"));
+        if (mirrors == null) {
+            return;
+        }
+        long total = 0;
+        Map<File, Long> sizes = new HashMap<>();
+        for (File mirror : mirrors) {
+            long size = directorySize(mirror.toPath());
+            sizes.put(mirror, size);
+            total += size;
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+
+        long idleCutoff = System.currentTimeMillis() - minIdleMinutes * 60_000L;
+        List<File> byLastUse = new ArrayList<>(sizes.keySet());
+        byLastUse.sort(Comparator.comparingLong(mirror -> new File(mirror, LAST_USED_FILE).lastModified()));
+        for (File mirror : byLastUse) {
+            if (total <= maxBytes || new File(mirror, LAST_USED_FILE).lastModified() > idleCutoff) {
+                break;
+            }
+            String key = mirror.getName().substring(0, mirror.getName().length() - ".git".length());
+            ReentrantLock lock = lockFor(key);
+            if (!lock.tryLock()) {
+                continue;
+            }
+            ReentrantLock branchLock = branchLockFor(key);
+            if (!branchLock.tryLock()) {
+                lock.unlock();
+                continue;
+            }
+            try {
+                log.info("Evicting mirror {} ({} bytes)", key, sizes.get(mirror));
+                deleteQuietly(mirror.toPath());
+                lastFetchTimes.remove(key);
+                total -= sizes.get(mirror);
+            } finally {
+                branchLock.unlock();
+                lock.unlock();
+            }
+        }
+    }
+
+    private long directorySize(Path path) {
+        try (Stream<Path> files = Files.walk(path)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private ReentrantLock lockFor(String key) {
+        return repoLocks.computeIfAbsent(key, k -> new ReentrantLock());
+    }
+
+    // Lock order: the mirror lock before the branch lock, never the other way round
+    private ReentrantLock branchLockFor(String key) {
+        return branchLocks.computeIfAbsent(key, k -> new ReentrantLock());
+    }
+
+    private String mirrorKey(String repoUrl) {
+        return new ReactoringHelper().canonicalRepoUrl(repoUrl)
+                .replaceAll("^https?://", "")
+                .replaceAll("[^a-zA-Z0-9.-]", "_");
+    }
+
+    private File getMirrorsBaseDir() {
+        File configured = new File(mirrorsDirName);
+        if (configured.isAbsolute()) {
+            return configured;
+        }
+        return new File(System.getProperty("user.dir"), mirrorsDirName);
+    }
+
+    private void deleteQuietly(Path path) {
+        if (!Files.exists(path)) return;
+        try (Stream<Path> paths = Files.walk(path)) {
+            paths.sorted(Comparator.reverseOrder())
+                    .map(Path::toFile)
+                    .forEach(File::delete);
+        } catch (IOException e) {
+            log.warn("Could not delete {}: {}", path, e.getMessage());
+        }
+    }
+}
@@ -1,11 +1,11 @@
 package saim;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.context.annotation.Bean;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
-import java.util.concurrent.Executor;
 
 @SpringBootApplication
 @EnableAsync
@@ -15,13 +15,44 @@ public class RestServiceApplication {
 		SpringApplication.run(RestServiceApplication.class, args);
 	}
 	
-	@Bean(name = "taskExecutor")
-	public Executor taskExecutor() {
+	// Runs /greeting/async jobs so miner and LLM calls do not hold servlet threads
+	@Bean(name = "summaryExecutor")
+	public ThreadPoolTaskExecutor summaryExecutor(
+			@Value("${summary.executor.core-pool-size:4}") int corePoolSize,
+			@Value("${summary.executor.max-pool-size:8}") int maxPoolSize,
+			@Value("${summary.executor.queue-capacity:100}") int queueCapacity) {
 		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-		executor.setCorePoolSize(5);
-		executor.setMaxPoolSize(10);
-		executor.setQueueCapacity(25);
-		executor.setThreadNamePrefix("UnderstandAnalysis-");
+		executor.setCorePoolSize(corePoolSize);
+		executor.setMaxPoolSize(maxPoolSize);
+		executor.setQueueCapacity(queueCapacity);
+		executor.setThreadNamePrefix("SummaryJob-");
+		executor.initialize();
+		return executor;
+	}
+
+	// Low-priority pool for prefetching summaries of neighbouring commits; kept small so it never competes with user requests
+	@Bean(name = "prefetchExecutor")
+	public ThreadPoolTaskExecutor prefetchExecutor(
+			@Value("${prefetch.executor.pool-size:1}") int poolSize,
+			@Value("${prefetch.executor.queue-capacity:10}") int queueCapacity) {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(poolSize);
+		executor.setMaxPoolSize(poolSize);
+		executor.setQueueCapacity(queueCapacity);
+		executor.setThreadPriority(Thread.MIN_PRIORITY);
+		executor.setThreadNamePrefix("Prefetch-");
+		executor.initialize();
+		return executor;
+	}
+
+	// Runs the chunk requests of map-reduce summaries of very large commits; bounds how many hit the metrics service at once
+	@Bean(name = "chunkSummaryExecutor")
+	public ThreadPoolTaskExecutor chunkSummaryExecutor(
+			@Value("${summary.map-reduce.concurrency:4}") int concurrency) {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(concurrency);
+		executor.setMaxPoolSize(concurrency);
+		executor.setThreadNamePrefix("ChunkSummary-");
 		executor.initialize();
 		return executor;
 	}
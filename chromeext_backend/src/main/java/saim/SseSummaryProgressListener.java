@@ -0,0 +1,83 @@
+package saim;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Forwards summary progress to a Server-Sent Events stream. Once the client
+ * disconnects further events are dropped, but the pipeline keeps running so
+ * the summary is still generated and cached.
+ */
+public class SseSummaryProgressListener implements SummaryProgressListener {
+
+    private final SseEmitter emitter;
+    private volatile boolean closed = false;
+
+    public SseSummaryProgressListener(SseEmitter emitter) {
+        this.emitter = emitter;
+    }
+
+    @Override
+    public void onStage(String stage) {
+        send("stage", Map.of("stage", stage));
+    }
+
+    @Override
+    public void onRefactorings(String refactoringMessages, Map<String, Integer> refactoringInstances) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("refactorings", refactoringMessages);
+        data.put("instances", refactoringInstances);
+        send("refactorings", data);
+    }
+
+    @Override
+    public void onToken(String token) {
+        send("token", Map.of("text", token));
+    }
+
+    /**
+     * Sends the final summary and closes the stream
+     *
+     * @param greeting The same response body /greeting would return
+     */
+    public void complete(Greeting greeting) {
+        send("summary", greeting);
+        close();
+    }
+
+    /**
+     * Sends an error event and closes the stream
+     *
+     * @param message The error message shown to the user
+     */
+    public void fail(String message) {
+        send("error", Map.of("error", message));
+        close();
+    }
+
+    public void markClosed() {
+        closed = true;
+    }
+
+    private synchronized void send(String eventName, Object data) {
+        if (closed) {
+            return;
+        }
+        try {
+            emitter.send(SseEmitter.event().name(eventName).data(data));
+        } catch (IOException | IllegalStateException e) {
+            System.out.println("Summary stream closed by client: " + e.getMessage());
+            closed = true;
+        }
+    }
+
+    private synchronized void close() {
+        if (!closed) {
+            closed = true;
+            emitter.complete();
+        }
+    }
+}
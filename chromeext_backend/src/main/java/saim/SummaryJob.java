@@ -0,0 +1,102 @@
+package saim;
+
+import java.util.List;
+import java.util.Map;
+
+// Status of one asynchronous /greeting or batch summary request, serialized as JSON by the status endpoint
+public class SummaryJob {
+    public String jobId;
+    public String url;
+    public String commitId;
+    // Written by the summary executor thread, read by polling requests
+    public volatile UnderstandStatusValue status; // Same lifecycle as analysis jobs
+    public volatile String message;
+    public volatile String result; // The generated summary once COMPLETED
+    public volatile List<Map<String, Object>> commits; // Batch jobs only: one entry per commit once COMPLETED
+    public volatile boolean rejected; // FAILED because the LLM rate limit or an executor was saturated; worth retrying later
+    public long submittedAt;
+    public volatile long completedAt;
+
+    // Default constructor for frameworks like Jackson (JSON serialization)
+    public SummaryJob() {}
+
+    public SummaryJob(String jobId, String url, String commitId) {
+        this.jobId = jobId;
+        this.url = url;
+        this.commitId = commitId;
+        this.status = UnderstandStatusValue.PENDING;
+        this.submittedAt = System.currentTimeMillis();
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getCommitId() {
+        return commitId;
+    }
+
+    public UnderstandStatusValue getStatus() {
+        return status;
+    }
+
+    public void setStatus(UnderstandStatusValue status) {
+        this.status = status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public String getResult() {
+        return result;
+    }
+
+    public void setResult(String result) {
+        this.result = result;
+    }
+
+    public List<Map<String, Object>> getCommits() {
+        return commits;
+    }
+
+    public void setCommits(List<Map<String, Object>> commits) {
+        this.commits = commits;
+    }
+
+    public boolean isRejected() {
+        return rejected;
+    }
+
+    public void setRejected(boolean rejected) {
+        this.rejected = rejected;
+    }
+
+    public boolean isBatch() {
+        return commitId == null;
+    }
+
+    public long getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public long getCompletedAt() {
+        return completedAt;
+    }
+
+    public void setCompletedAt(long completedAt) {
+        this.completedAt = completedAt;
+    }
+
+    public boolean isFinished() {
+        return status == UnderstandStatusValue.COMPLETED || status == UnderstandStatusValue.FAILED;
+    }
+}
@@ -0,0 +1,117 @@
+package saim;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+@CrossOrigin("*")
+@RestController
+@RequestMapping("/api/summary")
+public class SummaryJobController {
+
+    @Autowired
+    private SummaryJobService summaryJobService;
+
+    @Autowired
+    private LlmRequestScheduler llmRequestScheduler;
+
+    @Autowired
+    private MiningAdmissionService miningAdmissionService;
+
+    @Autowired
+    private HedgedMiningService hedgedMiningService;
+
+    private final AtomicLong counter = new AtomicLong();
+
+    /**
+     * GET /api/summary/status?jobId={jobId}
+     *
+     * @param jobId The id returned by /greeting/async or /api/summary/batch
+     * @return The job status, or 404 if the job is unknown or has expired
+     */
+    @GetMapping("/status")
+    public ResponseEntity<?> getStatus(@RequestParam String jobId) {
+        Optional<SummaryJob> job = summaryJobService.getJob(jobId);
+        if (job.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "Job not found"));
+        }
+        return ResponseEntity.ok(job.get());
+    }
+
+    /**
+     * GET /api/summary/result?jobId={jobId}
+     *
+     * @param jobId The id returned by /greeting/async or /api/summary/batch
+     * @return The same Greeting as /greeting (for batches: the url and one entry per commit)
+     *         once completed, 202 while still running, 503 with Retry-After if the job was
+     *         turned away by the LLM rate limit
+     */
+    @GetMapping("/result")
+    public ResponseEntity<?> getResult(@RequestParam String jobId) {
+        Optional<SummaryJob> jobOpt = summaryJobService.getJob(jobId);
+        if (jobOpt.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "Job not found"));
+        }
+
+        SummaryJob job = jobOpt.get();
+        if (job.getStatus() == UnderstandStatusValue.FAILED && job.isRejected()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(LlmRequestScheduler.RETRY_AFTER_SECONDS))
+                    .body(Map.of("error", job.getMessage()));
+        }
+        if (job.isBatch() && job.getStatus() == UnderstandStatusValue.COMPLETED) {
+            return ResponseEntity.ok(Map.of("url", job.getUrl(), "commits", job.getCommits()));
+        }
+        if (job.isBatch() && job.getStatus() == UnderstandStatusValue.FAILED) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("error", job.getMessage()));
+        }
+        if (job.getStatus() == UnderstandStatusValue.COMPLETED) {
+            return ResponseEntity.ok(new Greeting(counter.incrementAndGet(), job.getResult()));
+        }
+        if (job.getStatus() == UnderstandStatusValue.FAILED) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(new Greeting(counter.incrementAndGet(), job.getMessage()));
+        }
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(job);
+    }
+
+    /**
+     * GET /api/summary/scheduler/stats
+     *
+     * @return Queue depth, wait times and rejections of the LLM rate limiter per API key
+     */
+    @GetMapping("/scheduler/stats")
+    public ResponseEntity<?> getSchedulerStats() {
+        return ResponseEntity.ok(llmRequestScheduler.stats());
+    }
+
+    /**
+     * GET /api/summary/admission/decisions
+     *
+     * @return How recent commits were mined (full, sampled or diff only), with their estimated size
+     */
+    @GetMapping("/admission/decisions")
+    public ResponseEntity<?> getAdmissionDecisions() {
+        return ResponseEntity.ok(miningAdmissionService.decisions());
+    }
+
+    /**
+     * GET /api/summary/mining/stats
+     *
+     * @return Wins, failures and latencies of the GitHub API and local mirror mining paths
+     */
+    @GetMapping("/mining/stats")
+    public ResponseEntity<?> getMiningStats() {
+        return ResponseEntity.ok(hedgedMiningService.stats());
+    }
+}
@@ -0,0 +1,151 @@
+package saim;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Service;
+
+/**
+ * Runs summary generation on the dedicated summary executor so that /greeting/async and
+ * /api/summary/batch can answer immediately with a job id instead of holding a servlet thread.
+ */
+@Service
+public class SummaryJobService {
+
+    @Autowired
+    @Qualifier("summaryExecutor")
+    private TaskExecutor summaryExecutor;
+
+    // How long finished jobs stay available for polling
+    @Value("${summary.jobs.retention-minutes:30}")
+    private long retentionMinutes;
+
+    private static final long EVICTION_INTERVAL_MILLIS = 60_000L;
+
+    private final Map<String, SummaryJob> jobs = new ConcurrentHashMap<>();
+    // Keyed by commit, or by batch for batch jobs
+    private final Map<String, String> activeJobIdsByCommit = new ConcurrentHashMap<>();
+    private volatile long lastEvictedAt;
+
+    /**
+     * Submits a summary computation, or returns the job already running for the same commit
+     *
+     * @param commitKey The canonical commit key (see ReactoringHelper.canonicalCommitKey)
+     * @param url The repository URL
+     * @param commitId The commit SHA
+     * @param work The computation producing (and caching) the summary
+     * @return The job tracking the computation
+     */
+    public SummaryJob submit(String commitKey, String url, String commitId, Supplier<String> work) {
+        SummaryJob created = new SummaryJob(UUID.randomUUID().toString(), url, commitId);
+        return submit(commitKey, created, job -> {
+            job.setResult(work.get());
+            job.setMessage("Summary generated");
+        });
+    }
+
+    /**
+     * Submits the summarization of several commits, or returns the job already running for the same batch
+     *
+     * @param batchKey Identifies the batch, e.g. its requester, repository and commits
+     * @param url The repository URL
+     * @param work The computation producing one entry per commit
+     * @return The job tracking the computation
+     */
+    public SummaryJob submitBatch(String batchKey, String url, Supplier<List<Map<String, Object>>> work) {
+        SummaryJob created = new SummaryJob(UUID.randomUUID().toString(), url, null);
+        return submit(batchKey, created, job -> {
+            List<Map<String, Object>> commits = work.get();
+            job.setCommits(commits);
+            job.setMessage("Summarized " + commits.size() + " commits");
+        });
+    }
+
+    private SummaryJob submit(String jobKey, SummaryJob created, Consumer<SummaryJob> work) {
+        evictExpiredJobs();
+
+        SummaryJob[] running = new SummaryJob[1];
+        // Checking for a running job and registering the new one is a single atomic step per key
+        activeJobIdsByCommit.compute(jobKey, (key, activeJobId) -> {
+            SummaryJob active = activeJobId == null ? null : jobs.get(activeJobId);
+            if (active != null && !active.isFinished()) {
+                running[0] = active;
+                return activeJobId;
+            }
+            jobs.put(created.getJobId(), created);
+            return created.getJobId();
+        });
+        if (running[0] != null) {
+            System.out.println("Reusing running summary job " + running[0].getJobId() + " for " + jobKey);
+            return running[0];
+        }
+
+        try {
+            summaryExecutor.execute(() -> run(jobKey, created, work));
+        } catch (RuntimeException e) {
+            // Executor saturated: the job never started
+            jobs.remove(created.getJobId());
+            activeJobIdsByCommit.remove(jobKey, created.getJobId());
+            throw e;
+        }
+        return created;
+    }
+
+    public Optional<SummaryJob> getJob(String jobId) {
+        evictExpiredJobs();
+        return Optional.ofNullable(jobs.get(jobId));
+    }
+
+    private void run(String jobKey, SummaryJob job, Consumer<SummaryJob> work) {
+        job.setStatus(UnderstandStatusValue.RUNNING);
+        job.setMessage("Generating summary...");
+        try {
+            work.accept(job);
+            job.setStatus(UnderstandStatusValue.COMPLETED);
+        } catch (Exception e) {
+            System.err.println("Summary job " + job.getJobId() + " failed: " + e.getMessage());
+            if (isRejection(e)) {
+                job.setRejected(true);
+                job.setMessage("Too many summaries in progress, please retry shortly");
+            } else {
+                job.setMessage((job.isBatch() ? "Error analyzing commits: " : "Error analyzing commit: ") + e.getMessage());
+            }
+            job.setStatus(UnderstandStatusValue.FAILED);
+        } finally {
+            job.setCompletedAt(System.currentTimeMillis());
+            activeJobIdsByCommit.remove(jobKey, job.getJobId());
+            evictExpiredJobs();
+        }
+    }
+
+    // The rate limiter or an executor turned the work away somewhere along the way
+    private boolean isRejection(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TaskRejectedException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Runs on submissions, polls and completions, at most once a minute
+    private void evictExpiredJobs() {
+        long now = System.currentTimeMillis();
+        if (now - lastEvictedAt < EVICTION_INTERVAL_MILLIS) {
+            return;
+        }
+        lastEvictedAt = now;
+        long cutoff = now - retentionMinutes * 60_000L;
+        jobs.values().removeIf(job -> job.isFinished() && job.getCompletedAt() < cutoff);
+    }
+}
@@ -0,0 +1,39 @@
+package saim;
+
+import java.util.Map;
+
+/**
+ * Receives intermediate results while a commit summary is being generated,
+ * so that callers can show progress before the whole pipeline has finished.
+ */
+public interface SummaryProgressListener {
+
+    /** Listener used by callers that only need the final summary */
+    SummaryProgressListener NONE = new SummaryProgressListener() {
+    };
+
+    /**
+     * Called when the pipeline enters a new stage: auth, mining, sampled_mining or llm
+     *
+     * @param stage The stage name
+     */
+    default void onStage(String stage) {
+    }
+
+    /**
+     * Called as soon as the refactorings of the commit are known
+     *
+     * @param refactoringMessages The numbered list of refactorings
+     * @param refactoringInstances Refactoring type to number of instances
+     */
+    default void onRefactorings(String refactoringMessages, Map<String, Integer> refactoringInstances) {
+    }
+
+    /**
+     * Called for every chunk of summary text received from the metrics service
+     *
+     * @param token The next piece of generated text
+     */
+    default void onToken(String token) {
+    }
+}
@@ -0,0 +1,104 @@
+package saim;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Deduplicates concurrent summary computations for the same commit.
+ * The first caller for a key runs the computation, every caller arriving
+ * while it is still running waits for and receives the same result.
+ * Callers waiting on a summary a user asked for are counted, so background
+ * work such as prefetching can step aside for them.
+ */
+@Component
+public class SummaryRequestCoalescer {
+
+    private final ConcurrentHashMap<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    // Interactive callers computing or joined, whatever else is in flight
+    private final AtomicInteger interactiveCallers = new AtomicInteger();
+
+    /**
+     * Runs the computation for the given key unless one is already in flight
+     *
+     * @param key The canonical commit key (see ReactoringHelper.canonicalCommitKey)
+     * @param computation The work producing the summary
+     * @return The summary produced by the single computation for this key
+     */
+    public String execute(String key, Supplier<String> computation) {
+        return execute(key, LlmRequestScheduler.Priority.INTERACTIVE, computation);
+    }
+
+    /**
+     * Runs the computation for the given key unless one is already in flight
+     *
+     * @param key The canonical commit key (see ReactoringHelper.canonicalCommitKey)
+     * @param priority INTERACTIVE if a user is waiting for the summary, BACKGROUND otherwise
+     * @param computation The work producing the summary
+     * @return The summary produced by the single computation for this key
+     */
+    public String execute(String key, LlmRequestScheduler.Priority priority, Supplier<String> computation) {
+        if (priority != LlmRequestScheduler.Priority.INTERACTIVE) {
+            return coalesce(key, computation);
+        }
+        interactiveCallers.incrementAndGet();
+        try {
+            return coalesce(key, computation);
+        } finally {
+            interactiveCallers.decrementAndGet();
+        }
+    }
+
+    private String coalesce(String key, Supplier<String> computation) {
+        CompletableFuture<String> created = new CompletableFuture<>();
+        CompletableFuture<String> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            System.out.println("Joining in-flight summary computation for: " + key);
+            return await(existing);
+        }
+
+        try {
+            String summary = computation.get();
+            created.complete(summary);
+            return summary;
+        } catch (Throwable t) {
+            // Errors too (e.g. OutOfMemoryError while mining), or the joined callers would wait forever
+            created.completeExceptionally(t);
+            throw t;
+        } finally {
+            inFlight.remove(key, created);
+        }
+    }
+
+    /**
+     * @return The number of distinct commits currently being computed
+     */
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * @return The number of callers currently waiting on a summary a user asked for
+     */
+    public int interactiveCount() {
+        return interactiveCallers.get();
+    }
+
+    private String await(CompletableFuture<String> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package saim;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Runs Understand analyses on a fixed number of workers. Waiting analyses are queued per tenant
+ * and priority; interactive analyses start before background ones, and within a priority the
+ * tenants take turns, so one tenant submitting many repositories cannot starve the others.
+ * Submissions beyond the queue limits are rejected with a suggested retry delay instead of
+ * failing. The queue position and estimated start of every waiting analysis are published with
+ * its status, based on the average duration of recent analyses. They are computed under the
+ * scheduler's lock but published outside of it, and never written to the database.
+ */
+@Component
+public class UnderstandAnalysisScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(UnderstandAnalysisScheduler.class);
+
+    public enum Priority { INTERACTIVE, BACKGROUND }
+
+    @Autowired
+    private UnderstandJobRegistry jobRegistry;
+
+    @Value("${understand.scheduler.concurrency:2}")
+    private int concurrency;
+
+    @Value("${understand.scheduler.max-queued:50}")
+    private int maxQueued;
+
+    @Value("${understand.scheduler.max-queued-per-tenant:10}")
+    private int maxQueuedPerTenant;
+
+    // Assumed duration of an analysis until actual durations have been measured
+    @Value("${understand.scheduler.initial-duration-seconds:300}")
+    private long initialDurationSeconds;
+
+    private ExecutorService workers;
+
+    // Waiting analyses by priority, then by tenant; the tenant order rotates as tenants are served
+    private final Map<Priority, LinkedHashMap<String, Deque<QueuedAnalysis>>> queues = new EnumMap<>(Priority.class);
+    // Concurrent, so queue position updates published outside the lock can skip analyses that have started
+    private final Map<String, Long> runningSince = new ConcurrentHashMap<>();
+    private int queued;
+    private double averageDurationMillis;
+    private long completed;
+    private long rejected;
+
+    // Queue snapshots are numbered, so an older one published late does not overwrite a newer one
+    private long snapshotVersion;
+    private final Object publishLock = new Object();
+    private long publishedVersion;
+
+    // The outcome of a submission
+    public static class Admission {
+        public final boolean accepted;
+        public final long retryAfterSeconds; // Only set if the submission was rejected
+
+        Admission(boolean accepted, long retryAfterSeconds) {
+            this.accepted = accepted;
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+    }
+
+    // Where a waiting analysis stands in the queue
+    private static class QueueEntry {
+        final String analysisId;
+        final int position;
+        final long startAt;
+
+        QueueEntry(String analysisId, int position, long startAt) {
+            this.analysisId = analysisId;
+            this.position = position;
+            this.startAt = startAt;
+        }
+    }
+
+    private static class QueueSnapshot {
+        final long version;
+        final List<QueueEntry> entries;
+
+        QueueSnapshot(long version, List<QueueEntry> entries) {
+            this.version = version;
+            this.entries = entries;
+        }
+    }
+
+    private static class QueuedAnalysis {
+        final String analysisId;
+        final String tenant;
+        final Runnable work;
+
+        QueuedAnalysis(String analysisId, String tenant, Runnable work) {
+            this.analysisId = analysisId;
+            this.tenant = tenant;
+            this.work = work;
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        for (Priority priority : Priority.values()) {
+            queues.put(priority, new LinkedHashMap<>());
+        }
+        averageDurationMillis = initialDurationSeconds * 1000.0;
+        AtomicInteger threadCount = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "UnderstandAnalysis-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * Queues an analysis, or rejects it if the queue or the tenant's share of it is full.
+     *
+     * @param analysisId The analysis ID of the repository, whose job must already be registered
+     * @param tenant Identifies who submitted the analysis, e.g. the user's UUID
+     * @param priority INTERACTIVE for analyses a user is waiting on, BACKGROUND otherwise
+     * @param work The analysis itself
+     * @return Whether the analysis was queued, and if not, when to retry
+     */
+    public Admission submit(String analysisId, String tenant, Priority priority, Runnable work) {
+        QueueSnapshot snapshot;
+        synchronized (this) {
+            int tenantQueued = queues.values().stream()
+                    .mapToInt(tenants -> tenants.getOrDefault(tenant, new ArrayDeque<>()).size())
+                    .sum();
+            if (queued >= maxQueued || tenantQueued >= maxQueuedPerTenant) {
+                rejected++;
+                // By then about one analysis per worker will have finished
+                long retryAfterSeconds = Math.max(5, Math.round(averageDurationMillis / 1000.0 / concurrency));
+                log.info("Rejecting analysis of {} for tenant {} ({} queued, {} by tenant)", analysisId, tenantLabel(tenant), queued, tenantQueued);
+                return new Admission(false, retryAfterSeconds);
+            }
+
+            queues.get(priority).computeIfAbsent(tenant, t -> new ArrayDeque<>()).addLast(new QueuedAnalysis(analysisId, tenant, work));
+            queued++;
+            dispatch();
+            snapshot = queueSnapshot();
+        }
+        publishQueuePositions(snapshot);
+        return new Admission(true, 0);
+    }
+
+    /**
+     * @return Running and queued analyses, rejections and the measured average duration
+     */
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("concurrency", concurrency);
+        stats.put("running", runningSince.size());
+        stats.put("queued", queued);
+        Map<String, Object> queuedByPriority = new LinkedHashMap<>();
+        queues.forEach((priority, tenants) -> {
+            Map<String, Integer> byTenant = new LinkedHashMap<>();
+            tenants.forEach((tenant, analyses) -> byTenant.put(tenantLabel(tenant), analyses.size()));
+            queuedByPriority.put(priority.name(), byTenant);
+        });
+        stats.put("queuedByPriority", queuedByPriority);
+        stats.put("completed", completed);
+        stats.put("rejected", rejected);
+        stats.put("averageDurationSeconds", Math.round(averageDurationMillis / 1000.0));
+        return stats;
+    }
+
+    // Tenants are identified by user UUIDs, which are only shown as a short hash
+    private String tenantLabel(String tenant) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(tenant.getBytes(StandardCharsets.UTF_8))).substring(0, 8);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    // Starts waiting analyses while workers are free
+    private void dispatch() {
+        while (runningSince.size() < concurrency) {
+            QueuedAnalysis next = takeNext();
+            if (next == null) {
+                return;
+            }
+            runningSince.put(next.analysisId, System.currentTimeMillis());
+            workers.execute(() -> run(next));
+        }
+    }
+
+    private void run(QueuedAnalysis analysis) {
+        try {
+            jobRegistry.publishTransient(analysis.analysisId, current -> {
+                UnderstandStatus started = new UnderstandStatus(current);
+                started.setQueuePosition(null);
+                started.setEstimatedStartAt(null);
+                return started;
+            });
+            analysis.work.run();
+        } catch (RuntimeException e) {
+            log.error("Analysis {} failed: {}", analysis.analysisId, e.getMessage(), e);
+        } finally {
+            QueueSnapshot snapshot;
+            synchronized (this) {
+                Long startedAt = runningSince.remove(analysis.analysisId);
+                if (startedAt != null) {
+                    completed++;
+                    // Exponential moving average, so the estimate follows recent analyses
+                    averageDurationMillis = 0.8 * averageDurationMillis + 0.2 * (System.currentTimeMillis() - startedAt);
+                }
+                dispatch();
+                snapshot = queueSnapshot();
+            }
+            publishQueuePositions(snapshot);
+        }
+    }
+
+    // Takes the analysis that starts next: the highest priority first, tenants in turn
+    private QueuedAnalysis takeNext() {
+        for (LinkedHashMap<String, Deque<QueuedAnalysis>> tenants : queues.values()) {
+            Iterator<Map.Entry<String, Deque<QueuedAnalysis>>> iterator = tenants.entrySet().iterator();
+            if (!iterator.hasNext()) {
+                continue;
+            }
+            Map.Entry<String, Deque<QueuedAnalysis>> first = iterator.next();
+            QueuedAnalysis next = first.getValue().pollFirst();
+            iterator.remove();
+            // The tenant goes to the back of the line
+            if (!first.getValue().isEmpty()) {
+                tenants.put(first.getKey(), first.getValue());
+            }
+            queued--;
+            return next;
+        }
+        return null;
+    }
+
+    // Walks the queue in start order and assigns every waiting analysis to the worker that frees up first
+    private QueueSnapshot queueSnapshot() {
+        long now = System.currentTimeMillis();
+        PriorityQueue<Long> workerFreeAt = new PriorityQueue<>();
+        for (long startedAt : runningSince.values()) {
+            workerFreeAt.add(Math.max(now, startedAt + (long) averageDurationMillis));
+        }
+        while (workerFreeAt.size() < concurrency) {
+            workerFreeAt.add(now);
+        }
+
+        List<QueuedAnalysis> order = queueOrder();
+        List<QueueEntry> entries = new ArrayList<>(order.size());
+        for (int i = 0; i < order.size(); i++) {
+            long startAt = workerFreeAt.poll();
+            workerFreeAt.add(startAt + (long) averageDurationMillis);
+            entries.add(new QueueEntry(order.get(i).analysisId, i + 1, startAt));
+        }
+        return new QueueSnapshot(++snapshotVersion, entries);
+    }
+
+    // Outside the scheduler's lock; only analyses whose position or estimated start changed are updated
+    private void publishQueuePositions(QueueSnapshot snapshot) {
+        synchronized (publishLock) {
+            if (snapshot.version <= publishedVersion) {
+                return;
+            }
+            publishedVersion = snapshot.version;
+            for (QueueEntry entry : snapshot.entries) {
+                jobRegistry.publishTransient(entry.analysisId, current -> {
+                    // The analysis may have started or finished since the snapshot was taken
+                    if (current.isFinished() || runningSince.containsKey(entry.analysisId)
+                            || (Objects.equals(current.getQueuePosition(), entry.position)
+                                && Objects.equals(current.getEstimatedStartAt(), entry.startAt))) {
+                        return current;
+                    }
+                    UnderstandStatus waiting = new UnderstandStatus(current);
+                    waiting.setQueuePosition(entry.position);
+                    waiting.setEstimatedStartAt(entry.startAt);
+                    waiting.setMessage("Waiting for an analysis slot (position " + entry.position + ")");
+                    return waiting;
+                });
+            }
+        }
+    }
+
+    // The order takeNext would hand out the waiting analyses in, without changing the queues
+    private List<QueuedAnalysis> queueOrder() {
+        List<QueuedAnalysis> order = new ArrayList<>(queued);
+        for (LinkedHashMap<String, Deque<QueuedAnalysis>> tenants : queues.values()) {
+            List<Iterator<QueuedAnalysis>> turns = new ArrayList<>();
+            tenants.values().forEach(analyses -> turns.add(analyses.iterator()));
+            while (!turns.isEmpty()) {
+                Iterator<Iterator<QueuedAnalysis>> turn = turns.iterator();
+                while (turn.hasNext()) {
+                    Iterator<QueuedAnalysis> analyses = turn.next();
+                    if (analyses.hasNext()) {
+                        order.add(analyses.next());
+                    } else {
+                        turn.remove();
+                    }
+                }
+            }
+        }
+        return order;
+    }
+}
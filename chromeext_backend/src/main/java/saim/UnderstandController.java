@@ -2,11 +2,15 @@ package saim;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Optional;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -16,9 +20,14 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import jakarta.servlet.http.HttpServletRequest;
 
 class AnalyzeRequest {
     public String repoUrl;
+    public String uuid; // Optional: the user's registered UUID, used for fair queuing and the user's GitHub token
+    public String priority; // Optional: "interactive" (default) or "background"
 }
 
 @CrossOrigin("*")
@@ -29,6 +38,12 @@ public class UnderstandController {
     @Autowired
     private UnderstandService understandService;
 
+    @Autowired
+    private UnderstandAnalysisScheduler analysisScheduler;
+
+    @Autowired
+    private ApiKeyRepo apiKeyRepo;
+
     @GetMapping("/status")
     public ResponseEntity<?> getAnalysisStatus(@RequestParam(required = false) String repoUrl, 
                                               @RequestParam(required = false) Boolean check) {
@@ -51,15 +66,46 @@ public class UnderstandController {
         }
     }
 
+    /**
+     * Push-based alternative to polling /status: streams a "status" event with a snapshot of
+     * the analysis every time it changes, and completes once it is COMPLETED or FAILED.
+     */
+    @GetMapping(value = "/status/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamAnalysisStatus(@RequestParam String repoUrl) {
+        if (repoUrl.trim().isEmpty()) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(understandService.watchStatus(repoUrl));
+    }
+
     @PostMapping("/analyze")
-    public ResponseEntity<String> startAnalysis(@RequestBody AnalyzeRequest request) {
+    public ResponseEntity<String> startAnalysis(@RequestBody AnalyzeRequest request, HttpServletRequest httpRequest) {
         System.out.println("POST /analyze received with repoUrl: " + (request != null ? request.repoUrl : "null"));
         if (request.repoUrl == null || request.repoUrl.trim().isEmpty()) {
             return ResponseEntity.badRequest().body("Missing 'repoUrl' in request body.");
         }
         try {
             System.out.println("Starting analysis for repo: " + request.repoUrl);
-            understandService.startAnalysis(request.repoUrl);
+            // Without a UUID, requests are queued per client address. A UUID must be registered, otherwise
+            // made-up UUIDs would each get their own share of the queue
+            boolean hasUuid = request.uuid != null && !request.uuid.isBlank();
+            Optional<ApiKey> apiKey = hasUuid ? apiKeyRepo.findByUuid(request.uuid) : Optional.empty();
+            if (hasUuid && apiKey.isEmpty()) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Unknown UUID: " + request.uuid);
+            }
+            String tenant = hasUuid ? request.uuid : httpRequest.getRemoteAddr();
+            UnderstandAnalysisScheduler.Priority priority = "background".equalsIgnoreCase(request.priority)
+                    ? UnderstandAnalysisScheduler.Priority.BACKGROUND
+                    : UnderstandAnalysisScheduler.Priority.INTERACTIVE;
+            // The repository is queried and fetched with the requester's GitHub token, so private repositories they can read work too
+            GitHubCredentials credentials = apiKey.map(key -> new GitHubCredentials(key.getGithubApiKey()))
+                    .orElse(GitHubCredentials.anonymous());
+            UnderstandAnalysisScheduler.Admission admission = understandService.startAnalysis(request.repoUrl, tenant, credentials, priority);
+            if (!admission.accepted) {
+                return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                        .header(HttpHeaders.RETRY_AFTER, String.valueOf(admission.retryAfterSeconds))
+                        .body("Too many analyses queued, please retry in " + admission.retryAfterSeconds + " seconds.");
+            }
             String analysisId = request.repoUrl.replaceAll("^https?://", "").replaceAll("[^a-zA-Z0-9.-]", "_");
             return ResponseEntity.status(HttpStatus.ACCEPTED).body("Analysis started for: " + request.repoUrl + ". Check status using ID: " + analysisId);
          } catch (Exception e) {
@@ -69,6 +115,14 @@ public class UnderstandController {
          }
     }
 
+    /**
+     * Running and queued analyses per priority and tenant (tenants shown as a short hash)
+     */
+    @GetMapping("/analyze/queue")
+    public ResponseEntity<Map<String, Object>> getAnalysisQueue() {
+        return ResponseEntity.ok(analysisScheduler.stats());
+    }
+
     @GetMapping("/results/{filename}")
     public ResponseEntity<Resource> getResultFile(@PathVariable String filename) {
          if (filename == null || filename.contains("..") || filename.contains("/") || filename.contains("\\")) {
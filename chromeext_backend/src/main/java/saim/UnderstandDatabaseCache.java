@@ -0,0 +1,252 @@
+package saim;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Keeps one Understand database per repository, together with the working tree it was built
+ * from, so the next analysis of the repository only has to check out and re-analyze the files
+ * that changed since the last analyzed commit. Entries are evicted least recently used first
+ * when the cache grows beyond its size limit on disk.
+ */
+@Component
+public class UnderstandDatabaseCache {
+
+    private static final Logger log = LoggerFactory.getLogger(UnderstandDatabaseCache.class);
+
+    private static final String ANALYZED_SHA_FILE = "analyzed_sha";
+    private static final String REMOVED_FILES_LIST = "removed_files.txt";
+
+    @Autowired
+    private RepositoryMirrorManager mirrorManager;
+
+    @Value("${understand.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${understand.cache.directory-name:understand_cache}")
+    private String cacheDirName;
+
+    @Value("${understand.cache.max-bytes:5368709120}")
+    private long maxBytes;
+
+    private final Map<String, ReentrantLock> entryLocks = new ConcurrentHashMap<>();
+
+    /**
+     * Locks the cache entry of a repository for one analysis.
+     *
+     * @param repoUrl The URL of the repository.
+     * @param projectRoot The project root the cache directory lives in.
+     * @return The entry (without a database on first use), or empty if caching is disabled or
+     *         another analysis of the repository is using the entry.
+     */
+    public Optional<Entry> acquire(String repoUrl, File projectRoot) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        String key = entryKey(repoUrl);
+        ReentrantLock lock = entryLocks.computeIfAbsent(key, k -> new ReentrantLock());
+        if (!lock.tryLock()) {
+            log.info("Understand database of {} is in use, analyzing without it", repoUrl);
+            return Optional.empty();
+        }
+        File entryDir = new File(new File(projectRoot, cacheDirName), key);
+        return Optional.of(new Entry(repoUrl, entryDir, repoName(repoUrl), lock));
+    }
+
+    // One repository's working tree and database, held by one analysis at a time
+    public class Entry implements AutoCloseable {
+        private final String repoUrl;
+        private final File entryDir;
+        private final File sourceDir;
+        private final ReentrantLock lock;
+
+        private Entry(String repoUrl, File entryDir, String repoName, ReentrantLock lock) {
+            this.repoUrl = repoUrl;
+            this.entryDir = entryDir;
+            this.sourceDir = new File(entryDir, repoName);
+            this.lock = lock;
+        }
+
+        public File getSourceDir() {
+            return sourceDir;
+        }
+
+        /**
+         * @return Whether a database built by an earlier, successful analysis exists
+         */
+        public boolean hasDatabase() {
+            return analyzedCommit().isPresent() && sourceDir.isDirectory()
+                    && new File(entryDir, sourceDir.getName() + ".und").exists();
+        }
+
+        /**
+         * Moves the working tree to the commit; only files that differ are rewritten.
+         *
+         * @param commitId The commit to analyze next.
+         * @return A file listing the paths (relative to the working tree) deleted since the
+         *         last analyzed commit, or null if there are none
+         */
+        public File checkout(ObjectId commitId) throws IOException, GitAPIException {
+            if (!sourceDir.isDirectory()) {
+                Files.createDirectories(entryDir.toPath());
+                mirrorManager.createSharedWorkingCopy(repoUrl, commitId, sourceDir).close();
+                return null;
+            }
+
+            List<String> removed = new ArrayList<>();
+            try (Git git = Git.open(sourceDir)) {
+                Optional<ObjectId> analyzed = analyzedCommit();
+                if (analyzed.isPresent()) {
+                    try (RevWalk revWalk = new RevWalk(git.getRepository());
+                         DiffFormatter formatter = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
+                        formatter.setRepository(git.getRepository());
+                        formatter.setDetectRenames(true);
+                        List<DiffEntry> entries = formatter.scan(revWalk.parseCommit(analyzed.get()).getTree(),
+                                revWalk.parseCommit(commitId).getTree());
+                        for (DiffEntry entry : entries) {
+                            if (entry.getChangeType() == DiffEntry.ChangeType.DELETE || entry.getChangeType() == DiffEntry.ChangeType.RENAME) {
+                                removed.add(entry.getOldPath());
+                            }
+                        }
+                        log.info("{} files differ between {} and {}", entries.size(), analyzed.get().getName(), commitId.getName());
+                    }
+                }
+                git.checkout().setName(commitId.getName()).setForced(true).call();
+            }
+
+            if (removed.isEmpty()) {
+                return null;
+            }
+            File removedList = new File(entryDir, REMOVED_FILES_LIST);
+            Files.write(removedList.toPath(), removed, StandardCharsets.UTF_8);
+            return removedList;
+        }
+
+        /**
+         * Records the commit the database now describes.
+         */
+        public void markAnalyzed(ObjectId commitId) throws IOException {
+            Files.writeString(new File(entryDir, ANALYZED_SHA_FILE).toPath(), commitId.getName(), StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Deletes the entry, e.g. after a failed analysis left the database in an unknown state.
+         */
+        public void invalidate() {
+            log.info("Discarding cached Understand database of {}", repoUrl);
+            deleteRecursively(entryDir.toPath());
+        }
+
+        @Override
+        public void close() {
+            try {
+                evictLeastRecentlyUsed(entryDir.getParentFile());
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private Optional<ObjectId> analyzedCommit() {
+            Path shaFile = new File(entryDir, ANALYZED_SHA_FILE).toPath();
+            try {
+                return Files.exists(shaFile) ? Optional.of(ObjectId.fromString(Files.readString(shaFile).trim())) : Optional.empty();
+            } catch (IOException | IllegalArgumentException e) {
+                return Optional.empty();
+            }
+        }
+    }
+
+    // The analyzed_sha file is rewritten after every analysis, so its age tells when an entry was last used
+    private void evictLeastRecentlyUsed(File cacheDir) {
+        File[] entries = cacheDir.listFiles(File::isDirectory);
+        if (entries == null) {
+            return;
+        }
+        long total = 0;
+        Map<File, Long> sizes = new HashMap<>();
+        for (File entry : entries) {
+            long size = directorySize(entry.toPath());
+            sizes.put(entry, size);
+            total += size;
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+
+        List<File> byLastUse = new ArrayList<>(sizes.keySet());
+        byLastUse.sort(Comparator.comparingLong(entry -> new File(entry, ANALYZED_SHA_FILE).lastModified()));
+        for (File entry : byLastUse) {
+            if (total <= maxBytes) {
+                break;
+            }
+            ReentrantLock lock = entryLocks.computeIfAbsent(entry.getName(), k -> new ReentrantLock());
+            // Entries in use are skipped; the entry of the current analysis is held by this thread
+            if (lock.isHeldByCurrentThread() || !lock.tryLock()) {
+                continue;
+            }
+            try {
+                log.info("Evicting cached Understand database {} ({} bytes)", entry.getName(), sizes.get(entry));
+                deleteRecursively(entry.toPath());
+                total -= sizes.get(entry);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private long directorySize(Path path) {
+        try (Stream<Path> files = Files.walk(path)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private void deleteRecursively(Path path) {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        } catch (IOException e) {
+            log.warn("Could not delete {}: {}", path, e.getMessage());
+        }
+    }
+
+    private String entryKey(String repoUrl) {
+        return new ReactoringHelper().canonicalRepoUrl(repoUrl).replaceAll("^https?://", "").replaceAll("[^a-zA-Z0-9.-]", "_");
+    }
+
+    private String repoName(String repoUrl) {
+        String repoName = repoUrl.substring(repoUrl.lastIndexOf('/') + 1);
+        if (repoName.endsWith(".git")) {
+            repoName = repoName.substring(0, repoName.length() - 4);
+        }
+        return repoName;
+    }
+}
@@ -0,0 +1,155 @@
+package saim;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import jakarta.persistence.UniqueConstraint;
+
+/**
+ * One Understand analysis of a repository, persisted so its status survives a restart and
+ * jobs interrupted by one can be recognized afterwards
+ */
+@Entity
+@Table(name = "understand_jobs",
+       uniqueConstraints = @UniqueConstraint(name = "uk_understand_jobs_job_id", columnNames = {"job_id"}),
+       indexes = {
+           @Index(name = "idx_understand_jobs_analysis_id", columnList = "analysis_id"),
+           @Index(name = "idx_understand_jobs_status", columnList = "status"),
+           @Index(name = "idx_understand_jobs_finished_at", columnList = "finished_at")
+       })
+public class UnderstandJob {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "job_id", nullable = false, length = 36)
+    private String jobId;
+
+    // The sanitized repository URL the status endpoints are addressed by
+    @Column(name = "analysis_id", nullable = false)
+    private String analysisId;
+
+    @Column(name = "repo_url", nullable = false)
+    private String repoUrl;
+
+    // The analyzed head commit, known once the remote HEAD has been resolved
+    @Column(name = "commit_id", length = 64)
+    private String commitId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, length = 16)
+    private UnderstandStatusValue status;
+
+    @Column(name = "message", columnDefinition = "TEXT")
+    private String message;
+
+    @Column(name = "progress")
+    private int progress;
+
+    // Output file names, one per line
+    @Column(name = "output_files", columnDefinition = "TEXT")
+    private String outputFiles;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+
+    @Column(name = "finished_at")
+    private LocalDateTime finishedAt;
+
+    public UnderstandJob() {}
+
+    public UnderstandJob(String jobId, String analysisId, String repoUrl) {
+        this.jobId = jobId;
+        this.analysisId = analysisId;
+        this.repoUrl = repoUrl;
+        this.status = UnderstandStatusValue.PENDING;
+        this.createdAt = LocalDateTime.now();
+        this.updatedAt = this.createdAt;
+    }
+
+    /**
+     * Copies a status snapshot into the job
+     */
+    public void apply(UnderstandStatus snapshot) {
+        this.status = snapshot.getStatus();
+        this.message = snapshot.getMessage();
+        this.progress = snapshot.getProgress();
+        this.outputFiles = snapshot.getOutputFiles() != null ? String.join("\n", snapshot.getOutputFiles()) : null;
+        this.updatedAt = LocalDateTime.now();
+        if (snapshot.isFinished() && finishedAt == null) {
+            this.finishedAt = this.updatedAt;
+        }
+    }
+
+    /**
+     * @return The status snapshot served by the status endpoints
+     */
+    public UnderstandStatus toStatus() {
+        UnderstandStatus snapshot = new UnderstandStatus(status, message, progress);
+        if (outputFiles != null && !outputFiles.isEmpty()) {
+            snapshot.setOutputFiles(Arrays.stream(outputFiles.split("\n")).toArray(String[]::new));
+        }
+        return snapshot;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public String getAnalysisId() {
+        return analysisId;
+    }
+
+    public String getRepoUrl() {
+        return repoUrl;
+    }
+
+    public String getCommitId() {
+        return commitId;
+    }
+
+    public void setCommitId(String commitId) {
+        this.commitId = commitId;
+    }
+
+    public UnderstandStatusValue getStatus() {
+        return status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public int getProgress() {
+        return progress;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public LocalDateTime getFinishedAt() {
+        return finishedAt;
+    }
+}
@@ -0,0 +1,267 @@
+package saim;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+/**
+ * Tracks Understand analyses by repository. At most one job per repository is in flight; a
+ * request for a repository that is already being analyzed joins the running job. Every status
+ * change is written to the database, so statuses survive restarts, while only running and
+ * recently finished jobs are kept in memory. Finished jobs are pruned from the database by age
+ * and count.
+ */
+@Service
+public class UnderstandJobRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(UnderstandJobRegistry.class);
+
+    @Autowired
+    private UnderstandJobRepo repo;
+
+    @Autowired
+    private UnderstandStatusBroadcaster statusBroadcaster;
+
+    // How long finished jobs stay in memory; older statuses are read from the database
+    @Value("${understand.jobs.retention-minutes:60}")
+    private long retentionMinutes;
+
+    @Value("${understand.jobs.max-in-memory:500}")
+    private int maxInMemory;
+
+    @Value("${understand.jobs.history-days:30}")
+    private long historyDays;
+
+    @Value("${understand.jobs.max-stored:5000}")
+    private int maxStored;
+
+    @Value("${understand.jobs.prune-interval-minutes:10}")
+    private long pruneIntervalMinutes;
+
+    private final Map<String, TrackedJob> jobs = new ConcurrentHashMap<>();
+    private volatile long lastPrunedAt;
+
+    // A job and its latest status snapshot; updates of one job are serialized on this object
+    private static class TrackedJob {
+        final UnderstandJob job;
+        UnderstandStatus status;
+        long finishedAt;
+
+        TrackedJob(UnderstandJob job, UnderstandStatus status) {
+            this.job = job;
+            this.status = status;
+        }
+    }
+
+    /**
+     * Registers a new job for the repository unless one is already in flight.
+     *
+     * @param analysisId The analysis ID of the repository
+     * @param repoUrl The URL of the repository
+     * @return The ID of the new job, or empty if the repository is already being analyzed
+     */
+    public synchronized Optional<String> begin(String analysisId, String repoUrl) {
+        evictFinishedJobs();
+
+        TrackedJob current = jobs.get(analysisId);
+        if (current != null && !current.status.isFinished()) {
+            log.info("Analysis of {} is already running as job {}", repoUrl, current.job.getJobId());
+            return Optional.empty();
+        }
+
+        UnderstandJob job = new UnderstandJob(UUID.randomUUID().toString(), analysisId, repoUrl);
+        TrackedJob tracked = new TrackedJob(job, new UnderstandStatus(UnderstandStatusValue.PENDING, "Analysis queued"));
+        jobs.put(analysisId, tracked);
+        persist(tracked);
+        statusBroadcaster.publish(analysisId, tracked.status);
+        return Optional.of(job.getJobId());
+    }
+
+    /**
+     * Drops the job just registered for the repository, e.g. because the scheduler did not
+     * accept it; the status of the repository's previous job is served again.
+     */
+    public synchronized void discard(String analysisId) {
+        TrackedJob tracked = jobs.remove(analysisId);
+        if (tracked == null) {
+            return;
+        }
+        try {
+            repo.delete(tracked.job);
+        } catch (RuntimeException e) {
+            log.warn("Could not delete Understand job {}: {}", tracked.job.getJobId(), e.getMessage());
+        }
+        Optional<UnderstandStatus> previous = getStatus(analysisId);
+        if (previous.isPresent()) {
+            statusBroadcaster.publish(analysisId, previous.get());
+        } else {
+            statusBroadcaster.forget(analysisId);
+        }
+    }
+
+    /**
+     * Records the head commit the running job of the repository analyzes.
+     */
+    public void setCommit(String analysisId, String commitId) {
+        TrackedJob tracked = jobs.get(analysisId);
+        if (tracked == null) {
+            return;
+        }
+        synchronized (tracked) {
+            tracked.job.setCommitId(commitId);
+            persist(tracked);
+        }
+    }
+
+    /**
+     * Applies a change to the status of the repository's current job, persists and publishes it.
+     *
+     * @param analysisId The analysis ID of the repository
+     * @param change Computes the new snapshot from the current one; must not modify its argument
+     * @return The new snapshot, or null if no job is tracked for the repository
+     */
+    public UnderstandStatus update(String analysisId, UnaryOperator<UnderstandStatus> change) {
+        TrackedJob tracked = jobs.get(analysisId);
+        if (tracked == null) {
+            log.warn("Status update for unknown analysis ID {}", analysisId);
+            return null;
+        }
+        synchronized (tracked) {
+            tracked.status = change.apply(tracked.status);
+            if (tracked.status.isFinished() && tracked.finishedAt == 0) {
+                tracked.finishedAt = System.currentTimeMillis();
+            }
+            persist(tracked);
+            statusBroadcaster.publish(analysisId, tracked.status);
+            return tracked.status;
+        }
+    }
+
+    /**
+     * Applies a change that need not survive a restart, such as a queue position: it is
+     * published but not written to the database. A change returning the current status is dropped.
+     */
+    public void publishTransient(String analysisId, UnaryOperator<UnderstandStatus> change) {
+        TrackedJob tracked = jobs.get(analysisId);
+        if (tracked == null) {
+            return;
+        }
+        synchronized (tracked) {
+            UnderstandStatus changed = change.apply(tracked.status);
+            if (changed == tracked.status) {
+                return;
+            }
+            tracked.status = changed;
+            statusBroadcaster.publish(analysisId, changed);
+        }
+    }
+
+    /**
+     * @param analysisId The analysis ID of the repository
+     * @return The status of the repository's latest job, from memory or the database
+     */
+    public Optional<UnderstandStatus> getStatus(String analysisId) {
+        TrackedJob tracked = jobs.get(analysisId);
+        if (tracked != null) {
+            synchronized (tracked) {
+                return Optional.of(tracked.status);
+            }
+        }
+        try {
+            return repo.findFirstByAnalysisIdOrderByCreatedAtDesc(analysisId).map(UnderstandJob::toStatus);
+        } catch (RuntimeException e) {
+            log.warn("Could not read status of {} from the database: {}", analysisId, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Marks jobs that were pending or running when the service stopped as failed.
+     *
+     * @return The interrupted jobs
+     */
+    public List<UnderstandJob> abortInterruptedJobs() {
+        List<UnderstandJob> interrupted = repo.findByStatusIn(EnumSet.of(UnderstandStatusValue.PENDING, UnderstandStatusValue.RUNNING));
+        for (UnderstandJob job : interrupted) {
+            UnderstandStatus aborted = job.toStatus();
+            aborted.setStatus(UnderstandStatusValue.FAILED);
+            aborted.setMessage("Analysis was interrupted by a server restart.");
+            job.apply(aborted);
+        }
+        repo.saveAll(interrupted);
+        if (!interrupted.isEmpty()) {
+            log.info("Aborted {} Understand jobs interrupted by a restart", interrupted.size());
+        }
+        return interrupted;
+    }
+
+    private void persist(TrackedJob tracked) {
+        try {
+            tracked.job.apply(tracked.status);
+            repo.save(tracked.job);
+        } catch (RuntimeException e) {
+            // The in-memory status stays authoritative while the database is unavailable
+            log.warn("Could not persist Understand job {}: {}", tracked.job.getJobId(), e.getMessage());
+        }
+    }
+
+    private void evictFinishedJobs() {
+        long cutoff = System.currentTimeMillis() - retentionMinutes * 60_000L;
+        List<Map.Entry<String, TrackedJob>> finished = new ArrayList<>();
+        jobs.entrySet().removeIf(entry -> {
+            TrackedJob tracked = entry.getValue();
+            if (tracked.finishedAt == 0) {
+                return false;
+            }
+            if (tracked.finishedAt < cutoff) {
+                statusBroadcaster.forget(entry.getKey());
+                return true;
+            }
+            finished.add(entry);
+            return false;
+        });
+
+        int excess = jobs.size() - maxInMemory;
+        if (excess > 0) {
+            finished.sort(Comparator.comparingLong(entry -> entry.getValue().finishedAt));
+            for (Map.Entry<String, TrackedJob> entry : finished.subList(0, Math.min(excess, finished.size()))) {
+                jobs.remove(entry.getKey(), entry.getValue());
+                statusBroadcaster.forget(entry.getKey());
+            }
+        }
+
+        if (System.currentTimeMillis() - lastPrunedAt > pruneIntervalMinutes * 60_000L) {
+            lastPrunedAt = System.currentTimeMillis();
+            pruneStoredJobs();
+        }
+    }
+
+    private void pruneStoredJobs() {
+        try {
+            int deleted = repo.deleteFinishedBefore(LocalDateTime.now().minusDays(historyDays));
+            long excess = repo.countByFinishedAtIsNotNull() - maxStored;
+            if (excess > 0) {
+                deleted += repo.deleteByIds(repo.findOldestFinishedIds(PageRequest.of(0, (int) Math.min(excess, 1000))));
+            }
+            if (deleted > 0) {
+                log.info("Pruned {} finished Understand jobs from the database", deleted);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not prune Understand jobs: {}", e.getMessage());
+        }
+    }
+}
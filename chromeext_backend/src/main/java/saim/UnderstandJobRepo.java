@@ -0,0 +1,37 @@
+package saim;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+public interface UnderstandJobRepo extends JpaRepository<UnderstandJob, Long> {
+
+    Optional<UnderstandJob> findByJobId(String jobId);
+
+    Optional<UnderstandJob> findFirstByAnalysisIdOrderByCreatedAtDesc(String analysisId);
+
+    List<UnderstandJob> findByStatusIn(Collection<UnderstandStatusValue> statuses);
+
+    long countByFinishedAtIsNotNull();
+
+    @Query("SELECT j.id FROM UnderstandJob j WHERE j.finishedAt IS NOT NULL ORDER BY j.finishedAt ASC")
+    List<Long> findOldestFinishedIds(Pageable pageable);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM UnderstandJob j WHERE j.finishedAt IS NOT NULL AND j.finishedAt < :cutoff")
+    int deleteFinishedBefore(@Param("cutoff") LocalDateTime cutoff);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM UnderstandJob j WHERE j.id IN :ids")
+    int deleteByIds(@Param("ids") List<Long> ids);
+}
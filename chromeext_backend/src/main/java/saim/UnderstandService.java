@@ -1,25 +1,32 @@
 package saim;
 
 import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.io.*;
 import java.nio.file.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jakarta.annotation.PreDestroy;
 
 @Service
 public class UnderstandService {
@@ -53,10 +60,37 @@ public class UnderstandService {
     * running in development mode(i.e., Dashboard development) 
     ***************/
 
-    private final Map<String, UnderstandStatus> analysisJobs = new ConcurrentHashMap<>();
+    @Autowired
+    private RepositoryMirrorManager mirrorManager;
+
+    @Autowired
+    private UnderstandStatusBroadcaster statusBroadcaster;
+
+    @Autowired
+    private UnderstandDatabaseCache databaseCache;
+
+    // Status snapshots are immutable: every update stores a new UnderstandStatus
+    @Autowired
+    private UnderstandJobRegistry jobRegistry;
+
+    @Autowired
+    private UnderstandAnalysisScheduler analysisScheduler;
+
+    // Whether analyses interrupted by a restart are started again, instead of only being marked as failed
+    @Value("${understand.jobs.resume-interrupted:false}")
+    private boolean resumeInterrupted;
+
+    // Runs the previous and latest commit analyses of a job side by side
+    private final ExecutorService worktreeExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "UnderstandWorktree");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Tenant that analyses resumed after a restart are queued under
+    private static final String RESUMED_TENANT = "resumed";
 
     // Constants for Git Operations
-    private static final int GIT_CLONE_DEPTH = 10;
     private static final long CLEANUP_DELAY_MS = 3000;
     private static final int MAX_CLEANUP_RETRIES = 5;
     private static final long CLEANUP_RETRY_DELAY_MS = 1000;
@@ -65,14 +99,32 @@ public class UnderstandService {
     // Public API Methods
 
     /**
-     * Starts the asynchronous analysis of a Git repository.
+     * Queues the analysis of a Git repository on the analysis scheduler.
      *
      * @param repoUrl The URL of the Git repository to analyze.
-     * @return A CompletableFuture representing the asynchronous operation.
+     * @param tenant Identifies who requested the analysis, for fair queuing.
+     * @param credentials The GitHub credentials of the requester, used to query and fetch the repository.
+     * @param priority The priority of the analysis.
+     * @return Whether the analysis was queued (or joined a job already queued or running for
+     *         the repository), and if not, when to retry.
      */
-    @Async
-    public CompletableFuture<Void> startAnalysis(String repoUrl) {
+    public UnderstandAnalysisScheduler.Admission startAnalysis(String repoUrl, String tenant, GitHubCredentials credentials,
+                                                               UnderstandAnalysisScheduler.Priority priority) {
         String analysisId = generateAnalysisId(repoUrl);
+        log.info("Queueing analysis for ID: {} URL: {}", analysisId, repoUrl);
+        if (jobRegistry.begin(analysisId, repoUrl).isEmpty()) {
+            // The existing job's status is served for this request as well
+            return new UnderstandAnalysisScheduler.Admission(true, 0);
+        }
+        UnderstandAnalysisScheduler.Admission admission = analysisScheduler.submit(analysisId, tenant, priority,
+                () -> runAnalysis(analysisId, repoUrl, credentials));
+        if (!admission.accepted) {
+            jobRegistry.discard(analysisId);
+        }
+        return admission;
+    }
+
+    private CompletableFuture<Void> runAnalysis(String analysisId, String repoUrl, GitHubCredentials credentials) {
         log.info("Starting analysis for ID: {} URL: {}", analysisId, repoUrl);
         System.out.println("STARTED ANALYSIS: " + repoUrl);
         updateJobStatus(analysisId, UnderstandStatusValue.RUNNING, "Initializing analysis...");
@@ -83,41 +135,77 @@ public class UnderstandService {
             return handleDevelopmentMode(analysisId, repoUrl);
         }
 
-        File projectRoot = null;
-        File metricsDir = null;
-        File repoDir = null; // The directory where the repo is cloned/copied
-        Git git = null;
-        boolean cleanupNeeded = false;
-        List<String> resultFiles = new ArrayList<>();
+        List<String> resultFiles = Collections.synchronizedList(new ArrayList<>());
 
         try {
             // 1. Setup Paths
-            projectRoot = determineProjectRoot();
-            metricsDir = locateMetricsDirectory(projectRoot);
+            File projectRoot = determineProjectRoot();
+            File metricsDir = locateMetricsDirectory(projectRoot);
             log.info("Using project root: {}", projectRoot.getAbsolutePath());
             log.info("Located metrics directory: {}", metricsDir.getAbsolutePath());
             updateJobProgress(analysisId, 10);
 
-            // 2. Cloning Repository
-            repoDir = prepareRepository(repoUrl, projectRoot);
-            cleanupNeeded = true; // Mark for cleanup if cloning/copying succeeds
-            updateJobProgress(analysisId, 25);
+            // 2. Checking the Remote HEAD before fetching anything: a commit analyzed before needs no new run
+            File reposBaseDir = prepareReposBaseDirectory(repoUrl, projectRoot);
+            Optional<ObjectId> remoteHead = mirrorManager.lsRemoteHead(repoUrl, credentials);
+            remoteHead.ifPresent(id -> jobRegistry.setCommit(analysisId, id.getName()));
+            if (remoteHead.isPresent() && completeFromExistingResults(analysisId, projectRoot, repoUrl, remoteHead.get())) {
+                return CompletableFuture.completedFuture(null);
+            }
 
-            // 3. Identifying Commits
-            git = Git.open(repoDir);
-            Repository repository = git.getRepository();
-            ObjectId headId = resolveCommit(repository, "HEAD");
-            ObjectId parentId = resolveParentCommit(repository, headId);
+            // 3. Identifying Commits in the Mirror
+            ObjectId headId = mirrorManager.updateMirror(repoUrl, credentials);
+            jobRegistry.setCommit(analysisId, headId.getName());
+            if (!remoteHead.isPresent() && completeFromExistingResults(analysisId, projectRoot, repoUrl, headId)) {
+                return CompletableFuture.completedFuture(null);
+            }
+            ObjectId parentId = resolveParentCommit(repoUrl, headId);
+            String worktreeName = uniqueWorktreeName(repoUrl);
+            String outputBaseName = resultBaseName(repoUrl, headId);
+            File latestDir = new File(reposBaseDir, worktreeName);
+            File previousDir = new File(reposBaseDir, worktreeName + "_parent");
+            updateJobProgress(analysisId, 25);
 
-            // 4. Preparing Python Execution
+            // 4. Analysis of Both Commits: incrementally in the repository's cached Understand database when
+            //    there is one, otherwise in parallel, each in its own working tree sharing the mirror's objects
             File scriptWorkingDir = determineScriptWorkingDirectory();
-            List<String> baseCommand = buildPythonCommand(projectRoot, metricsDir, repoDir.getAbsolutePath());
-
-            // 5. Analysis of Commits
-            boolean previousSucceeded = analyzeCommit(analysisId, projectRoot, git, parentId, baseCommand, scriptWorkingDir, "_previous", resultFiles);
-            boolean latestSucceeded = analyzeCommit(analysisId, projectRoot, git, headId, baseCommand, scriptWorkingDir, "_latest", resultFiles);
+            AtomicInteger finishedRuns = new AtomicInteger();
+            boolean previousSucceeded;
+            boolean latestSucceeded;
+            Optional<UnderstandDatabaseCache.Entry> cacheEntry = databaseCache.acquire(repoUrl, projectRoot);
+            if (cacheEntry.isPresent()) {
+                try (UnderstandDatabaseCache.Entry entry = cacheEntry.get()) {
+                    if (entry.hasDatabase()) {
+                        log.info("Reusing Understand database of {}", repoUrl);
+                        previousSucceeded = analyzeCommitInCachedDatabase(analysisId, entry, projectRoot, metricsDir, parentId,
+                                outputBaseName, scriptWorkingDir, "_previous", resultFiles, finishedRuns);
+                        latestSucceeded = analyzeCommitInCachedDatabase(analysisId, entry, projectRoot, metricsDir, headId,
+                                outputBaseName, scriptWorkingDir, "_latest", resultFiles, finishedRuns);
+                    } else {
+                        // First analysis of the repository: the latest commit seeds the cached database
+                        CompletableFuture<Boolean> previous = CompletableFuture.supplyAsync(() -> analyzeCommitInWorktree(analysisId,
+                                projectRoot, metricsDir, repoUrl, parentId, previousDir, outputBaseName, scriptWorkingDir, "_previous",
+                                resultFiles, finishedRuns), worktreeExecutor);
+                        latestSucceeded = analyzeCommitInCachedDatabase(analysisId, entry, projectRoot, metricsDir, headId,
+                                outputBaseName, scriptWorkingDir, "_latest", resultFiles, finishedRuns);
+                        previousSucceeded = previous.join();
+                    }
+                }
+            } else {
+                // Every working tree is cleaned up as soon as its run is done
+                CompletableFuture<Boolean> previous = CompletableFuture.supplyAsync(() -> analyzeCommitInWorktree(analysisId, projectRoot,
+                        metricsDir, repoUrl, parentId, previousDir, outputBaseName, scriptWorkingDir, "_previous", resultFiles, finishedRuns),
+                        worktreeExecutor);
+                CompletableFuture<Boolean> latest = CompletableFuture.supplyAsync(() -> analyzeCommitInWorktree(analysisId, projectRoot,
+                        metricsDir, repoUrl, headId, latestDir, outputBaseName, scriptWorkingDir, "_latest", resultFiles, finishedRuns),
+                        worktreeExecutor);
+                previousSucceeded = previous.join();
+                latestSucceeded = latest.join();
+            }
+            // Keep the order of the sequential runs: previous before latest
+            resultFiles.sort(Comparator.comparing(fileName -> !fileName.endsWith("_previous.json")));
 
-            // 6. Setting Final Status
+            // 5. Setting Final Status
             setFinalAnalysisStatus(analysisId, previousSucceeded, latestSucceeded, resultFiles);
 
             log.info("Analysis process completed for ID: {}", analysisId);
@@ -128,19 +216,38 @@ public class UnderstandService {
             System.err.println("ANALYSIS ERROR: " + e.getMessage());
             e.printStackTrace();
             updateJobStatus(analysisId, UnderstandStatusValue.FAILED, "Critical error: " + e.getMessage());
-            // For ensuring that cleanup doesn't run if setup failed before repo dir was set
-            if (repoDir == null) {
-                cleanupNeeded = false;
-            }
             return CompletableFuture.failedFuture(e);
-        } finally {
-            // 7. Cleanup
-            closeGitRepository(git);
-            if (cleanupNeeded && repoDir != null) {
-                performPostExecutionCleanup(repoDir);
-            } else {
-                log.info("Skipping post-execution cleanup for ID: {}", analysisId);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        worktreeExecutor.shutdownNow();
+    }
+
+    /**
+     * Marks analyses that were running when the service stopped as failed, and optionally
+     * starts them again.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void recoverInterruptedAnalyses() {
+        try {
+            List<UnderstandJob> interrupted = jobRegistry.abortInterruptedJobs();
+            if (!resumeInterrupted) {
+                return;
             }
+            interrupted.stream().map(UnderstandJob::getRepoUrl).distinct().forEach(repoUrl -> {
+                log.info("Resuming analysis of {} interrupted by a restart", repoUrl);
+                // The requester's credentials are not persisted, so only public repositories can be resumed.
+                // Each repository queues as its own tenant, so the per-tenant limit does not drop resumptions
+                UnderstandAnalysisScheduler.Admission admission = startAnalysis(repoUrl, RESUMED_TENANT + ":" + repoUrl,
+                        GitHubCredentials.anonymous(), UnderstandAnalysisScheduler.Priority.BACKGROUND);
+                if (!admission.accepted) {
+                    log.warn("Could not resume analysis of {}: the analysis queue is full", repoUrl);
+                }
+            });
+        } catch (Exception e) {
+            log.error("Could not recover interrupted analyses: {}", e.getMessage(), e);
         }
     }
 
@@ -153,7 +260,17 @@ public class UnderstandService {
     public UnderstandStatus getStatus(String repoUrl) {
         String analysisId = generateAnalysisId(repoUrl);
         // Return PENDING if not found, or the actual status
-        return analysisJobs.getOrDefault(analysisId, new UnderstandStatus(UnderstandStatusValue.PENDING));
+        return jobRegistry.getStatus(analysisId).orElseGet(() -> new UnderstandStatus(UnderstandStatusValue.PENDING));
+    }
+
+    /**
+     * Subscribes to status changes of an analysis job instead of polling getStatus.
+     *
+     * @param repoUrl The URL of the repository whose status is requested.
+     * @return An SSE emitter receiving a "status" event for the current and every later snapshot.
+     */
+    public SseEmitter watchStatus(String repoUrl) {
+        return statusBroadcaster.subscribe(generateAnalysisId(repoUrl), () -> getStatus(repoUrl));
     }
 
     // Private Helper Methods for Setup & Preparation
@@ -255,26 +372,24 @@ public class UnderstandService {
 
     // Private Helper Methods for Git Operations
 
-    private File prepareRepository(String repoUrlOrPath, File projectRoot) throws IOException, GitAPIException {
+    private File prepareReposBaseDirectory(String repoUrlOrPath, File projectRoot) throws IOException {
+        if (!isGitUrl(repoUrlOrPath)) {
+           log.error("Local paths are not supported for analysis: {}", repoUrlOrPath);
+           throw new IllegalArgumentException("Analysis currently only supports Git URLs, not local paths.");
+        }
+
         File reposBaseDir = new File(projectRoot, reposDirName);
         if (!reposBaseDir.exists() && !reposBaseDir.mkdirs()) {
             throw new IOException("Failed to create base repository directory: " + reposBaseDir.getAbsolutePath());
         }
-
-        if (isGitUrl(repoUrlOrPath)) {
-            log.info("Input is a URL, attempting to clone...");
-            return cloneRepository(repoUrlOrPath, reposBaseDir);
-        } else {
-           log.error("Local paths are not supported for analysis: {}", repoUrlOrPath);
-           throw new IllegalArgumentException("Analysis currently only supports Git URLs, not local paths.");
-        }
+        return reposBaseDir;
     }
 
     private boolean isGitUrl(String path) {
         return path.startsWith("http://") || path.startsWith("https://") || path.startsWith("git@");
     }
 
-    private File cloneRepository(String repoUrl, File reposBaseDir) throws GitAPIException, IOException {
+    private String uniqueWorktreeName(String repoUrl) {
         String repoName = repoUrl.substring(repoUrl.lastIndexOf('/') + 1);
         if (repoName.endsWith(".git")) {
             repoName = repoName.substring(0, repoName.length() - 4);
@@ -282,42 +397,50 @@ public class UnderstandService {
 
         // Use a unique directory to avoid conflicts
         String uniqueId = String.valueOf(System.currentTimeMillis()).substring(6);
-        File localRepoDir = new File(reposBaseDir, repoName + "_" + uniqueId);
-
-        log.info("Cloning repository with depth {} to: {}", GIT_CLONE_DEPTH, localRepoDir.getAbsolutePath());
-
-        try (Git git = Git.cloneRepository()
-                .setURI(repoUrl)
-                .setDirectory(localRepoDir)
-                .setCloneAllBranches(false) // Only need default branch usually
-                .setDepth(GIT_CLONE_DEPTH)  // Limit history depth
-                .setNoCheckout(false)    // Checkout the default branch
-                .call()) {
-            log.info("Clone completed successfully for {}", repoUrl);
-            return localRepoDir;
-        } catch (Exception e) {
-            log.error("Failed to clone repository {}: {}", repoUrl, e.getMessage());
-            // Attempt cleanup if clone failed partially
-            if (localRepoDir.exists()) {
-                 deleteDirectoryRecursively(localRepoDir.toPath());
-            }
-            if (e instanceof GitAPIException) throw (GitAPIException) e;
-            if (e instanceof IOException) throw (IOException) e;
-            throw new IOException("Cloning failed due to unexpected error: " + e.getMessage(), e);
+        return repoName + "_" + uniqueId;
+    }
+
+    // Results are named after the analyzed commit, so the name doubles as the (repository, SHA) index
+    private String resultBaseName(String repoUrl, ObjectId headId) {
+        String repoName = repoUrl.substring(repoUrl.lastIndexOf('/') + 1);
+        if (repoName.endsWith(".git")) {
+            repoName = repoName.substring(0, repoName.length() - 4);
         }
+        return repoName + "_" + headId.abbreviate(12).name();
     }
 
-     private ObjectId resolveCommit(Repository repository, String revString) throws IOException {
-        ObjectId commitId = repository.resolve(revString);
-        if (commitId == null) {
-            throw new IOException("Could not resolve revision: " + revString);
+    /**
+     * Completes the job with the output files of an earlier analysis of the same commit.
+     *
+     * @return Whether results for the commit existed; if not, nothing was changed
+     */
+    private boolean completeFromExistingResults(String analysisId, File projectRoot, String repoUrl, ObjectId headId) {
+        String baseName = resultBaseName(repoUrl, headId);
+        File outputDir = new File(projectRoot, outputDirName);
+        File latest = new File(outputDir, baseName + "_latest.json");
+        if (!latest.isFile() || latest.length() == 0) {
+            return false;
+        }
+
+        List<String> resultFiles = new ArrayList<>();
+        File previous = new File(outputDir, baseName + "_previous.json");
+        if (previous.isFile() && previous.length() > 0) {
+            resultFiles.add(previous.getName());
         }
-        log.info("Resolved {} to commit ID: {}", revString, commitId.getName());
-        return commitId;
+        resultFiles.add(latest.getName());
+        log.info("Commit {} of {} was analyzed before, reusing {}", headId.getName(), repoUrl, resultFiles);
+
+        UnderstandStatus finalStatus = new UnderstandStatus(UnderstandStatusValue.COMPLETED);
+        finalStatus.setMessage("Latest commit " + headId.abbreviate(7).name() + " was analyzed before; using the existing results.");
+        finalStatus.setOutputFiles(resultFiles.toArray(new String[0]));
+        finalStatus.setProgress(100);
+        publishStatus(analysisId, finalStatus);
+        return true;
     }
 
-    private ObjectId resolveParentCommit(Repository repository, ObjectId childCommitId) throws IOException {
-        try (RevWalk revWalk = new RevWalk(repository)) {
+    private ObjectId resolveParentCommit(String repoUrl, ObjectId childCommitId) throws IOException {
+        try (Git mirror = Git.open(mirrorManager.getMirrorDirectory(repoUrl));
+             RevWalk revWalk = new RevWalk(mirror.getRepository())) {
             RevCommit childCommit = revWalk.parseCommit(childCommitId);
             if (childCommit.getParentCount() > 0) {
                 RevCommit parentCommit = revWalk.parseCommit(childCommit.getParent(0).getId());
@@ -330,41 +453,109 @@ public class UnderstandService {
         }
     }
 
-    private void closeGitRepository(Git git) {
-        if (git != null) {
-            log.info("Closing Git repository object.");
-            git.close();
+    /**
+     * Checks the commit out into its own working tree (sharing the mirror's objects), runs the
+     * metrics script on it and removes the working tree again.
+     *
+     * @return Whether the metrics of the commit were saved
+     */
+    private boolean analyzeCommitInWorktree(String analysisId, File projectRoot, File metricsDir, String repoUrl, ObjectId commitId,
+                                            File worktreeDir, String outputBaseName, File scriptWorkingDir,
+                                            String fileSuffix, List<String> resultFiles, AtomicInteger finishedRuns) {
+        if (commitId == null) {
+            log.info("Skipping analysis for null commit ID (suffix: {}).", fileSuffix);
+            updateJobProgress(analysisId, 25 + 35 * finishedRuns.incrementAndGet());
+            return fileSuffix.equals("_previous");
+        }
+
+        try {
+            log.info("Checking out {} from mirror to: {}", commitId.getName(), worktreeDir.getAbsolutePath());
+            try (Git git = mirrorManager.createSharedWorkingCopy(repoUrl, commitId, worktreeDir)) {
+                log.info("Working tree ready for commit {}", commitId.getName());
+            }
+            List<String> command = buildPythonCommand(projectRoot, metricsDir, worktreeDir.getAbsolutePath());
+            return analyzeCommit(analysisId, projectRoot, commitId, command, scriptWorkingDir, outputBaseName, fileSuffix, resultFiles);
+        } catch (Exception e) {
+            log.error("Failed to analyze commit {} (Suffix: {}): {}", commitId.getName(), fileSuffix, e.getMessage(), e);
+            updateJobStatus(analysisId, UnderstandStatusValue.RUNNING, "Commit " + commitId.getName().substring(0,7) + " analysis failed: " + e.getMessage());
+            return false;
+        } finally {
+            if (worktreeDir.exists()) {
+                performPostExecutionCleanup(worktreeDir);
+            }
+            updateJobProgress(analysisId, 25 + 35 * finishedRuns.incrementAndGet());
         }
     }
 
-    // Private Helper Methods for Python Script Execution & Handling
-
-     private boolean analyzeCommit(String analysisId, File projectRoot, Git git, ObjectId commitId,
-                                List<String> baseCommand, File scriptWorkingDir,
-                                String fileSuffix, List<String> resultFiles) throws IOException {
+    /**
+     * Moves the cached working tree to the commit, which rewrites only the files that differ from
+     * the last analyzed commit, and lets Understand re-analyze just the changed files. A failed
+     * incremental run is retried as a full analysis of the same database; if that fails too, the
+     * cache entry is discarded.
+     *
+     * @return Whether the metrics of the commit were saved
+     */
+    private boolean analyzeCommitInCachedDatabase(String analysisId, UnderstandDatabaseCache.Entry entry, File projectRoot,
+                                                  File metricsDir, ObjectId commitId, String outputBaseName, File scriptWorkingDir,
+                                                  String fileSuffix, List<String> resultFiles, AtomicInteger finishedRuns) {
         if (commitId == null) {
             log.info("Skipping analysis for null commit ID (suffix: {}).", fileSuffix);
+            updateJobProgress(analysisId, 25 + 35 * finishedRuns.incrementAndGet());
             return fileSuffix.equals("_previous");
         }
 
+        try {
+            boolean incremental = entry.hasDatabase();
+            log.info("Checking out {} in cached working tree: {}", commitId.getName(), entry.getSourceDir().getAbsolutePath());
+            File removedFiles = entry.checkout(commitId);
+
+            List<String> command = buildPythonCommand(projectRoot, metricsDir, entry.getSourceDir().getAbsolutePath());
+            if (removedFiles != null) {
+                command.add("--removed_list");
+                command.add(removedFiles.getAbsolutePath());
+            }
+            boolean success = false;
+            if (incremental) {
+                List<String> incrementalCommand = new ArrayList<>(command);
+                incrementalCommand.add("--incremental");
+                success = analyzeCommit(analysisId, projectRoot, commitId, incrementalCommand, scriptWorkingDir, outputBaseName, fileSuffix, resultFiles);
+                if (!success) {
+                    log.warn("Incremental analysis of {} failed, re-analyzing the whole database", commitId.getName());
+                }
+            }
+            if (!success) {
+                success = analyzeCommit(analysisId, projectRoot, commitId, command, scriptWorkingDir, outputBaseName, fileSuffix, resultFiles);
+            }
+
+            if (success) {
+                entry.markAnalyzed(commitId);
+            } else {
+                entry.invalidate();
+            }
+            return success;
+        } catch (Exception e) {
+            log.error("Failed to analyze commit {} (Suffix: {}): {}", commitId.getName(), fileSuffix, e.getMessage(), e);
+            updateJobStatus(analysisId, UnderstandStatusValue.RUNNING, "Commit " + commitId.getName().substring(0,7) + " analysis failed: " + e.getMessage());
+            entry.invalidate();
+            return false;
+        } finally {
+            updateJobProgress(analysisId, 25 + 35 * finishedRuns.incrementAndGet());
+        }
+    }
+
+    // Private Helper Methods for Python Script Execution & Handling
+
+     private boolean analyzeCommit(String analysisId, File projectRoot, ObjectId commitId,
+                                List<String> baseCommand, File scriptWorkingDir, String outputBaseName,
+                                String fileSuffix, List<String> resultFiles) {
         log.info("--- Analyzing Commit {} (Suffix: {}) ---", commitId.getName(), fileSuffix);
         updateJobStatus(analysisId, UnderstandStatusValue.RUNNING, "Analyzing commits...");
-        
-        // Set progress based on which commit we're analyzing
-        if (fileSuffix.equals("_previous")) {
-            updateJobProgress(analysisId, 50);
-        } else if (fileSuffix.equals("_latest")) {
-            updateJobProgress(analysisId, 99);
-        }
 
         boolean success = false;
         String jsonOutput = null; // Will hold the actual json output
         String errorMessage = "";
 
         try {
-            log.info("Checking out commit: {}", commitId.getName());
-            git.checkout().setName(commitId.getName()).call();
-
             // Log for confirming the commit which is being analyzed
             log.info("Executing Python script for commit: {}", commitId.getName());
             PythonExecutionResult result = executePythonScript(baseCommand, scriptWorkingDir);
@@ -388,17 +579,10 @@ public class UnderstandService {
             success = false; // Mark as failed due to exception
         }
 
-        // Update progress after commit analysis is complete
-        if (fileSuffix.equals("_previous")) {
-            updateJobProgress(analysisId, 55);
-        } else if (fileSuffix.equals("_latest")) {
-            updateJobProgress(analysisId, 85);
-        }
-
         // Only save the result if the script succeeded and produced output
         if (success && jsonOutput != null) {
             try {
-                handleMetricsResult(projectRoot, baseCommand.get(2), jsonOutput, fileSuffix, resultFiles);
+                handleMetricsResult(projectRoot, outputBaseName, jsonOutput, fileSuffix, resultFiles);
                 // Update status only if there was a warning during processing
                 if (!errorMessage.isEmpty()) {
                     updateJobStatus(analysisId, UnderstandStatusValue.RUNNING, "Commit " + commitId.getName().substring(0,7) + " analysis warning: " + errorMessage);
@@ -545,14 +729,13 @@ public class UnderstandService {
         }
     }
 
-    private void handleMetricsResult(File projectRoot, String repoPath, String jsonOutput, String suffix, List<String> resultFiles) throws IOException {
+    private void handleMetricsResult(File projectRoot, String repoName, String jsonOutput, String suffix, List<String> resultFiles) throws IOException {
         if (jsonOutput == null || jsonOutput.isEmpty()) {
             log.warn("Empty JSON output, skipping metrics file creation");
             return;
         }
 
-        // Extract repository name from repo path
-        String repoName = new File(repoPath).getName();
+        // Both commits are named after the latest commit, e.g. repo_1a2b3c4d5e6f_previous.json
         
         // Create output directory if it doesn't exist
         File outputDir = new File(projectRoot, outputDirName);
@@ -566,9 +749,13 @@ public class UnderstandService {
         File outputFile = new File(outputDir, outputFileName);
         log.info("Creating metrics output file: {}", outputFile.getAbsolutePath());
         
-        // Write the JSON to the output file
-        try (FileWriter writer = new FileWriter(outputFile)) {
+        // Write the JSON to a temporary file first: an existing output file is taken as a finished analysis of its commit
+        File tempFile = new File(outputDir, outputFileName + ".tmp");
+        try (FileWriter writer = new FileWriter(tempFile)) {
             writer.write(jsonOutput);
+        }
+        try {
+            Files.move(tempFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
             log.info("Successfully wrote {} bytes to metrics file: {}", jsonOutput.length(), outputFile.getAbsolutePath());
             
             // Verify file was created
@@ -587,31 +774,31 @@ public class UnderstandService {
     // Private Helper Methods for Status Update & Finalization
 
      private void updateJobStatus(String analysisId, UnderstandStatusValue status, String message) {
-        analysisJobs.compute(analysisId, (id, currentStatus) -> {
-            if (currentStatus == null) {
-                return new UnderstandStatus(status, message);
-            }
+        jobRegistry.update(analysisId, currentStatus -> {
             if (currentStatus.getStatus() == UnderstandStatusValue.FAILED && status != UnderstandStatusValue.FAILED) {
                 return currentStatus;
             }
-            currentStatus.setStatus(status);
-            currentStatus.setMessage(message); // Update message
-            return currentStatus;
+            UnderstandStatus updated = new UnderstandStatus(currentStatus);
+            updated.setStatus(status);
+            updated.setMessage(message); // Update message
+            return updated;
         });
          log.info("Status updated for ID {}: {} - {}", analysisId, status, message);
     }
 
      private void updateJobProgress(String analysisId, int progress) {
-        analysisJobs.compute(analysisId, (id, currentStatus) -> {
-            if (currentStatus == null) {
-                return new UnderstandStatus(UnderstandStatusValue.RUNNING, progress);
-            }
-            currentStatus.setProgress(progress);
-            return currentStatus;
+        jobRegistry.update(analysisId, currentStatus -> {
+            UnderstandStatus updated = new UnderstandStatus(currentStatus);
+            updated.setProgress(progress);
+            return updated;
         });
         log.info("Progress updated for ID {}: {}%", analysisId, progress);
     }
 
+     private void publishStatus(String analysisId, UnderstandStatus snapshot) {
+         jobRegistry.update(analysisId, currentStatus -> snapshot);
+     }
+
      private void setFinalAnalysisStatus(String analysisId, boolean previousSucceeded, boolean latestSucceeded, List<String> resultFiles) {
          UnderstandStatus finalStatus;
          
@@ -632,7 +819,7 @@ public class UnderstandService {
          
          finalStatus.setOutputFiles(resultFiles.toArray(new String[0]));
          finalStatus.setProgress(100); // Set progress to 100% when completed
-         analysisJobs.put(analysisId, finalStatus); // Overwrite with final status
+         publishStatus(analysisId, finalStatus); // Overwrite with final status
          log.info("Final status set for ID {}: {} - {}", analysisId, finalStatus.getStatus(), finalStatus.getMessage());
      }
 
@@ -782,8 +969,8 @@ public class UnderstandService {
             }
 
             // Define regex patterns for the filenames
-            String previousFilePattern = repoName + "_\\d+_previous\\.json";
-            String latestFilePattern = repoName + "_\\d+_latest\\.json";
+            String previousFilePattern = repoName + "_[0-9a-f]+_previous\\.json";
+            String latestFilePattern = repoName + "_[0-9a-f]+_latest\\.json";
 
             List<String> resultFiles = new ArrayList<>();
 
@@ -827,7 +1014,7 @@ public class UnderstandService {
             finalStatus.setMessage("Development mode: Using existing metrics files");
             finalStatus.setOutputFiles(resultFiles.toArray(new String[0]));
             finalStatus.setProgress(100);
-            analysisJobs.put(analysisId, finalStatus);
+            publishStatus(analysisId, finalStatus);
             
             log.info("DEVELOPMENT MODE: Completed for {}", repoUrl);
             return CompletableFuture.completedFuture(null);
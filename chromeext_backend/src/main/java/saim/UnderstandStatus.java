@@ -6,6 +6,8 @@ public class UnderstandStatus {
     public String message; // Optional: for error messages
     public String[] outputFiles; // Optional: paths or names of result files
     public int progress; // Progress percentage (0-100)
+    public Integer queuePosition; // Position among waiting analyses (1 = next to start), null unless queued
+    public Long estimatedStartAt; // Estimated start in epoch milliseconds, null unless queued
 
     // Default constructor for frameworks like Jackson (JSON serialization)
     public UnderstandStatus() {}
@@ -32,6 +34,20 @@ public class UnderstandStatus {
         this.progress = progress;
     }
 
+    // Copy constructor: UnderstandService publishes a new snapshot for every change instead of mutating a shared one
+    public UnderstandStatus(UnderstandStatus other) {
+        this.status = other.status;
+        this.message = other.message;
+        this.outputFiles = other.outputFiles != null ? other.outputFiles.clone() : null;
+        this.progress = other.progress;
+        this.queuePosition = other.queuePosition;
+        this.estimatedStartAt = other.estimatedStartAt;
+    }
+
+    public boolean isFinished() {
+        return status == UnderstandStatusValue.COMPLETED || status == UnderstandStatusValue.FAILED;
+    }
+
     // Getters and setters might be needed depending on JSON library or usage
     public UnderstandStatusValue getStatus() {
         return status;
@@ -64,4 +80,20 @@ public class UnderstandStatus {
     public void setProgress(int progress) {
         this.progress = progress;
     }
+
+    public Integer getQueuePosition() {
+        return queuePosition;
+    }
+
+    public void setQueuePosition(Integer queuePosition) {
+        this.queuePosition = queuePosition;
+    }
+
+    public Long getEstimatedStartAt() {
+        return estimatedStartAt;
+    }
+
+    public void setEstimatedStartAt(Long estimatedStartAt) {
+        this.estimatedStartAt = estimatedStartAt;
+    }
 }
@@ -0,0 +1,248 @@
+package saim;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Pushes Understand analysis status snapshots to Server-Sent Events subscribers.
+ * Sends happen on a small pool of sender threads, so analysis workers never block on slow
+ * clients. Every subscriber is sent to by at most one thread at a time, and bursts of updates
+ * collapse into a single send of the latest snapshot. A subscriber whose send has not
+ * finished within the send timeout is dropped, so a slow client holds up neither the other
+ * watchers nor more than one sender thread.
+ */
+@Component
+public class UnderstandStatusBroadcaster {
+
+    private static final Logger log = LoggerFactory.getLogger(UnderstandStatusBroadcaster.class);
+
+    @Value("${understand.status.stream.timeout-minutes:30}")
+    private long streamTimeoutMinutes;
+
+    private final long sendTimeoutMillis;
+
+    private final Map<String, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final Map<String, UnderstandStatus> latest = new ConcurrentHashMap<>();
+
+    private final ExecutorService senders;
+
+    private final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "UnderstandStatusHeartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public UnderstandStatusBroadcaster(@Value("${understand.status.stream.heartbeat-seconds:15}") long heartbeatSeconds,
+                                       @Value("${understand.status.stream.sender-threads:4}") int senderThreads,
+                                       @Value("${understand.status.stream.send-timeout-seconds:10}") long sendTimeoutSeconds) {
+        this.sendTimeoutMillis = TimeUnit.SECONDS.toMillis(sendTimeoutSeconds);
+        AtomicInteger threadCount = new AtomicInteger();
+        this.senders = Executors.newFixedThreadPool(senderThreads, runnable -> {
+            Thread thread = new Thread(runnable, "UnderstandStatusStream-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Keeps idle connections open through proxies, detects clients that went away and drops slow ones
+        heartbeats.scheduleAtFixedRate(this::checkSubscribers, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Registers a subscriber. The current snapshot is sent first, followed by every later change.
+     * The stream is completed once the analysis reaches COMPLETED or FAILED.
+     *
+     * @param analysisId The analysis to watch
+     * @param currentStatus Supplies the current snapshot if none has been published yet
+     * @return The emitter to return from the controller
+     */
+    public SseEmitter subscribe(String analysisId, Supplier<UnderstandStatus> currentStatus) {
+        SseEmitter emitter = new SseEmitter(TimeUnit.MINUTES.toMillis(streamTimeoutMinutes));
+        Subscriber subscriber = new Subscriber(analysisId, emitter);
+        subscribers.computeIfAbsent(analysisId, id -> new CopyOnWriteArraySet<>()).add(subscriber);
+        emitter.onCompletion(() -> unsubscribe(subscriber));
+        emitter.onTimeout(() -> unsubscribe(subscriber));
+        emitter.onError(e -> unsubscribe(subscriber));
+
+        // Read after registering, so a snapshot published meanwhile is either read here or offered to the subscriber
+        UnderstandStatus snapshot = latest.get(analysisId);
+        if (snapshot == null) {
+            snapshot = currentStatus.get();
+        }
+        subscriber.offerInitial(snapshot);
+        return emitter;
+    }
+
+    /**
+     * Publishes a new snapshot. The snapshot must not be modified afterwards.
+     *
+     * @param analysisId The analysis that changed
+     * @param snapshot Its new status
+     */
+    public void publish(String analysisId, UnderstandStatus snapshot) {
+        Set<Subscriber> watching = subscribers.get(analysisId);
+        if (snapshot.isFinished() && watching == null) {
+            // Nobody watches and no further updates follow; later subscribers read the job registry
+            latest.remove(analysisId);
+            return;
+        }
+        latest.put(analysisId, snapshot);
+        if (watching != null) {
+            watching.forEach(subscriber -> subscriber.offer(snapshot));
+        }
+    }
+
+    /**
+     * Drops the last snapshot of an analysis that is no longer tracked, unless someone still watches it.
+     *
+     * @param analysisId The analysis to forget
+     */
+    public void forget(String analysisId) {
+        if (!subscribers.containsKey(analysisId)) {
+            latest.remove(analysisId);
+        }
+    }
+
+    public int subscriberCount() {
+        return subscribers.values().stream().mapToInt(Set::size).sum();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        heartbeats.shutdownNow();
+        senders.shutdownNow();
+    }
+
+    private void checkSubscribers() {
+        long now = System.currentTimeMillis();
+        subscribers.values().forEach(watching -> watching.forEach(subscriber -> {
+            long sendingSince = subscriber.sendingSince;
+            if (sendingSince != 0 && now - sendingSince > sendTimeoutMillis) {
+                log.info("Dropping status subscriber for ID {}: send blocked for {}ms", subscriber.analysisId, now - sendingSince);
+                subscriber.drop(new IOException("Send timed out"));
+            } else {
+                subscriber.offerHeartbeat();
+            }
+        }));
+    }
+
+    private void unsubscribe(Subscriber subscriber) {
+        subscriber.dropped.set(true);
+        subscribers.computeIfPresent(subscriber.analysisId, (id, watching) -> {
+            watching.remove(subscriber);
+            return watching.isEmpty() ? null : watching;
+        });
+        // The last watcher of a finished analysis is gone, so its snapshot is no longer needed
+        UnderstandStatus snapshot = latest.get(subscriber.analysisId);
+        if (snapshot != null && snapshot.isFinished() && !subscribers.containsKey(subscriber.analysisId)) {
+            latest.remove(subscriber.analysisId, snapshot);
+        }
+    }
+
+    // One SSE connection; only the newest unsent snapshot is kept while a send is in progress
+    private class Subscriber {
+        final String analysisId;
+        final SseEmitter emitter;
+        final AtomicReference<UnderstandStatus> pending = new AtomicReference<>();
+        final AtomicBoolean heartbeatDue = new AtomicBoolean();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        final AtomicBoolean dropped = new AtomicBoolean();
+        volatile long sendingSince;
+
+        Subscriber(String analysisId, SseEmitter emitter) {
+            this.analysisId = analysisId;
+            this.emitter = emitter;
+        }
+
+        void offer(UnderstandStatus snapshot) {
+            pending.set(snapshot);
+            schedule();
+        }
+
+        // Does not replace a snapshot published while the subscriber registered
+        void offerInitial(UnderstandStatus snapshot) {
+            pending.compareAndSet(null, snapshot);
+            schedule();
+        }
+
+        void offerHeartbeat() {
+            heartbeatDue.set(true);
+            schedule();
+        }
+
+        void drop(Exception cause) {
+            unsubscribe(this);
+            try {
+                emitter.completeWithError(cause);
+            } catch (IllegalStateException e) {
+                // Already completed
+            }
+        }
+
+        private void schedule() {
+            if (dropped.get() || !scheduled.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                senders.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+            }
+        }
+
+        private void drain() {
+            try {
+                while (!dropped.get()) {
+                    UnderstandStatus snapshot = pending.getAndSet(null);
+                    boolean heartbeat = heartbeatDue.getAndSet(false);
+                    if (snapshot == null && !heartbeat) {
+                        return;
+                    }
+                    sendingSince = System.currentTimeMillis();
+                    try {
+                        if (snapshot != null) {
+                            emitter.send(SseEmitter.event().name("status").data(snapshot));
+                            if (snapshot.isFinished()) {
+                                unsubscribe(this);
+                                emitter.complete();
+                                return;
+                            }
+                        } else {
+                            emitter.send(SseEmitter.event().comment("heartbeat"));
+                        }
+                    } catch (IOException | IllegalStateException e) {
+                        log.debug("Dropping status subscriber for ID {}: {}", analysisId, e.getMessage());
+                        unsubscribe(this);
+                        return;
+                    } finally {
+                        sendingSince = 0;
+                    }
+                }
+            } finally {
+                scheduled.set(false);
+                // Something may have been offered after the loop found nothing to send
+                if (pending.get() != null || heartbeatDue.get()) {
+                    schedule();
+                }
+            }
+        }
+    }
+}
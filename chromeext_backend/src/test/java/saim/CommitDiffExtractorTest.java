@@ -0,0 +1,119 @@
+package saim;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class CommitDiffExtractorTest {
+
+    @TempDir
+    File repoDir;
+
+    @Test
+    public void lockfilesGeneratedAndBinaryFilesAreSkipped() throws Exception {
+        try (Git git = Git.init().setDirectory(repoDir).call()) {
+            commit(git, Map.of("src/Main.java", "class Main {\n}\n"));
+            RevCommit commit = commit(git, Map.of(
+                    "src/Main.java", "class Main {\n    void run() {}\n}\n",
+                    "package-lock.json", "{}\n",
+                    "web/node_modules/lib/index.js", "module.exports = 1;\n",
+                    "web/app.min.js", "var a=1;\n",
+                    "logo.png", "\u0000\u0001binary"));
+
+            String diff = extractor(30000, 6000).formatDiff(git.getRepository(), commit.getName());
+
+            assertTrue(diff.contains("+++ b/src/Main.java"));
+            assertTrue(diff.contains("+    void run() {}"));
+            assertFalse(diff.contains("\nindex "));
+            assertFalse(diff.contains("+++ b/package-lock.json"));
+            assertTrue(diff.contains("Lockfiles, generated and binary files not shown: "));
+            assertTrue(diff.contains("package-lock.json"));
+            assertTrue(diff.contains("web/node_modules/lib/index.js"));
+            assertTrue(diff.contains("web/app.min.js"));
+            assertTrue(diff.contains("logo.png"));
+        }
+    }
+
+    @Test
+    public void largeFilesAreCutAndTheTotalIsCapped() throws Exception {
+        try (Git git = Git.init().setDirectory(repoDir).call()) {
+            commit(git, Map.of("README.md", "readme\n"));
+            RevCommit commit = commit(git, Map.of(
+                    "a/Big.java", "// line\n".repeat(500),
+                    "b/Other.java", "// other\n".repeat(100)));
+
+            String diff = extractor(1500, 1000).formatDiff(git.getRepository(), commit.getName());
+
+            assertTrue(diff.contains("+++ b/a/Big.java"));
+            assertTrue(diff.contains("more characters of this file omitted"));
+            assertFalse(diff.contains("+++ b/b/Other.java"));
+            assertTrue(diff.contains("Files not shown because the diff is too large: b/Other.java"));
+        }
+    }
+
+    @Test
+    public void firstCommitIsDiffedAgainstTheEmptyTree() throws Exception {
+        try (Git git = Git.init().setDirectory(repoDir).call()) {
+            RevCommit commit = commit(git, Map.of("src/Main.java", "class Main {\n}\n"));
+
+            String diff = extractor(30000, 6000).formatDiff(git.getRepository(), commit.getName());
+
+            assertTrue(diff.contains("new file mode"));
+            assertTrue(diff.contains("+class Main {"));
+        }
+    }
+
+    @Test
+    public void sameChangeAtOtherLinesHasTheSamePatchId() throws Exception {
+        String filler = "// filler\n".repeat(10);
+        try (Git git = Git.init().setDirectory(repoDir).call()) {
+            commit(git, Map.of("src/Main.java", filler + "int a;\nint b;\nint c;\n"));
+            RevCommit original = commit(git, Map.of("src/Main.java", filler + "int a;\nlong b;\nint c;\n"));
+            RevCommit shift = commit(git, Map.of("src/Main.java", "// header\n" + filler + "int a;\nint b;\nint c;\n"));
+            // Applied again two commits later, like a cherry-pick onto a branch that moved the code down a line
+            RevCommit picked = commit(git, Map.of("src/Main.java", "// header\n" + filler + "int a;\nlong  b;\nint c;\n"));
+
+            CommitDiffExtractor extractor = extractor(30000, 6000);
+            String patchId = extractor.diff(git.getRepository(), original.getName()).getPatchId();
+
+            assertEquals(patchId, extractor.diff(git.getRepository(), picked.getName()).getPatchId());
+            assertNotEquals(patchId, extractor.diff(git.getRepository(), shift.getName()).getPatchId());
+        }
+    }
+
+    private CommitDiffExtractor extractor(int maxChars, int maxFileChars) {
+        CommitDiffExtractor extractor = new CommitDiffExtractor();
+        ReflectionTestUtils.setField(extractor, "maxChars", maxChars);
+        ReflectionTestUtils.setField(extractor, "maxFileChars", maxFileChars);
+        ReflectionTestUtils.setField(extractor, "contextLines", 2);
+        return extractor;
+    }
+
+    private RevCommit commit(Git git, Map<String, String> files) throws Exception {
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            write(new File(repoDir, file.getKey()), file.getValue());
+        }
+        git.add().addFilepattern(".").call();
+        PersonIdent ident = new PersonIdent("Test", "test@example.com");
+        return git.commit().setMessage("change").setAuthor(ident).setCommitter(ident).setSign(false).call();
+    }
+
+    private void write(File file, String content) throws IOException {
+        file.getParentFile().mkdirs();
+        Files.writeString(file.toPath(), content, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,84 @@
+package saim;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Optional;
+
+import org.junit.jupiter.api.Test;
+
+public class CommitSummaryCacheTest {
+
+    private static final String REPO = "https://github.com/owner/repo";
+    private static final String SHA_A = "abc1230000000000000000000000000000000001";
+    private static final String SHA_B = "abc1240000000000000000000000000000000002";
+
+    @Test
+    public void abbreviatedKeyResolvesToTheOnlyMatchingCommit() {
+        CommitSummaryCache cache = new CommitSummaryCache(10, 60);
+        cache.put(REPO + "@" + SHA_A, "summary a");
+        cache.put(REPO + "@" + SHA_B, "summary b");
+
+        assertEquals(Optional.of("summary a"), cache.get(REPO + "@abc123"));
+        assertEquals(Optional.of(REPO + "@" + SHA_B), cache.resolveKey(REPO + "@abc124"));
+    }
+
+    @Test
+    public void ambiguousAbbreviationIsAMiss() {
+        CommitSummaryCache cache = new CommitSummaryCache(10, 60);
+        cache.put(REPO + "@" + SHA_A, "summary a");
+        cache.put(REPO + "@" + SHA_B, "summary b");
+
+        assertEquals(Optional.empty(), cache.get(REPO + "@abc12"));
+    }
+
+    @Test
+    public void abbreviationDoesNotMatchOtherRepositories() {
+        CommitSummaryCache cache = new CommitSummaryCache(10, 60);
+        cache.put(REPO + "-fork@" + SHA_A, "summary of fork");
+
+        assertEquals(Optional.empty(), cache.get(REPO + "@abc123"));
+    }
+
+    @Test
+    public void unresolvableAbbreviatedKeyIsNotCached() {
+        CommitSummaryCache cache = new CommitSummaryCache(10, 60);
+        cache.put(REPO + "@abc123", "summary");
+
+        assertEquals(0, cache.size());
+        assertEquals(Optional.empty(), cache.get(REPO + "@" + SHA_A));
+    }
+
+    @Test
+    public void abbreviatedLookupRefreshesRecency() {
+        CommitSummaryCache cache = new CommitSummaryCache(2, 60);
+        cache.put(REPO + "@" + SHA_A, "summary a");
+        cache.put(REPO + "@" + SHA_B, "summary b");
+
+        cache.get(REPO + "@abc123");
+        cache.put(REPO + "@def0000000000000000000000000000000000003", "summary c");
+
+        assertTrue(cache.get(REPO + "@" + SHA_A).isPresent());
+        assertEquals(Optional.empty(), cache.get(REPO + "@" + SHA_B));
+        // The evicted key is no longer resolvable either
+        assertEquals(Optional.empty(), cache.resolveKey(REPO + "@abc124"));
+    }
+
+    @Test
+    public void expiredEntriesAreEvicted() {
+        CommitSummaryCache cache = new CommitSummaryCache(10, 0);
+        cache.put(REPO + "@" + SHA_A, "summary a");
+
+        sleepBriefly();
+        assertEquals(Optional.empty(), cache.get(REPO + "@abc123"));
+        assertEquals(Optional.empty(), cache.resolveKey(REPO + "@abc123"));
+    }
+
+    private void sleepBriefly() {
+        try {
+            Thread.sleep(5);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
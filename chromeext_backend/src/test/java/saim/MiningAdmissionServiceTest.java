@@ -0,0 +1,220 @@
+package saim;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.kohsuke.github.GHCommit;
+import org.kohsuke.github.GHRepository;
+import org.refactoringminer.api.Refactoring;
+import org.refactoringminer.api.RefactoringType;
+import org.refactoringminer.rm1.GitHistoryRefactoringMinerImpl;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class MiningAdmissionServiceTest {
+
+    private static final String REPO = "https://github.com/owner/repo";
+
+    @TempDir
+    File repoDir;
+
+    private MiningAdmissionService service;
+
+    @BeforeEach
+    public void setUp() {
+        service = new MiningAdmissionService(1, 1);
+        ReflectionTestUtils.setField(service, "fullMaxLines", 100);
+        ReflectionTestUtils.setField(service, "fullMaxFiles", 3);
+        ReflectionTestUtils.setField(service, "fullMaxBytes", 1_000_000L);
+        ReflectionTestUtils.setField(service, "sampledMaxLines", 1000);
+        ReflectionTestUtils.setField(service, "sampleFiles", 10);
+        ReflectionTestUtils.setField(service, "baseTimeoutSeconds", 30);
+        ReflectionTestUtils.setField(service, "linesPerSecond", 10);
+        ReflectionTestUtils.setField(service, "maxTimeoutSeconds", 60);
+        ReflectionTestUtils.setField(service, "historySize", 2);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    public void smallJavaChangeIsMinedFully() throws Exception {
+        MiningDecision decision = decideOn(Map.of("src/A.java", lines(20)));
+
+        assertEquals(MiningDecision.Strategy.FULL, decision.getStrategy());
+        assertEquals("mirror", decision.getSource());
+        assertEquals(20, decision.getLinesAdded());
+        // 30s base plus 20 lines at 10 lines per second
+        assertEquals(32, decision.getTimeoutSeconds());
+    }
+
+    @Test
+    public void commitWithoutJavaFilesIsNotMined() throws Exception {
+        MiningDecision decision = decideOn(Map.of("docs/guide.md", lines(5)));
+
+        assertEquals(MiningDecision.Strategy.DIFF_ONLY, decision.getStrategy());
+    }
+
+    @Test
+    public void tooManyLinesAreSampledAndFarTooManyNotMined() throws Exception {
+        assertEquals(MiningDecision.Strategy.SAMPLED, decideOn(Map.of("src/A.java", lines(500))).getStrategy());
+
+        MiningDecision huge = decideOn(Map.of("src/B.java", lines(2000)));
+        assertEquals(MiningDecision.Strategy.DIFF_ONLY, huge.getStrategy());
+        assertEquals(60, huge.getTimeoutSeconds());
+    }
+
+    @Test
+    public void tooManyFilesAreSampled() throws Exception {
+        Map<String, String> files = new HashMap<>();
+        for (int i = 0; i < 4; i++) {
+            files.put("src/F" + i + ".java", lines(1));
+        }
+
+        MiningDecision decision = decideOn(files);
+
+        assertEquals(MiningDecision.Strategy.SAMPLED, decision.getStrategy());
+        assertEquals(4, decision.getFilesChanged());
+    }
+
+    @Test
+    public void truncatedGitHubListingCountsAsTooManyFilesWithoutAMirror() throws Exception {
+        GHCommit commit = mock(GHCommit.class);
+        GHCommit.File file = mock(GHCommit.File.class);
+        when(file.getFileName()).thenReturn("docs/page.md");
+        when(commit.getFiles()).thenReturn(Collections.nCopies(300, file));
+        when(commit.getLinesAdded()).thenReturn(10);
+        when(commit.getLinesDeleted()).thenReturn(0);
+        GHRepository repository = mock(GHRepository.class);
+        when(repository.getCommit(anyString())).thenReturn(commit);
+        GitHistoryRefactoringMinerImpl miner = mock(GitHistoryRefactoringMinerImpl.class);
+        when(miner.getGitHubRepository(anyString())).thenReturn(repository);
+        RepositoryMirrorManager mirrorManager = mock(RepositoryMirrorManager.class);
+        when(mirrorManager.openWithCommitPair(anyString(), anyString(), any())).thenThrow(new IOException("no mirror"));
+        ReflectionTestUtils.setField(service, "mirrorManager", mirrorManager);
+
+        MiningDecision decision = service.decide(REPO, "abc", miner, GitHubCredentials.anonymous());
+
+        assertEquals(MiningDecision.Strategy.SAMPLED, decision.getStrategy());
+        assertTrue(decision.getReason().contains("more than GitHub lists"));
+    }
+
+    @Test
+    public void onlyTheMostRecentDecisionsAreKept() throws Exception {
+        decideOn(Map.of("src/A.java", lines(1)));
+        decideOn(Map.of("docs/a.md", lines(1)));
+        decideOn(Map.of("src/A.java", lines(500)));
+
+        Map<String, Object> decisions = service.decisions();
+        List<?> recent = (List<?>) decisions.get("recent");
+        assertEquals(2, recent.size());
+        assertEquals(MiningDecision.Strategy.SAMPLED, ((MiningDecision) recent.get(0)).getStrategy());
+        @SuppressWarnings("unchecked")
+        Map<String, Long> counts = (Map<String, Long>) decisions.get("counts");
+        assertEquals(1L, counts.get("FULL"));
+        assertEquals(1L, counts.get("DIFF_ONLY"));
+    }
+
+    @Test
+    public void fullMiningFindsTheRefactoringsOfACommit() throws Exception {
+        String before = "package app;\n\npublic class Worker {\n    public int total(int[] values) {\n"
+                + "        int sum = 0;\n        for (int value : values) {\n            sum += value;\n        }\n        return sum;\n    }\n}\n";
+        try (Git git = Git.init().setDirectory(repoDir).call()) {
+            commit(git, Map.of("src/app/Worker.java", before));
+            RevCommit commit = commit(git, Map.of("src/app/Worker.java", before.replace("total(", "sum(")));
+            MiningDecision decision = service.decide(git.getRepository(), REPO, commit.getName());
+
+            Optional<List<Refactoring>> found = service.mineFull(new GitHistoryRefactoringMinerImpl(), git.getRepository(), decision);
+
+            assertTrue(found.isPresent());
+            assertEquals(1, found.get().size());
+            assertEquals(RefactoringType.RENAME_METHOD, found.get().get(0).getRefactoringType());
+        }
+    }
+
+    @Test
+    public void timedOutMiningIsNotWaitedFor() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        GitHistoryRefactoringMinerImpl miner = mock(GitHistoryRefactoringMinerImpl.class);
+        doAnswer(invocation -> release.await(10, TimeUnit.SECONDS)).when(miner).detectAtCommit(any(Repository.class), anyString(), any());
+        try (Git git = Git.init().setDirectory(repoDir).call()) {
+            RevCommit commit = commit(git, Map.of("src/A.java", lines(1)));
+            MiningDecision decision = service.decide(git.getRepository(), REPO, commit.getName());
+            decision.timeoutSeconds = 1;
+
+            long start = System.currentTimeMillis();
+            assertTrue(service.mineFull(miner, git.getRepository(), decision).isEmpty());
+            assertTrue(System.currentTimeMillis() - start < 5000);
+            // The first run cannot be interrupted and keeps the only thread; a run queued behind it is dropped on timeout
+            assertTrue(service.mineFull(miner, git.getRepository(), decision).isEmpty());
+            release.countDown();
+            verify(miner, after(500).times(1)).detectAtCommit(any(Repository.class), anyString(), any());
+            // Each run released the repository exactly once: the dropped one on timeout, the running one when it ended
+            assertEquals(1, ((AtomicInteger) ReflectionTestUtils.getField(git.getRepository(), "useCnt")).get());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    // Commits the files on top of a base commit and decides on that commit
+    private MiningDecision decideOn(Map<String, String> files) throws Exception {
+        try (Git git = Git.init().setDirectory(repoDir).call()) {
+            if (git.getRepository().resolve("HEAD") == null) {
+                commit(git, Map.of("README.md", "readme\n"));
+            }
+            RevCommit commit = commit(git, files);
+            return service.decide(git.getRepository(), REPO, commit.getName());
+        }
+    }
+
+    private RevCommit commit(Git git, Map<String, String> files) throws Exception {
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            File target = new File(repoDir, file.getKey());
+            target.getParentFile().mkdirs();
+            Files.writeString(target.toPath(), file.getValue());
+        }
+        git.add().addFilepattern(".").call();
+        PersonIdent ident = new PersonIdent("Test", "test@example.com");
+        return git.commit().setMessage("change").setAuthor(ident).setCommitter(ident).setSign(false).call();
+    }
+
+    // Every call returns different lines, so rewriting a file changes all of them
+    private static int generation;
+
+    private String lines(int count) {
+        generation++;
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            content.append("// ").append(generation).append(" line ").append(i).append("\n");
+        }
+        return content.toString();
+    }
+}
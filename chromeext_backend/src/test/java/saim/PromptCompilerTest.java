@@ -0,0 +1,83 @@
+package saim;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class PromptCompilerTest {
+
+    private static final String EXTRACT_A = "Extract Method public helper() : void extracted from public run() : void in class org.app.service.Worker";
+    private static final String EXTRACT_B = "Extract Method public check() : void extracted from public run() : void in class org.app.service.Worker";
+    private static final String EXTRACT_C = "Extract Method public load() : void extracted from public init() : void in class org.app.data.Store";
+
+    @Test
+    public void compileEmitsTheExamplesHeaderOnce() {
+        String prompt = new PromptCompiler(8, 6000, 5).compile("1. " + EXTRACT_A + "\n", Map.of("EXTRACT_OPERATION", 1));
+
+        assertEquals(prompt.indexOf("EXAMPLES:"), prompt.lastIndexOf("EXAMPLES:"));
+        assertFalse(prompt.contains("\n\n\n"));
+        assertTrue(prompt.contains("Example 8:\n"));
+        assertTrue(prompt.endsWith("Refactorings:\nExtract Method (1):\n- " + EXTRACT_A + "\n"));
+    }
+
+    @Test
+    public void compileUsesOnlyTheConfiguredNumberOfExamples() {
+        String prompt = new PromptCompiler(2, 6000, 5).compile("1. " + EXTRACT_A, Map.of());
+
+        assertTrue(prompt.contains("Example 2:\n"));
+        assertFalse(prompt.contains("Example 3:"));
+    }
+
+    @Test
+    public void compileRemovesDuplicatesAndSamplesLargeGroups() {
+        String messages = "1. " + EXTRACT_A + "\n2. " + EXTRACT_A + "\n3. " + EXTRACT_B + "\n4. " + EXTRACT_C + "\n";
+        String prompt = new PromptCompiler(0, 6000, 2).compile(messages, Map.of("EXTRACT_OPERATION", 5));
+
+        String body = prompt.substring(prompt.indexOf("Refactorings:\n"));
+        assertEquals("Refactorings:\nExtract Method (5):\n- " + EXTRACT_A + "\n- " + EXTRACT_B + "\n- ... and 3 more\n", body);
+    }
+
+    @Test
+    public void compileStaysWithinTheTokenBudget() {
+        StringBuilder messages = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            messages.append(i + 1).append(". Extract Method public m").append(i)
+                    .append("() : void extracted from public run() : void in class org.app.Big").append(i).append("\n");
+        }
+        String prompt = new PromptCompiler(8, 2000, 5).compile(messages.toString(), Map.of("EXTRACT_OPERATION", 500));
+
+        assertTrue(LlmRequestScheduler.estimateTokens(prompt, 0) <= 2000 + 10);
+        assertTrue(prompt.contains("- ... and "));
+    }
+
+    @Test
+    public void parseRefactoringsStripsNumberingAndDuplicates() {
+        List<String> parsed = new PromptCompiler(0, 6000, 5).parseRefactorings("1. " + EXTRACT_A + "\n\n2.  " + EXTRACT_A + "\n3. " + EXTRACT_C);
+
+        assertEquals(List.of(EXTRACT_A, EXTRACT_C), parsed);
+    }
+
+    @Test
+    public void splitByPackageKeepsPackagesTogether() {
+        PromptCompiler compiler = new PromptCompiler(0, 6000, 5);
+
+        List<List<String>> chunks = compiler.splitByPackage(List.of(EXTRACT_A, EXTRACT_C, EXTRACT_B), 2);
+
+        assertEquals(List.of(List.of(EXTRACT_C), List.of(EXTRACT_A, EXTRACT_B)), chunks);
+    }
+
+    @Test
+    public void splitByPackageSplitsPackagesLargerThanAChunk() {
+        PromptCompiler compiler = new PromptCompiler(0, 6000, 5);
+
+        List<List<String>> chunks = compiler.splitByPackage(List.of(EXTRACT_A, EXTRACT_B, EXTRACT_C), 1);
+
+        assertEquals(3, chunks.size());
+        chunks.forEach(chunk -> assertEquals(1, chunk.size()));
+    }
+}
@@ -0,0 +1,131 @@
+package saim;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class SummaryRequestCoalescerTest {
+
+    private static final String KEY = "https://github.com/owner/repo@abc1230000000000000000000000000000000001";
+
+    @Test
+    public void concurrentRequestsShareOneComputation() throws Exception {
+        SummaryRequestCoalescer coalescer = new SummaryRequestCoalescer();
+        AtomicInteger computations = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService callers = Executors.newFixedThreadPool(4);
+        try {
+            Future<String> first = callers.submit(() -> coalescer.execute(KEY, () -> {
+                computations.incrementAndGet();
+                started.countDown();
+                await(release);
+                return "summary";
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            List<Future<String>> joined = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                joined.add(callers.submit(() -> coalescer.execute(KEY, () -> {
+                    computations.incrementAndGet();
+                    return "duplicate";
+                })));
+            }
+            // The joining callers block in the coalescer without computing; give them time to get there
+            Thread.sleep(200);
+            release.countDown();
+
+            assertEquals("summary", first.get(5, TimeUnit.SECONDS));
+            for (Future<String> result : joined) {
+                assertEquals("summary", result.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, computations.get());
+            assertEquals(0, coalescer.inFlightCount());
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void failureIsRethrownAndTheKeyIsReleased() {
+        SummaryRequestCoalescer coalescer = new SummaryRequestCoalescer();
+
+        IllegalStateException thrown = assertThrows(IllegalStateException.class,
+                () -> coalescer.execute(KEY, () -> { throw new IllegalStateException("mining failed"); }));
+        assertEquals("mining failed", thrown.getMessage());
+
+        // A failed computation is not remembered, the next request computes again
+        assertEquals("summary", coalescer.execute(KEY, () -> "summary"));
+        assertEquals(0, coalescer.inFlightCount());
+    }
+
+    @Test
+    public void errorIsPassedToJoinedCallers() throws Exception {
+        SummaryRequestCoalescer coalescer = new SummaryRequestCoalescer();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = callers.submit(() -> coalescer.execute(KEY, () -> {
+                started.countDown();
+                await(release);
+                throw new StackOverflowError("mining recursed too deep");
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<String> joined = callers.submit(() -> coalescer.execute(KEY, () -> "duplicate"));
+            Thread.sleep(200);
+            release.countDown();
+
+            ExecutionException failure = assertThrows(ExecutionException.class, () -> joined.get(5, TimeUnit.SECONDS));
+            assertTrue(failure.getCause() instanceof StackOverflowError);
+            assertTrue(assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS)).getCause() instanceof StackOverflowError);
+            assertEquals(0, coalescer.inFlightCount());
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    public void onlyInteractiveCallersAreCounted() {
+        SummaryRequestCoalescer coalescer = new SummaryRequestCoalescer();
+
+        coalescer.execute(KEY, LlmRequestScheduler.Priority.BACKGROUND, () -> {
+            assertEquals(0, coalescer.interactiveCount());
+            assertEquals(1, coalescer.inFlightCount());
+            return "prefetched";
+        });
+        coalescer.execute(KEY, () -> {
+            assertEquals(1, coalescer.interactiveCount());
+            return "viewed";
+        });
+        assertEquals(0, coalescer.interactiveCount());
+    }
+
+    @Test
+    public void differentKeysAreComputedSeparately() {
+        SummaryRequestCoalescer coalescer = new SummaryRequestCoalescer();
+
+        assertEquals("a", coalescer.execute(KEY, () -> "a"));
+        assertEquals("b", coalescer.execute(KEY + "-fork", () -> "b"));
+    }
+
+    private void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package saim;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import saim.UnderstandAnalysisScheduler.Admission;
+import saim.UnderstandAnalysisScheduler.Priority;
+
+public class UnderstandAnalysisSchedulerTest {
+
+    private UnderstandAnalysisScheduler scheduler;
+    private UnderstandJobRegistry jobRegistry;
+    // What the registry would publish for every analysis
+    private final Map<String, UnderstandStatus> statuses = new ConcurrentHashMap<>();
+    private final List<String> started = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        jobRegistry = mock(UnderstandJobRegistry.class);
+        doAnswer(invocation -> {
+            String analysisId = invocation.getArgument(0);
+            UnaryOperator<UnderstandStatus> change = invocation.getArgument(1);
+            statuses.compute(analysisId, (id, current) ->
+                    change.apply(current != null ? current : new UnderstandStatus(UnderstandStatusValue.PENDING)));
+            return null;
+        }).when(jobRegistry).publishTransient(anyString(), any(UnaryOperator.class));
+
+        scheduler = new UnderstandAnalysisScheduler();
+        ReflectionTestUtils.setField(scheduler, "jobRegistry", jobRegistry);
+        ReflectionTestUtils.setField(scheduler, "concurrency", 1);
+        ReflectionTestUtils.setField(scheduler, "maxQueued", 5);
+        ReflectionTestUtils.setField(scheduler, "maxQueuedPerTenant", 3);
+        ReflectionTestUtils.setField(scheduler, "initialDurationSeconds", 60L);
+        scheduler.init();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        release.countDown();
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void interactiveAnalysesStartFirstAndTenantsTakeTurns() throws Exception {
+        CountDownLatch done = new CountDownLatch(5);
+        submitBlocking("blocker", "tenant-c", done);
+        submit("A-bg1", "tenant-a", Priority.BACKGROUND, done);
+        submit("A-int1", "tenant-a", Priority.INTERACTIVE, done);
+        submit("A-int2", "tenant-a", Priority.INTERACTIVE, done);
+        submit("B-int1", "tenant-b", Priority.INTERACTIVE, done);
+
+        assertEquals(1, statuses.get("A-int1").getQueuePosition());
+        assertEquals(2, statuses.get("B-int1").getQueuePosition());
+        assertEquals(3, statuses.get("A-int2").getQueuePosition());
+        assertEquals(4, statuses.get("A-bg1").getQueuePosition());
+        // One worker, so every analysis is expected to start one average duration after the one before
+        assertEquals(60_000L, statuses.get("B-int1").getEstimatedStartAt() - statuses.get("A-int1").getEstimatedStartAt());
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("blocker", "A-int1", "B-int1", "A-int2", "A-bg1"), started);
+        // Started analyses are no longer shown as waiting
+        assertNull(statuses.get("A-bg1").getQueuePosition());
+        // Queue positions are only published, never written to the database
+        verify(jobRegistry, never()).update(anyString(), any());
+    }
+
+    @Test
+    public void submissionsBeyondTheTenantLimitAreRejected() {
+        CountDownLatch done = new CountDownLatch(4);
+        submitBlocking("blocker", "tenant-c", done);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(submit("A-" + i, "tenant-a", Priority.BACKGROUND, done).accepted);
+        }
+
+        Admission rejected = submit("A-3", "tenant-a", Priority.INTERACTIVE, done);
+
+        assertFalse(rejected.accepted);
+        // Average of 60s on a single worker
+        assertEquals(60, rejected.retryAfterSeconds);
+        assertTrue(submit("B-0", "tenant-b", Priority.BACKGROUND, done).accepted);
+        assertEquals(1L, scheduler.stats().get("rejected"));
+    }
+
+    @Test
+    public void submissionsBeyondTheQueueLimitAreRejected() {
+        CountDownLatch done = new CountDownLatch(6);
+        submitBlocking("blocker", "tenant-x", done);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(submit("T-" + i, "tenant-" + i, Priority.BACKGROUND, done).accepted);
+        }
+
+        Admission rejected = submit("T-5", "tenant-5", Priority.INTERACTIVE, done);
+
+        assertFalse(rejected.accepted);
+        assertTrue(rejected.retryAfterSeconds >= 5);
+        assertEquals(5, scheduler.stats().get("queued"));
+    }
+
+    // Occupies the only worker until the test releases it
+    private void submitBlocking(String analysisId, String tenant, CountDownLatch done) {
+        assertTrue(scheduler.submit(analysisId, tenant, Priority.INTERACTIVE, () -> {
+            started.add(analysisId);
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        }).accepted);
+    }
+
+    private Admission submit(String analysisId, String tenant, Priority priority, CountDownLatch done) {
+        return scheduler.submit(analysisId, tenant, priority, () -> {
+            started.add(analysisId);
+            done.countDown();
+        });
+    }
+}
@@ -1,4 +1,5 @@
 import os
+import json
 from dotenv import load_dotenv
 from langchain_openai.chat_models import ChatOpenAI
 from langchain_core.output_parsers import StrOutputParser
@@ -17,6 +18,7 @@ import string
 import pandas as pd
 from typing import Union
 from fastapi import FastAPI, Request, Header, HTTPException, Depends
+from fastapi.responses import StreamingResponse
 from pydantic import BaseModel, HttpUrl
 from aider_call import get_summary_from_aider
 
@@ -127,6 +129,8 @@ class QueryRequest(BaseModel):
     userag: bool
     git_url: Optional[HttpUrl] = None
     commit_url: Optional[HttpUrl] = None
+    # Unified diff computed by the backend; when present the commit page is not scraped
+    commit_diff: Optional[str] = None
 
 def is_valid_url(url: str):
     try:
@@ -135,8 +139,8 @@ def is_valid_url(url: str):
     except:
         return False
 
-@app.post("/get-response")
-async def process_output(request: QueryRequest, token: str = Depends(get_token)):
+def build_chain(request: QueryRequest, token: str):
+    """Builds the LangChain pipeline and its input for a request, shared by the plain and streaming endpoints."""
     query_text = request.query.strip()
     project_context = ''
     if request.git_url:
@@ -205,14 +209,15 @@ async def process_output(request: QueryRequest, token: str = Depends(get_token))
                 INTENT: External Quality Improvement\n
                 IMPACT: Reduced coupling and improved abstraction boundaries. Enhanced external quality by aligning responsibilities with modular service-oriented architecture.\n\n
         '''
-        changes = get_github_commit_changes(query_text)
+        changes = request.commit_diff if request.commit_diff else get_github_commit_changes(query_text)
         query = prompt + changes + project_context
-        response = main_wo_rag(query, token)
-        print(response)
-        return {"response_with_cs": response}
+        model = ChatOpenAI(api_key=token, model="gpt-4-turbo")
+        return model | StrOutputParser(), query
     else:
         changes = ''
-        if request.commit_url:
+        if request.commit_diff:
+            changes = 'Commit\'s content: ' + request.commit_diff
+        elif request.commit_url:
             changes = 'Commit\'s content: ' + get_github_commit_changes(request.commit_url)
         retrieved_docs = retriever.get_relevant_documents(request.query)
         
@@ -228,7 +233,27 @@ async def process_output(request: QueryRequest, token: str = Depends(get_token))
         # prompt = ChatPromptTemplate.from_template(template_w_rag)
         
         chain = prompt | model | parser
-        
-        response = chain.invoke(chain_input)
-        #print('Generated: ', response)
-        return {"response_with_cs": response}
\ No newline at end of file
+        return chain, chain_input
+
+@app.post("/get-response")
+async def process_output(request: QueryRequest, token: str = Depends(get_token)):
+    chain, chain_input = build_chain(request, token)
+    response = chain.invoke(chain_input)
+    #print('Generated: ', response)
+    return {"response_with_cs": response}
+
+@app.post("/get-response/stream")
+async def process_output_stream(request: QueryRequest, token: str = Depends(get_token)):
+    """Same as /get-response, but sends the generated text as Server-Sent Events while the model produces it."""
+    chain, chain_input = build_chain(request, token)
+
+    def event_stream():
+        try:
+            for chunk in chain.stream(chain_input):
+                if chunk:
+                    yield "data: " + json.dumps({"token": chunk}) + "\n\n"
+        except Exception as e:
+            yield "event: error\ndata: " + json.dumps({"error": str(e)}) + "\n\n"
+        yield "data: [DONE]\n\n"
+
+    return StreamingResponse(event_stream(), media_type="text/event-stream")
@@ -101,10 +101,24 @@ def add_source_code(src_dir, db_path_with_ext, und_executable):
     print("Source code added successfully.", file=sys.stderr)
     return True
 
-# Function for analyzing the database using 'und analyze'
-def analyze_database(db_path_with_ext, und_executable):
-    print(f"Analyzing database {db_path_with_ext}:", file=sys.stderr)
-    analyze_cmd = [und_executable, "analyze", db_path_with_ext]
+# Function for removing files deleted from the source directory using 'und remove'
+def remove_source_files(src_dir, removed_list, db_path_with_ext, und_executable):
+    with open(removed_list, encoding="utf-8") as f:
+        removed_files = [line.strip() for line in f if line.strip()]
+    print(f"Removing {len(removed_files)} deleted files from database {db_path_with_ext}:", file=sys.stderr)
+    for relative_path in removed_files:
+        remove_cmd = [und_executable, "remove", os.path.join(src_dir, relative_path), db_path_with_ext]
+        stdout, returncode = run_command(remove_cmd)
+        # Files that were never part of the project (e.g. non-source files) cannot be removed
+        if returncode != 0:
+            print(f"WARNING: Could not remove {relative_path} from database.", file=sys.stderr)
+    return True
+
+# Function for analyzing the database using 'und analyze'; with changed_only only files
+# changed since the last analysis (and their dependents) are re-analyzed
+def analyze_database(db_path_with_ext, und_executable, changed_only=False):
+    print(f"Analyzing database {db_path_with_ext}{' (changed files only)' if changed_only else ''}:", file=sys.stderr)
+    analyze_cmd = [und_executable, "analyze", "-changed", db_path_with_ext] if changed_only else [und_executable, "analyze", db_path_with_ext]
     stdout, returncode = run_command(analyze_cmd)
     
     if returncode != 0:
@@ -245,6 +259,8 @@ if __name__ == '__main__':
     parser.add_argument("src_dir", help="Specify source code directory path.")
     parser.add_argument("-l", "--language", help="Specify project language for creation (e.g., Java, C++, Python). Default: 'all'", default="all")
     parser.add_argument("--db_name", help="Optional: Specify a base name for the Understand database file (without .und extension). Defaults to source directory name.", default=None)
+    parser.add_argument("--incremental", help="Optional: Only re-analyze files changed since the last analysis of an existing database.", action="store_true")
+    parser.add_argument("--removed_list", help="Optional: File listing source files (relative to src_dir, one per line) deleted since the last analysis.", default=None)
     args = parser.parse_args()
 
     # ------------------- Getting Absolute Paths and Validating -------------------
@@ -273,9 +289,11 @@ if __name__ == '__main__':
     # ------------------- Understand Database Operations (create, add, analyze) -------------------
     if not create_database(src_dir, db_path, und_executable, language):
         sys.exit(1)
+    if args.removed_list and not remove_source_files(src_dir, args.removed_list, db_path, und_executable):
+        sys.exit(1)
     if not add_source_code(src_dir, db_path, und_executable):
         sys.exit(1)
-    if not analyze_database(db_path, und_executable):
+    if not analyze_database(db_path, und_executable, changed_only=args.incremental):
         sys.exit(1)
 
     # ------------------- Metric Extraction using Understand API -------------------